@@ -0,0 +1,380 @@
+package com.bcs05.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming reader for GTFS CSV files. Records are tokenized in place: every
+ * field is kept as a start and end offset into the read buffer, and numbers and
+ * times are parsed straight from the bytes. Strings are only made when a field
+ * is asked for as a string, so large files such as stop_times.txt can be read
+ * without allocating per row
+ */
+class GTFSCsvReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private InputStream input;
+    private byte[] buffer;
+    private int bufferStart;
+    private int bufferEnd;
+    private boolean endOfInput;
+
+    // Column names of the header line
+    private String[] header;
+
+    // Byte range of every field of the current record, quotes excluded
+    private int[] fieldStart;
+    private int[] fieldEnd;
+    private boolean[] fieldQuoted;
+    private int fieldCount;
+
+    /**
+     * Constructs a reader and reads the header line
+     *
+     * @param input the CSV data
+     * @throws IOException if the data cannot be read
+     */
+    GTFSCsvReader(InputStream input) throws IOException {
+        this.input = input;
+        buffer = new byte[BUFFER_SIZE];
+        fieldStart = new int[16];
+        fieldEnd = new int[16];
+        fieldQuoted = new boolean[16];
+
+        fill();
+
+        // Skip the UTF-8 byte order mark that some feeds start with
+        if (bufferEnd >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF) {
+            bufferStart = 3;
+        }
+
+        if (next()) {
+            header = new String[fieldCount];
+            for (int i = 0; i < fieldCount; i++) {
+                header[i] = getString(i).trim();
+            }
+        } else {
+            header = new String[0];
+        }
+    }
+
+    /**
+     * Finds the column with the given name in the header
+     *
+     * @param name the column name
+     * @return the column index, -1 if the file has no such column
+     */
+    int getColumn(String name) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves to the next record, skipping empty lines
+     *
+     * @return false if there are no more records
+     * @throws IOException if the data cannot be read
+     */
+    boolean next() throws IOException {
+        while (true) {
+            // Tokenize the record, reading more data while it runs past the buffer
+            fieldCount = 0;
+            int recordEnd = tokenize(bufferStart);
+            while (recordEnd == -1) {
+                fill();
+                fieldCount = 0;
+                recordEnd = tokenize(bufferStart);
+            }
+            if (bufferStart >= bufferEnd) {
+                return false;
+            }
+
+            bufferStart = skipLineBreak(recordEnd);
+            if (fieldCount > 1 || fieldEnd[0] > fieldStart[0] || fieldQuoted[0]) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Splits one record into fields
+     *
+     * @param position the offset the record starts at
+     * @return the offset of the line break ending the record, -1 if the record is
+     *         not completely in the buffer
+     */
+    private int tokenize(int position) {
+        while (true) {
+            if (fieldCount == fieldStart.length) {
+                fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+                fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+                fieldQuoted = Arrays.copyOf(fieldQuoted, fieldCount * 2);
+            }
+
+            int end;
+            if (position < bufferEnd && buffer[position] == '"') {
+                // Quoted field, a doubled quote stands for one quote
+                int quoteEnd = position + 1;
+                while (true) {
+                    if (quoteEnd >= bufferEnd) {
+                        if (!endOfInput) {
+                            return -1;
+                        }
+                        // Unterminated quote at the end of the data
+                        fieldStart[fieldCount] = position + 1;
+                        fieldEnd[fieldCount] = bufferEnd;
+                        fieldQuoted[fieldCount] = true;
+                        fieldCount++;
+                        return bufferEnd;
+                    }
+                    if (buffer[quoteEnd] == '"') {
+                        if (quoteEnd + 1 < bufferEnd && buffer[quoteEnd + 1] == '"') {
+                            quoteEnd += 2;
+                            continue;
+                        }
+                        if (quoteEnd + 1 >= bufferEnd && !endOfInput) {
+                            return -1;
+                        }
+                        break;
+                    }
+                    quoteEnd++;
+                }
+                fieldStart[fieldCount] = position + 1;
+                fieldEnd[fieldCount] = quoteEnd;
+                fieldQuoted[fieldCount] = true;
+                end = quoteEnd + 1;
+                while (end < bufferEnd && buffer[end] != ',' && buffer[end] != '\n' && buffer[end] != '\r') {
+                    end++;
+                }
+            } else {
+                end = position;
+                while (end < bufferEnd && buffer[end] != ',' && buffer[end] != '\n' && buffer[end] != '\r') {
+                    end++;
+                }
+                fieldStart[fieldCount] = position;
+                fieldEnd[fieldCount] = end;
+                fieldQuoted[fieldCount] = false;
+            }
+            fieldCount++;
+
+            if (end >= bufferEnd) {
+                return endOfInput ? bufferEnd : -1;
+            }
+            if (buffer[end] != ',') {
+                return end;
+            }
+            position = end + 1;
+        }
+    }
+
+    /**
+     * Skips the line break at an offset, either \n, \r\n or \r
+     *
+     * @param position the offset of the line break
+     * @return the offset of the next line
+     */
+    private int skipLineBreak(int position) {
+        if (position < bufferEnd && buffer[position] == '\r') {
+            position++;
+        }
+        if (position < bufferEnd && buffer[position] == '\n') {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer and reads more data after
+     * them
+     *
+     * @throws IOException if the data cannot be read
+     */
+    private void fill() throws IOException {
+        if (bufferStart > 0) {
+            System.arraycopy(buffer, bufferStart, buffer, 0, bufferEnd - bufferStart);
+            bufferEnd -= bufferStart;
+            bufferStart = 0;
+        }
+
+        // A record longer than the buffer makes it grow
+        if (bufferEnd == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        int read = input.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (read == -1) {
+            endOfInput = true;
+        } else {
+            bufferEnd += read;
+        }
+    }
+
+    /**
+     * Checks whether a field is missing or empty
+     *
+     * @param column the column index
+     * @return true if the current record has no value in the column
+     */
+    boolean isEmpty(int column) {
+        if (column < 0 || column >= fieldCount) {
+            return true;
+        }
+        for (int i = fieldStart[column]; i < fieldEnd[column]; i++) {
+            if (buffer[i] != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves a field as a string
+     *
+     * @param column the column index
+     * @return the value, an empty string if the field is missing
+     */
+    String getString(int column) {
+        if (column < 0 || column >= fieldCount) {
+            return "";
+        }
+        String value = new String(buffer, fieldStart[column], fieldEnd[column] - fieldStart[column],
+                StandardCharsets.UTF_8);
+        return fieldQuoted[column] ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * Looks up a field in a dictionary without making a string of it
+     *
+     * @param column     the column index
+     * @param dictionary the dictionary
+     * @return the index of the value, -1 if it is not in the dictionary
+     */
+    int find(int column, IdDictionary dictionary) {
+        if (column < 0 || column >= fieldCount) {
+            return -1;
+        }
+        if (fieldQuoted[column]) {
+            return dictionary.find(getString(column));
+        }
+        return dictionary.find(buffer, fieldStart[column], fieldEnd[column]);
+    }
+
+    /**
+     * Retrieves a field as an int
+     *
+     * @param column       the column index
+     * @param defaultValue the value of an empty field
+     * @return the value
+     */
+    int getInt(int column, int defaultValue) {
+        if (isEmpty(column)) {
+            return defaultValue;
+        }
+        int position = fieldStart[column];
+        int end = fieldEnd[column];
+        while (buffer[position] == ' ') {
+            position++;
+        }
+
+        boolean negative = buffer[position] == '-';
+        if (negative || buffer[position] == '+') {
+            position++;
+        }
+        int value = 0;
+        while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+            value = value * 10 + (buffer[position++] - '0');
+        }
+
+        // Some feeds write whole numbers with decimals
+        if (position < end && buffer[position] == '.') {
+            return (int) Math.round(getDouble(column, defaultValue));
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Retrieves a field as a double
+     *
+     * @param column       the column index
+     * @param defaultValue the value of an empty field
+     * @return the value
+     */
+    double getDouble(int column, double defaultValue) {
+        if (isEmpty(column)) {
+            return defaultValue;
+        }
+        int position = fieldStart[column];
+        int end = fieldEnd[column];
+        while (buffer[position] == ' ') {
+            position++;
+        }
+        while (end > position && buffer[end - 1] == ' ') {
+            end--;
+        }
+
+        // Plain decimals are parsed directly, anything else by the JDK
+        boolean negative = buffer[position] == '-';
+        int digit = negative || buffer[position] == '+' ? position + 1 : position;
+        long mantissa = 0;
+        int decimals = -1;
+        int digits = 0;
+        for (; digit < end; digit++) {
+            byte b = buffer[digit];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+        }
+        if (digit < end || digits == 0 || digits > 17) {
+            return Double.parseDouble(getString(column).trim());
+        }
+
+        double value = decimals > 0 ? mantissa / Math.pow(10, decimals) : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Retrieves a field holding a GTFS time (H:MM:SS or HH:MM:SS, hours may exceed
+     * 23)
+     *
+     * @param column the column index
+     * @return the time in seconds after midnight, -1 if the field is empty or not
+     *         a time
+     */
+    int getTime(int column) {
+        if (isEmpty(column)) {
+            return -1;
+        }
+        int value = 0;
+        int part = 0;
+        int parts = 1;
+        for (int i = fieldStart[column]; i < fieldEnd[column]; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                part = part * 10 + (b - '0');
+            } else if (b == ':') {
+                value = value * 60 + part;
+                part = 0;
+                parts++;
+            } else if (b != ' ') {
+                return -1;
+            }
+        }
+        return parts == 3 ? value * 60 + part : -1;
+    }
+
+}
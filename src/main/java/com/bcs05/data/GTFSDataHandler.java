@@ -1,30 +1,54 @@
 package com.bcs05.data;
 
 import com.bcs05.util.DatabaseConnection;
+import com.bcs05.util.GTFSGraph;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Time;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Handles GTFS data operations
  */
 public class GTFSDataHandler {
 
+    // Rows sent to the database in one round trip and committed together
+    private static final int BATCH_SIZE = 5000;
+
+    // Batches that may wait for a writer before the reader blocks
+    private static final int QUEUE_CAPACITY = 16;
+
+    // Threads inserting rows, each with its own connection
+    private static final int WRITER_COUNT = 4;
+
+    // Marker telling a writer that no more batches follow
+    private static final ArrayList<TimeTableRow> END_OF_ROWS = new ArrayList<TimeTableRow>();
+
     public static void main(String[] args) {
         GTFSDataHandler.createTimeTable();
     }
 
     /**
-     * Creates a timetable based on the GTFS data and stores it in the database
+     * Creates a timetable based on the GTFS data and stores it in the database.
+     * The table holds every trip whatever day it runs on, with departures past
+     * midnight, as the graph checks the service days itself. It only has to be
+     * rebuilt when the GTFS data changes
+     *
+     * @return the number of timetable rows inserted, -1 if the timetable could not
+     *         be created
      */
-    public static void createTimeTable() {
-        try {
-            // Open connection to database
-            Connection connection = DatabaseConnection.getConnection();
-            Statement statement = connection.createStatement();
+    public static int createTimeTable() {
+        // Open connection to database
+        try (Connection connection = DatabaseConnection.getConnection();
+                Statement statement = connection.createStatement()) {
 
             // Drop existing timetable table if it exists
             statement.executeUpdate("DROP TABLE IF EXISTS timetable");
@@ -49,7 +73,7 @@ public class GTFSDataHandler {
                     SELECT
                         trips.trip_id,
                         stop_times.stop_id,
-                        stop_times.departure_time,
+                        TIME_TO_SEC(stop_times.departure_time),
                         stop_times.shape_dist_traveled
                     FROM
                         trips
@@ -57,71 +81,197 @@ public class GTFSDataHandler {
                         stop_times
                     ON
                     	trips.trip_id = stop_times.trip_id
-                    JOIN
-                    	calendar_dates
-                    ON
-                    	trips.service_id = calendar_dates.service_id
                     JOIN
                     	routes
                     ON
                     	trips.route_id = routes.route_id
-                    WHERE
-                       stop_times.departure_time <= '23:59:59'
-                       AND
-                       calendar_dates.date = CURRENT_DATE
                     ORDER BY
                         stop_times.trip_id,
                         stop_times.departure_time;
                                         """;
 
-            ResultSet tripStops = statement.executeQuery(tripStopsQuerySQL);
+            // Start the writers before reading, so inserting overlaps with reading
+            ArrayBlockingQueue<ArrayList<TimeTableRow>> batches = new ArrayBlockingQueue<ArrayList<TimeTableRow>>(
+                    QUEUE_CAPACITY);
+            ExecutorService writers = Executors.newFixedThreadPool(WRITER_COUNT);
+            ArrayList<Future<Integer>> writtenRows = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < WRITER_COUNT; i++) {
+                writtenRows.add(writers.submit(() -> writeTimeTable(batches)));
+            }
 
             String currentTripID = "";
             String currentStopID = "";
-            Time currentDepartureTime = null;
+            int currentDepartureTime = 0;
             int tripSegment = 0;
+            ArrayList<TimeTableRow> batch = new ArrayList<TimeTableRow>(BATCH_SIZE);
+
+            // Stream the rows instead of buffering the whole join in the driver
+            // (MySQL Connector/J streaming mode)
+            try (Statement tripStopsStatement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY)) {
+                tripStopsStatement.setFetchSize(Integer.MIN_VALUE);
+                ResultSet tripStops = tripStopsStatement.executeQuery(tripStopsQuerySQL);
+                while (tripStops.next()) {
+                    String tripID = tripStops.getString(1);
+                    String stopID = tripStops.getString(2);
+                    int departureTime = tripStops.getInt(3);
+                    int shapeDistanceTraveled = tripStops.getInt(4);
+
+                    if (currentTripID.equals(tripID)) {
+                        batch.add(new TimeTableRow(currentTripID, tripSegment, currentStopID, stopID,
+                                currentDepartureTime, departureTime - currentDepartureTime, shapeDistanceTraveled));
 
-            while (tripStops.next()) {
-                String tripID = tripStops.getString("trip_id");
-                String stopID = tripStops.getString("stop_id");
-                Time departureTime = tripStops.getTime("departure_time");
-                int shapeDistanceTraveled = tripStops.getInt("shape_dist_traveled");
-
-                if (currentTripID.equals(tripID)) {
-                    String from_stop_id = currentStopID;
-                    String to_stop_id = stopID;
-                    int travel_time = (int) (departureTime.getTime() - currentDepartureTime.getTime()) / 1000;
-
-                    // Insert data into timetable table
-                    String insertToTimeTableSQL = """
-                            INSERT INTO timetable (trip_id, trip_segment, from_stop_id, to_stop_id, departure_time, travel_time, shape_dist_traveled)
-                            VALUES (?, ?, ?, ?, ?, ?, ?)
-                            """;
-                    PreparedStatement preparedStatement = connection.prepareStatement(insertToTimeTableSQL);
-                    preparedStatement.setString(1, currentTripID);
-                    preparedStatement.setInt(2, tripSegment);
-                    preparedStatement.setString(3, from_stop_id);
-                    preparedStatement.setString(4, to_stop_id);
-                    preparedStatement.setTime(5, currentDepartureTime);
-                    preparedStatement.setInt(6, travel_time);
-                    preparedStatement.setInt(7, shapeDistanceTraveled);
-
-                    preparedStatement.execute();
-                    preparedStatement.close();
-
-                } else
-                    tripSegment = 0;
-
-                currentTripID = tripID;
-                currentStopID = stopID;
-                currentDepartureTime = departureTime;
-                tripSegment++;
+                        // Hand full batches to the writers, waiting while they are behind
+                        if (batch.size() == BATCH_SIZE) {
+                            batches.put(batch);
+                            batch = new ArrayList<TimeTableRow>(BATCH_SIZE);
+                        }
+                    } else
+                        tripSegment = 0;
+
+                    currentTripID = tripID;
+                    currentStopID = stopID;
+                    currentDepartureTime = departureTime;
+                    tripSegment++;
+                }
+            } finally {
+                // Send the last rows and tell every writer to stop
+                if (!batch.isEmpty()) {
+                    batches.put(batch);
+                }
+                for (int i = 0; i < WRITER_COUNT; i++) {
+                    batches.put(END_OF_ROWS);
+                }
+                writers.shutdown();
+            }
+
+            // Wait for every writer, even after one of them failed
+            int rowCount = 0;
+            boolean failed = false;
+            for (Future<Integer> rows : writtenRows) {
+                int writtenRowCount = rows.get();
+                failed |= writtenRowCount == -1;
+                rowCount += writtenRowCount;
+            }
+
+            // An incomplete timetable is neither indexed nor loaded, the stored
+            // graph stays in use
+            if (failed) {
+                return -1;
             }
 
+            // Index the table only now, so the inserts did not have to maintain it
+            statement.executeUpdate("CREATE INDEX timetable_from_stop ON timetable (from_stop_id)");
+            statement.executeUpdate("CREATE INDEX timetable_trip ON timetable (trip_id, trip_segment)");
+
+            // The stored graph no longer matches the new timetable, a running
+            // application switches to the new one once it is built
+            GTFSGraph.deleteSnapshot();
+            if (GTFSGraph.isLoaded()) {
+                GTFSGraph.reloadAsync();
+            }
+            return rowCount;
+
+        } catch (SQLException | ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts batches of timetable rows until the end marker is taken from the
+     * queue. Every batch is sent in one round trip and committed as one
+     * transaction. After a failure the remaining batches are still taken from
+     * the queue, so the reader never blocks on a full queue
+     *
+     * @param batches the queue of batches to insert
+     * @return the number of inserted rows, -1 if a batch could not be inserted
+     * @throws InterruptedException if the writer is interrupted while waiting
+     */
+    private static int writeTimeTable(BlockingQueue<ArrayList<TimeTableRow>> batches) throws InterruptedException {
+        String insertToTimeTableSQL = """
+                INSERT INTO timetable (trip_id, trip_segment, from_stop_id, to_stop_id, departure_time, travel_time, shape_dist_traveled)
+                VALUES (?, ?, ?, ?, SEC_TO_TIME(?), ?, ?)
+                """;
+
+        int rowCount = 0;
+        boolean failed = false;
+        try (Connection connection = DatabaseConnection.getConnection();
+                PreparedStatement preparedStatement = connection.prepareStatement(insertToTimeTableSQL)) {
+            connection.setAutoCommit(false);
+
+            ArrayList<TimeTableRow> batch;
+            while ((batch = batches.take()) != END_OF_ROWS) {
+                if (failed) {
+                    continue;
+                }
+
+                try {
+                    for (TimeTableRow row : batch) {
+                        preparedStatement.setString(1, row.tripID);
+                        preparedStatement.setInt(2, row.tripSegment);
+                        preparedStatement.setString(3, row.fromStopID);
+                        preparedStatement.setString(4, row.toStopID);
+                        preparedStatement.setInt(5, row.departureTime);
+                        preparedStatement.setInt(6, row.travelTime);
+                        preparedStatement.setInt(7, row.shapeDistanceTraveled);
+                        preparedStatement.addBatch();
+                    }
+                    preparedStatement.executeBatch();
+                    connection.commit();
+                    rowCount += batch.size();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    failed = true;
+                }
+            }
+            return failed ? -1 : rowCount;
         } catch (SQLException e) {
             e.printStackTrace();
         }
 
+        // Without a connection the batches are still drained
+        while (batches.take() != END_OF_ROWS) {
+        }
+        return -1;
+    }
+
+    /**
+     * One row of the timetable table, times in seconds
+     */
+    private static class TimeTableRow {
+
+        private final String tripID;
+        private final int tripSegment;
+        private final String fromStopID;
+        private final String toStopID;
+        private final int departureTime;
+        private final int travelTime;
+        private final int shapeDistanceTraveled;
+
+        /**
+         * Constructs a timetable row
+         *
+         * @param tripID                the trip
+         * @param tripSegment           the number of the segment within the trip
+         * @param fromStopID            the stop the segment starts at
+         * @param toStopID              the stop the segment ends at
+         * @param departureTime         the departure time in seconds of the day
+         * @param travelTime            the travel time in seconds
+         * @param shapeDistanceTraveled the distance travelled along the shape
+         */
+        TimeTableRow(String tripID, int tripSegment, String fromStopID, String toStopID, int departureTime,
+                int travelTime, int shapeDistanceTraveled) {
+            this.tripID = tripID;
+            this.tripSegment = tripSegment;
+            this.fromStopID = fromStopID;
+            this.toStopID = toStopID;
+            this.departureTime = departureTime;
+            this.travelTime = travelTime;
+            this.shapeDistanceTraveled = shapeDistanceTraveled;
+        }
     }
 
 }
@@ -0,0 +1,760 @@
+package com.bcs05.data;
+
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.GTFSGraphBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * GTFS feed read straight from a GTFS zip, without a database. Holds the
+ * timetable graph together with the stop, route, trip and shape dictionaries of
+ * the feed. The graph matches the one GTFSGraph creates from the timetable
+ * table: every trip of an existing route, the days it runs on according to
+ * calendar_dates.txt, departures past midnight included, and one edge per pair
+ * of consecutive stop times
+ */
+public class GTFSFeed {
+
+    // Location of the GTFS zip, the feed is only used when this file exists
+    public static final String FEED_FILE = "src/main/resources/gtfs.zip";
+
+    private static GTFSFeed instance;
+    private static boolean instanceLoaded;
+
+    private GTFSGraph graph;
+
+    // Stops
+    private IdDictionary stopIds;
+    private String[] stopNames;
+    private double[] stopLatitudes;
+    private double[] stopLongitudes;
+
+    // Routes
+    private IdDictionary routeIds;
+    private String[] routeShortNames;
+    private String[] routeLongNames;
+
+    // Trips, with their route, service and shape, -1 if unknown
+    private IdDictionary tripIds;
+    private int[] tripRoutes;
+    private int[] tripServices;
+    private int[] tripShapes;
+
+    // Services and the days they run on, as (service, day) pairs
+    private IdDictionary serviceIds;
+    private int[] serviceDayService;
+    private LocalDate[] serviceDayDate;
+    private int serviceDayCount;
+
+    // Shapes, the points of shape s are [shapeStart[s], shapeStart[s + 1]) in
+    // sequence order, distances are NaN where the feed has none
+    private IdDictionary shapeIds;
+    private int[] shapeStart;
+    private double[] shapeLatitudes;
+    private double[] shapeLongitudes;
+    private double[] shapeDistances;
+
+    // Stop times of every trip in departure order, the stop times of trip t are
+    // [stopTimeStart[t], stopTimeStart[t + 1]), distances are NaN where the feed
+    // has none
+    private int[] stopTimeStart;
+    private int[] stopTimeStops;
+    private double[] stopTimeDistances;
+
+    /**
+     * Checks whether a GTFS zip is available
+     *
+     * @return true if the feed file exists
+     */
+    public static boolean isAvailable() {
+        return new File(FEED_FILE).isFile();
+    }
+
+    /**
+     * Retrieves the feed, loading it from the feed file on first use
+     *
+     * @return the feed, or null if there is no feed file or it cannot be read
+     */
+    public static synchronized GTFSFeed getInstance() {
+        if (!instanceLoaded) {
+            instanceLoaded = true;
+            if (isAvailable()) {
+                try {
+                    instance = load(new File(FEED_FILE));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Reads the feed file again and makes it the feed returned by getInstance
+     *
+     * @return the feed, or null if there is no feed file or it cannot be read
+     */
+    public static synchronized GTFSFeed reload() {
+        instanceLoaded = false;
+        instance = null;
+        return getInstance();
+    }
+
+    /**
+     * Reads a GTFS zip
+     *
+     * @param file the GTFS zip
+     * @return the feed
+     * @throws IOException if the zip cannot be read or misses a required file
+     */
+    public static GTFSFeed load(File file) throws IOException {
+        GTFSFeed feed = new GTFSFeed();
+        try (ZipFile zip = new ZipFile(file)) {
+            feed.readCalendarDates(zip);
+            feed.readRoutes(zip);
+            feed.readTrips(zip);
+            feed.readStops(zip);
+            feed.readShapes(zip);
+            feed.graph = feed.readStopTimes(zip);
+        }
+        return feed;
+    }
+
+    /**
+     * Opens a file of the zip for reading
+     *
+     * @param zip      the GTFS zip
+     * @param name     the file name
+     * @param required whether the feed is invalid without the file
+     * @return a reader, or null if an optional file is missing
+     * @throws IOException if a required file is missing or cannot be read
+     */
+    private static GTFSCsvReader open(ZipFile zip, String name, boolean required) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            if (required) {
+                throw new IOException("GTFS feed has no " + name);
+            }
+            return null;
+        }
+        InputStream input = zip.getInputStream(entry);
+        return new GTFSCsvReader(input);
+    }
+
+    /**
+     * Reads the days every service runs on from calendar_dates.txt
+     *
+     * @param zip the GTFS zip
+     * @throws IOException if the file cannot be read
+     */
+    private void readCalendarDates(ZipFile zip) throws IOException {
+        serviceIds = new IdDictionary();
+        serviceDayService = new int[1024];
+        serviceDayDate = new LocalDate[1024];
+        GTFSCsvReader reader = open(zip, "calendar_dates.txt", false);
+        if (reader == null) {
+            return;
+        }
+
+        int serviceColumn = reader.getColumn("service_id");
+        int dateColumn = reader.getColumn("date");
+        int exceptionColumn = reader.getColumn("exception_type");
+        while (reader.next()) {
+            // Exception type 2 removes a service from the day
+            int date = reader.getInt(dateColumn, 0);
+            if (date <= 0 || reader.getInt(exceptionColumn, 1) != 1) {
+                continue;
+            }
+            int service = reader.find(serviceColumn, serviceIds);
+            if (service == -1) {
+                service = serviceIds.add(reader.getString(serviceColumn));
+            }
+            if (serviceDayCount == serviceDayService.length) {
+                serviceDayService = Arrays.copyOf(serviceDayService, serviceDayCount * 2);
+                serviceDayDate = Arrays.copyOf(serviceDayDate, serviceDayCount * 2);
+            }
+            serviceDayService[serviceDayCount] = service;
+            serviceDayDate[serviceDayCount] = LocalDate.of(date / 10000, date / 100 % 100, date % 100);
+            serviceDayCount++;
+        }
+    }
+
+    /**
+     * Reads routes.txt
+     *
+     * @param zip the GTFS zip
+     * @throws IOException if the file cannot be read
+     */
+    private void readRoutes(ZipFile zip) throws IOException {
+        GTFSCsvReader reader = open(zip, "routes.txt", true);
+        int idColumn = reader.getColumn("route_id");
+        int shortNameColumn = reader.getColumn("route_short_name");
+        int longNameColumn = reader.getColumn("route_long_name");
+
+        routeIds = new IdDictionary();
+        routeShortNames = new String[64];
+        routeLongNames = new String[64];
+        while (reader.next()) {
+            int route = routeIds.add(reader.getString(idColumn));
+            if (route == routeShortNames.length) {
+                routeShortNames = Arrays.copyOf(routeShortNames, route * 2);
+                routeLongNames = Arrays.copyOf(routeLongNames, route * 2);
+            }
+            routeShortNames[route] = reader.getString(shortNameColumn);
+            routeLongNames[route] = reader.getString(longNameColumn);
+        }
+    }
+
+    /**
+     * Reads trips.txt. Trips of a service without days never run
+     *
+     * @param zip the GTFS zip
+     * @throws IOException if the file cannot be read
+     */
+    private void readTrips(ZipFile zip) throws IOException {
+        GTFSCsvReader reader = open(zip, "trips.txt", true);
+        int idColumn = reader.getColumn("trip_id");
+        int routeColumn = reader.getColumn("route_id");
+        int serviceColumn = reader.getColumn("service_id");
+        int shapeColumn = reader.getColumn("shape_id");
+
+        tripIds = new IdDictionary();
+        shapeIds = new IdDictionary();
+        tripRoutes = new int[1024];
+        tripServices = new int[1024];
+        tripShapes = new int[1024];
+        while (reader.next()) {
+            int trip = tripIds.add(reader.getString(idColumn));
+            if (trip == tripRoutes.length) {
+                tripRoutes = Arrays.copyOf(tripRoutes, trip * 2);
+                tripServices = Arrays.copyOf(tripServices, trip * 2);
+                tripShapes = Arrays.copyOf(tripShapes, trip * 2);
+            }
+            tripRoutes[trip] = reader.find(routeColumn, routeIds);
+            tripShapes[trip] = reader.isEmpty(shapeColumn) ? -1 : shapeIds.add(reader.getString(shapeColumn));
+            tripServices[trip] = reader.find(serviceColumn, serviceIds);
+            if (tripServices[trip] == -1) {
+                tripServices[trip] = serviceIds.add(reader.getString(serviceColumn));
+            }
+        }
+    }
+
+    /**
+     * Reads stops.txt
+     *
+     * @param zip the GTFS zip
+     * @throws IOException if the file cannot be read
+     */
+    private void readStops(ZipFile zip) throws IOException {
+        GTFSCsvReader reader = open(zip, "stops.txt", true);
+        int idColumn = reader.getColumn("stop_id");
+        int nameColumn = reader.getColumn("stop_name");
+        int latitudeColumn = reader.getColumn("stop_lat");
+        int longitudeColumn = reader.getColumn("stop_lon");
+
+        stopIds = new IdDictionary();
+        stopNames = new String[1024];
+        stopLatitudes = new double[1024];
+        stopLongitudes = new double[1024];
+        while (reader.next()) {
+            int stop = stopIds.add(reader.getString(idColumn));
+            if (stop == stopNames.length) {
+                stopNames = Arrays.copyOf(stopNames, stop * 2);
+                stopLatitudes = Arrays.copyOf(stopLatitudes, stop * 2);
+                stopLongitudes = Arrays.copyOf(stopLongitudes, stop * 2);
+            }
+            stopNames[stop] = reader.getString(nameColumn);
+            stopLatitudes[stop] = reader.getDouble(latitudeColumn, Double.NaN);
+            stopLongitudes[stop] = reader.getDouble(longitudeColumn, Double.NaN);
+        }
+    }
+
+    /**
+     * Reads shapes.txt, if the feed has one
+     *
+     * @param zip the GTFS zip
+     * @throws IOException if the file cannot be read
+     */
+    private void readShapes(ZipFile zip) throws IOException {
+        int pointCount = 0;
+        int[] pointShape = new int[1024];
+        int[] pointSequence = new int[1024];
+        double[] latitudes = new double[1024];
+        double[] longitudes = new double[1024];
+        double[] distances = new double[1024];
+
+        GTFSCsvReader reader = open(zip, "shapes.txt", false);
+        if (reader != null) {
+            int idColumn = reader.getColumn("shape_id");
+            int latitudeColumn = reader.getColumn("shape_pt_lat");
+            int longitudeColumn = reader.getColumn("shape_pt_lon");
+            int sequenceColumn = reader.getColumn("shape_pt_sequence");
+            int distanceColumn = reader.getColumn("shape_dist_traveled");
+
+            while (reader.next()) {
+                int shape = reader.find(idColumn, shapeIds);
+                if (shape == -1) {
+                    shape = shapeIds.add(reader.getString(idColumn));
+                }
+                if (pointCount == pointShape.length) {
+                    pointShape = Arrays.copyOf(pointShape, pointCount * 2);
+                    pointSequence = Arrays.copyOf(pointSequence, pointCount * 2);
+                    latitudes = Arrays.copyOf(latitudes, pointCount * 2);
+                    longitudes = Arrays.copyOf(longitudes, pointCount * 2);
+                    distances = Arrays.copyOf(distances, pointCount * 2);
+                }
+                pointShape[pointCount] = shape;
+                pointSequence[pointCount] = reader.getInt(sequenceColumn, 0);
+                latitudes[pointCount] = reader.getDouble(latitudeColumn, Double.NaN);
+                longitudes[pointCount] = reader.getDouble(longitudeColumn, Double.NaN);
+                distances[pointCount] = reader.getDouble(distanceColumn, Double.NaN);
+                pointCount++;
+            }
+        }
+
+        // Store the points of every shape together, in sequence order
+        shapeStart = new int[shapeIds.size() + 1];
+        int[] order = groupRows(pointShape, pointCount, shapeStart);
+        sortGroups(order, shapeStart, pointSequence);
+
+        shapeLatitudes = new double[pointCount];
+        shapeLongitudes = new double[pointCount];
+        shapeDistances = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            shapeLatitudes[i] = latitudes[order[i]];
+            shapeLongitudes[i] = longitudes[order[i]];
+            shapeDistances[i] = distances[order[i]];
+        }
+    }
+
+    /**
+     * Reads stop_times.txt and builds the timetable graph from the stop times of
+     * the trips of existing routes, with the days every trip runs on and the
+     * names of the stops and routes
+     *
+     * @param zip the GTFS zip
+     * @return the graph
+     * @throws IOException if the file cannot be read
+     */
+    private GTFSGraph readStopTimes(ZipFile zip) throws IOException {
+        GTFSCsvReader reader = open(zip, "stop_times.txt", true);
+        int tripColumn = reader.getColumn("trip_id");
+        int stopColumn = reader.getColumn("stop_id");
+        int departureColumn = reader.getColumn("departure_time");
+        int distanceColumn = reader.getColumn("shape_dist_traveled");
+
+        int rowCount = 0;
+        int[] rowTrip = new int[1 << 16];
+        int[] rowStop = new int[1 << 16];
+        int[] rowDeparture = new int[1 << 16];
+        double[] rowDistance = new double[1 << 16];
+        while (reader.next()) {
+            int trip = reader.find(tripColumn, tripIds);
+            if (trip == -1 || tripRoutes[trip] == -1) {
+                continue;
+            }
+            int departure = reader.getTime(departureColumn);
+            if (departure < 0) {
+                continue;
+            }
+            int stop = reader.find(stopColumn, stopIds);
+            if (stop == -1) {
+                continue;
+            }
+
+            if (rowCount == rowTrip.length) {
+                rowTrip = Arrays.copyOf(rowTrip, rowCount * 2);
+                rowStop = Arrays.copyOf(rowStop, rowCount * 2);
+                rowDeparture = Arrays.copyOf(rowDeparture, rowCount * 2);
+                rowDistance = Arrays.copyOf(rowDistance, rowCount * 2);
+            }
+            rowTrip[rowCount] = trip;
+            rowStop[rowCount] = stop;
+            rowDeparture[rowCount] = departure;
+            rowDistance[rowCount] = reader.getDouble(distanceColumn, Double.NaN);
+            rowCount++;
+        }
+
+        // Order the stop times of every trip by departure time, like the timetable
+        // table is built
+        int[] tripStart = new int[tripIds.size() + 1];
+        int[] order = groupRows(rowTrip, rowCount, tripStart);
+        sortGroups(order, tripStart, rowDeparture);
+
+        // Keep the stops of every trip for slicing its shape
+        stopTimeStart = tripStart;
+        stopTimeStops = new int[rowCount];
+        stopTimeDistances = new double[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            stopTimeStops[i] = rowStop[order[i]];
+            stopTimeDistances[i] = rowDistance[order[i]];
+        }
+
+        // One edge per pair of consecutive stop times of a trip
+        GTFSGraphBuilder builder = new GTFSGraphBuilder(rowCount);
+        for (int trip = 0; trip < tripIds.size(); trip++) {
+            if (tripStart[trip + 1] - tripStart[trip] < 2) {
+                continue;
+            }
+            int graphTrip = builder.addTrip(tripIds.get(trip));
+            int graphRoute = builder.addRoute(routeIds.get(tripRoutes[trip]));
+            builder.setRouteNames(graphRoute, routeShortNames[tripRoutes[trip]], routeLongNames[tripRoutes[trip]]);
+            builder.setTripRoute(graphTrip, graphRoute);
+            builder.setTripService(graphTrip, builder.addService(serviceIds.get(tripServices[trip])));
+
+            for (int i = tripStart[trip] + 1; i < tripStart[trip + 1]; i++) {
+                int from = order[i - 1];
+                int to = order[i];
+                builder.addEdge(builder.addStop(stopIds.get(rowStop[from])), builder.addStop(stopIds.get(rowStop[to])),
+                        rowDeparture[from], rowDeparture[to], graphTrip);
+            }
+        }
+
+        for (int i = 0; i < serviceDayCount; i++) {
+            int graphService = builder.getServiceIndex(serviceIds.get(serviceDayService[i]));
+            if (graphService != -1) {
+                builder.addServiceDay(graphService, serviceDayDate[i]);
+            }
+        }
+
+        for (int stop = 0; stop < stopIds.size(); stop++) {
+            int graphStop = builder.getStopIndex(stopIds.get(stop));
+            if (graphStop != -1) {
+                builder.setStopCoordinates(graphStop, stopLatitudes[stop], stopLongitudes[stop]);
+                builder.setStopName(graphStop, stopNames[stop]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Groups rows by a group index with a counting sort
+     *
+     * @param rowGroup   the group of every row
+     * @param rowCount   the number of rows
+     * @param groupStart filled with the start of every group in the result, with
+     *                   one extra entry holding the row count
+     * @return the rows ordered by group, keeping the file order within a group
+     */
+    private static int[] groupRows(int[] rowGroup, int rowCount, int[] groupStart) {
+        for (int row = 0; row < rowCount; row++) {
+            groupStart[rowGroup[row] + 1]++;
+        }
+        for (int group = 1; group < groupStart.length; group++) {
+            groupStart[group] += groupStart[group - 1];
+        }
+
+        int[] order = new int[rowCount];
+        int[] cursor = Arrays.copyOf(groupStart, groupStart.length - 1);
+        for (int row = 0; row < rowCount; row++) {
+            order[cursor[rowGroup[row]]++] = row;
+        }
+        return order;
+    }
+
+    /**
+     * Sorts the rows of every group by a key, keeping the file order of rows with
+     * equal keys
+     *
+     * @param order      the rows grouped by groupRows
+     * @param groupStart the start of every group
+     * @param key        the key of every row
+     */
+    private static void sortGroups(int[] order, int[] groupStart, int[] key) {
+        long[] packed = new long[16];
+        for (int group = 0; group + 1 < groupStart.length; group++) {
+            int start = groupStart[group];
+            int length = groupStart[group + 1] - start;
+            if (length < 2) {
+                continue;
+            }
+            if (length > packed.length) {
+                packed = new long[Math.max(length, packed.length * 2)];
+            }
+
+            // Rows are grouped in file order, so the row index breaks ties
+            for (int i = 0; i < length; i++) {
+                int row = order[start + i];
+                packed[i] = ((long) key[row] << 32) | row;
+            }
+            Arrays.sort(packed, 0, length);
+            for (int i = 0; i < length; i++) {
+                order[start + i] = (int) packed[i];
+            }
+        }
+    }
+
+    /**
+     * Retrieves the timetable graph of the feed
+     *
+     * @return the graph
+     */
+    public GTFSGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Retrieves the number of stops in the feed, including stops without bus
+     * service on the day
+     *
+     * @return the number of stops
+     */
+    public int getStopCount() {
+        return stopIds.size();
+    }
+
+    /**
+     * Retrieves the index of a stop
+     *
+     * @param stopId the stop id
+     * @return the stop index, -1 if the feed has no such stop
+     */
+    public int getStopIndex(String stopId) {
+        return stopIds.find(stopId);
+    }
+
+    /**
+     * Retrieves the id of a stop
+     *
+     * @param stop the stop index
+     * @return the stop id
+     */
+    public String getStopId(int stop) {
+        return stopIds.get(stop);
+    }
+
+    /**
+     * Retrieves the name of a stop
+     *
+     * @param stop the stop index
+     * @return the stop name
+     */
+    public String getStopName(int stop) {
+        return stopNames[stop];
+    }
+
+    /**
+     * Retrieves the latitude of a stop
+     *
+     * @param stop the stop index
+     * @return the latitude in degrees, NaN if unknown
+     */
+    public double getStopLatitude(int stop) {
+        return stopLatitudes[stop];
+    }
+
+    /**
+     * Retrieves the longitude of a stop
+     *
+     * @param stop the stop index
+     * @return the longitude in degrees, NaN if unknown
+     */
+    public double getStopLongitude(int stop) {
+        return stopLongitudes[stop];
+    }
+
+    /**
+     * Retrieves the number of routes
+     *
+     * @return the number of routes
+     */
+    public int getRouteCount() {
+        return routeIds.size();
+    }
+
+    /**
+     * Retrieves the index of a route
+     *
+     * @param routeId the route id
+     * @return the route index, -1 if the feed has no such route
+     */
+    public int getRouteIndex(String routeId) {
+        return routeIds.find(routeId);
+    }
+
+    /**
+     * Retrieves the id of a route
+     *
+     * @param route the route index
+     * @return the route id
+     */
+    public String getRouteId(int route) {
+        return routeIds.get(route);
+    }
+
+    /**
+     * Retrieves the short name of a route
+     *
+     * @param route the route index
+     * @return the short name, empty if the feed has none
+     */
+    public String getRouteShortName(int route) {
+        return routeShortNames[route];
+    }
+
+    /**
+     * Retrieves the long name of a route
+     *
+     * @param route the route index
+     * @return the long name, empty if the feed has none
+     */
+    public String getRouteLongName(int route) {
+        return routeLongNames[route];
+    }
+
+    /**
+     * Retrieves the number of trips in the feed, including trips without stop
+     * times
+     *
+     * @return the number of trips
+     */
+    public int getTripCount() {
+        return tripIds.size();
+    }
+
+    /**
+     * Retrieves the id of a trip
+     *
+     * @param trip the trip index
+     * @return the trip id
+     */
+    public String getTripId(int trip) {
+        return tripIds.get(trip);
+    }
+
+    /**
+     * Retrieves the first stop time of a trip
+     *
+     * @param trip the trip index
+     * @return the index of its first stop time
+     */
+    public int getStopTimeStart(int trip) {
+        return stopTimeStart[trip];
+    }
+
+    /**
+     * Retrieves the end of the stop times of a trip
+     *
+     * @param trip the trip index
+     * @return the index after its last stop time
+     */
+    public int getStopTimeEnd(int trip) {
+        return stopTimeStart[trip + 1];
+    }
+
+    /**
+     * Retrieves the stop of a stop time
+     *
+     * @param stopTime the stop time index
+     * @return the stop index
+     */
+    public int getStopTimeStop(int stopTime) {
+        return stopTimeStops[stopTime];
+    }
+
+    /**
+     * Retrieves the distance travelled along the shape of the trip up to a stop
+     * time
+     *
+     * @param stopTime the stop time index
+     * @return the distance in the unit of the feed, NaN if unknown
+     */
+    public double getStopTimeDistance(int stopTime) {
+        return stopTimeDistances[stopTime];
+    }
+
+    /**
+     * Retrieves the index of a trip
+     *
+     * @param tripId the trip id
+     * @return the trip index, -1 if the feed has no such trip
+     */
+    public int getTripIndex(String tripId) {
+        return tripIds.find(tripId);
+    }
+
+    /**
+     * Retrieves the route of a trip
+     *
+     * @param trip the trip index
+     * @return the route index, -1 if the route is not in the feed
+     */
+    public int getTripRoute(int trip) {
+        return tripRoutes[trip];
+    }
+
+    /**
+     * Retrieves the shape of a trip
+     *
+     * @param trip the trip index
+     * @return the shape index, -1 if the trip has no shape
+     */
+    public int getTripShape(int trip) {
+        return tripShapes[trip];
+    }
+
+    /**
+     * Retrieves the number of shapes
+     *
+     * @return the number of shapes
+     */
+    public int getShapeCount() {
+        return shapeIds.size();
+    }
+
+    /**
+     * Retrieves the first point of a shape
+     *
+     * @param shape the shape index
+     * @return the index of its first point
+     */
+    public int getShapeStart(int shape) {
+        return shapeStart[shape];
+    }
+
+    /**
+     * Retrieves the end of the points of a shape
+     *
+     * @param shape the shape index
+     * @return the index after its last point
+     */
+    public int getShapeEnd(int shape) {
+        return shapeStart[shape + 1];
+    }
+
+    /**
+     * Retrieves the latitude of a shape point
+     *
+     * @param point the point index
+     * @return the latitude in degrees
+     */
+    public double getShapeLatitude(int point) {
+        return shapeLatitudes[point];
+    }
+
+    /**
+     * Retrieves the longitude of a shape point
+     *
+     * @param point the point index
+     * @return the longitude in degrees
+     */
+    public double getShapeLongitude(int point) {
+        return shapeLongitudes[point];
+    }
+
+    /**
+     * Retrieves the distance travelled along the shape up to a point
+     *
+     * @param point the point index
+     * @return the distance in the unit of the feed, NaN if unknown
+     */
+    public double getShapeDistance(int point) {
+        return shapeDistances[point];
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.bcs05.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dictionary numbering GTFS ids 0, 1, 2, ... in the order they are added. Ids
+ * can be looked up by their UTF-8 bytes, so a field of a CSV buffer is found
+ * without making a string of it. Open addressing with linear probing
+ */
+class IdDictionary {
+
+    private String[] ids;
+    private byte[][] idBytes;
+    private int[] hashes;
+    private int size;
+
+    // Hash table of id index + 1, 0 for an empty slot
+    private int[] table;
+
+    /**
+     * Constructs an empty dictionary
+     */
+    IdDictionary() {
+        ids = new String[64];
+        idBytes = new byte[64][];
+        hashes = new int[64];
+        table = new int[128];
+    }
+
+    /**
+     * Retrieves the number of ids
+     *
+     * @return the size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Retrieves an id by its index
+     *
+     * @param index the index
+     * @return the id
+     */
+    String get(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Retrieves all ids in index order
+     *
+     * @return a new array of the ids
+     */
+    String[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * Adds an id, or finds it if it was added before
+     *
+     * @param id the id
+     * @return the index of the id
+     */
+    int add(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes, 0, bytes.length);
+        int slot = findSlot(bytes, 0, bytes.length, hash);
+        if (table[slot] != 0) {
+            return table[slot] - 1;
+        }
+
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            idBytes = Arrays.copyOf(idBytes, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        ids[size] = id;
+        idBytes[size] = bytes;
+        hashes[size] = hash;
+        table[slot] = ++size;
+
+        // Keep the table at most half full
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Finds an id
+     *
+     * @param id the id
+     * @return the index of the id, -1 if it was not added
+     */
+    int find(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return find(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Finds an id given as a range of UTF-8 bytes
+     *
+     * @param bytes the buffer holding the id
+     * @param start the first byte of the id
+     * @param end   the end of the id, exclusive
+     * @return the index of the id, -1 if it was not added
+     */
+    int find(byte[] bytes, int start, int end) {
+        return table[findSlot(bytes, start, end, hash(bytes, start, end))] - 1;
+    }
+
+    /**
+     * Finds the slot holding an id, or the empty slot where it belongs
+     *
+     * @param bytes the buffer holding the id
+     * @param start the first byte of the id
+     * @param end   the end of the id, exclusive
+     * @param hash  the hash of the id
+     * @return the slot
+     */
+    private int findSlot(byte[] bytes, int start, int end, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (hashes[index] == hash && Arrays.equals(idBytes[index], 0, idBytes[index].length, bytes, start, end)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Doubles the hash table
+     */
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hashes[index] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+    }
+
+    /**
+     * Hashes a range of bytes
+     *
+     * @param bytes the buffer
+     * @param start the first byte
+     * @param end   the end, exclusive
+     * @return the hash, spread over all bits
+     */
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+}
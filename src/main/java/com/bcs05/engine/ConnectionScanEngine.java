@@ -0,0 +1,199 @@
+package com.bcs05.engine;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.bcs05.util.BusTransferResult;
+import com.bcs05.util.ConnectionTable;
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.PathTransfer;
+import com.bcs05.util.PathTransferStop;
+import com.bcs05.util.Stop;
+import com.bcs05.util.TripPatterns;
+
+/**
+ * Transit engine based on the Connection Scan Algorithm. Earliest arrival
+ * queries are answered with one linear pass over the departure-sorted
+ * connection table, keeping only the earliest arrival per stop and whether each
+ * trip has been reached
+ */
+public class ConnectionScanEngine extends GTFSEngineWithTransfers {
+
+    public static void main(String[] args) {
+        ConnectionScanEngine engine = new ConnectionScanEngine();
+        PathTransfer path = engine.findPathWithTransfers("6221BA", "6221GE", 0.3);
+        System.out.println(path == null ? "No path found" : "Path found, takes " + path.getTime());
+    }
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /**
+     * Constructs a connection scan engine on the current graph
+     */
+    public ConnectionScanEngine() {
+        this(GTFSGraph.getInstance());
+    }
+
+    /**
+     * Constructs a connection scan engine on a given graph
+     *
+     * @param graph the graph to search
+     */
+    public ConnectionScanEngine(GTFSGraph graph) {
+        super(graph, false);
+    }
+
+    /**
+     * Find the earliest arriving path from any of the start stops to any of the
+     * end stops by scanning the connections departing after the departure time.
+     * The scan stops once no connection can still beat the best arrival at the
+     * destination, walking included. Connections of trips not running on the
+     * service day are skipped
+     *
+     * @param startStops    the stops the path may start at
+     * @param accessTimes   the time in seconds needed to reach every start stop
+     * @param endStops      the stops the path may end at
+     * @param egressTimes   the time in seconds needed to get from every end stop to
+     *                      the destination
+     * @param serviceDay    the service day to travel on
+     * @param startTime     the time of departure in seconds since the start of the
+     *                      service day, access times are counted from it
+     * @return BusTransferResult containing the path details, or null if none of
+     *         the end stops can be reached
+     */
+    @Override
+    protected BusTransferResult findBusPathOnServiceDay(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalDate serviceDay, int startTime) {
+        TripPatterns patterns = graph.getTripPatterns();
+        long[] running = graph.getRunningPatternTrips(serviceDay);
+        ConnectionTable connections = graph.getConnectionTable();
+        int stopCount = graph.getStopCount();
+
+        int[] access = toStopTimes(startStops, accessTimes);
+        int[] egress = toStopTimes(endStops, egressTimes);
+        int minEgress = UNREACHED;
+        for (int stop = 0; stop < stopCount; stop++) {
+            minEgress = Math.min(minEgress, egress[stop]);
+        }
+        if (minEgress == UNREACHED) {
+            return null;
+        }
+
+        int[] departureTimes = connections.getDepartureTimes();
+        int[] arrivalTimes = connections.getArrivalTimes();
+        int[] fromStops = connections.getFromStops();
+        int[] toStops = connections.getToStops();
+        int[] trips = connections.getTrips();
+
+        // Earliest arrival per stop and the connection it was reached with, -1 for
+        // start stops reached on foot
+        int[] arrival = new int[stopCount];
+        Arrays.fill(arrival, UNREACHED);
+        int[] inConnection = new int[stopCount];
+        Arrays.fill(inConnection, -1);
+
+        // One bit per pattern trip that can be ridden, and the connection it was boarded at
+        long[] tripReached = new long[(patterns.getPatternTripCount() + 63) >>> 6];
+        int[] boardConnection = new int[patterns.getPatternTripCount()];
+
+        // Best arrival at the destination over all end stops, walking included
+        long bestTotal = UNREACHED;
+        int target = -1;
+
+        for (int stop = 0; stop < stopCount; stop++) {
+            if (access[stop] != UNREACHED) {
+                arrival[stop] = startTime + access[stop];
+                if (egress[stop] != UNREACHED && (long) arrival[stop] + egress[stop] < bestTotal) {
+                    bestTotal = (long) arrival[stop] + egress[stop];
+                    target = stop;
+                }
+            }
+        }
+
+        int connectionCount = connections.getConnectionCount();
+        for (int c = connections.findFirstConnection(startTime); c < connectionCount; c++) {
+            // Nothing departing this late can reach the destination earlier
+            if ((long) departureTimes[c] + minEgress >= bestTotal) {
+                break;
+            }
+
+            int trip = trips[c];
+            long tripBit = 1L << trip;
+            if ((running[trip >>> 6] & tripBit) == 0) {
+                continue;
+            }
+            boolean reached = (tripReached[trip >>> 6] & tripBit) != 0;
+            if (!reached) {
+                if (arrival[fromStops[c]] > departureTimes[c]) {
+                    continue;
+                }
+                tripReached[trip >>> 6] |= tripBit;
+                boardConnection[trip] = c;
+            }
+
+            int to = toStops[c];
+            if (arrivalTimes[c] < arrival[to]) {
+                arrival[to] = arrivalTimes[c];
+                inConnection[to] = c;
+                if (egress[to] != UNREACHED && (long) arrivalTimes[c] + egress[to] < bestTotal) {
+                    bestTotal = (long) arrivalTimes[c] + egress[to];
+                    target = to;
+                }
+            }
+        }
+
+        if (target == -1) {
+            return null;
+        }
+
+        return reconstructJourney(patterns, connections, inConnection, boardConnection,
+                findStop(endStops, target), target, arrival[target], startStops, startTime,
+                (int) (bestTotal - startTime));
+    }
+
+    /**
+     * Follows the connections back from the destination and lists every stop of
+     * the journey
+     *
+     * @param patterns        the route patterns
+     * @param connections     the connection table
+     * @param inConnection    the connection every stop was reached with
+     * @param boardConnection the connection every trip was boarded at
+     * @param endStop         the end stop of the journey
+     * @param target          the index of the end stop
+     * @param arrivalTime     the arrival time at the end stop in seconds since the
+     *                        start of the service day
+     * @param startStops      the stops the journey may start at
+     * @param startTime       the time of departure from the origin in seconds since
+     *                        the start of the service day
+     * @param travelTime      the time until reaching the destination in seconds,
+     *                        walking included
+     * @return BusTransferResult containing the path details
+     */
+    private BusTransferResult reconstructJourney(TripPatterns patterns, ConnectionTable connections,
+            int[] inConnection, int[] boardConnection, Stop endStop, int target, int arrivalTime,
+            ArrayList<Stop> startStops, int startTime, int travelTime) {
+        ArrayList<PathTransferStop> pathStops = new ArrayList<PathTransferStop>();
+        String nextDepartureTime = null;
+        int stop = target;
+        while (inConnection[stop] != -1) {
+            int alight = inConnection[stop];
+            int trip = connections.getTrips()[alight];
+            int board = boardConnection[trip];
+            nextDepartureTime = prependTripLeg(pathStops, patterns, trip, connections.getPositions()[board],
+                    connections.getPositions()[alight] + 1, endStop, nextDepartureTime);
+            stop = connections.getFromStops()[board];
+        }
+
+        Stop startStop = findStop(startStops, stop);
+        pathStops.add(0, new PathTransferStop(startStop.getStopId(), startStop.getCoordinates(), null,
+                nextDepartureTime, null));
+
+        return new BusTransferResult(pathStops, LocalTime.ofSecondOfDay(startTime % SECONDS_PER_DAY),
+                LocalTime.ofSecondOfDay(arrivalTime % SECONDS_PER_DAY), Duration.ofSeconds(travelTime));
+    }
+
+}
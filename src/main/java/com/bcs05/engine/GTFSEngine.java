@@ -2,30 +2,35 @@ package com.bcs05.engine;
 
 import com.bcs05.util.CoordHandler;
 import com.bcs05.util.Coordinates;
-import com.bcs05.util.DatabaseConnection;
+import com.bcs05.util.GTFSGraph;
 import com.bcs05.util.Path;
 import com.bcs05.util.PathCoordinates;
 import com.bcs05.util.PathStop;
+import com.bcs05.util.ShapeCache;
 import com.bcs05.util.Stop;
+import com.bcs05.util.TransitCatalogue;
 import com.bcs05.util.Transportation;
+import com.bcs05.util.TripPatterns;
 import com.bcs05.util.Utils;
 import com.graphhopper.ResponsePath;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
 
 public class GTFSEngine {
 
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
     /**
      * Retrieves a list of stops within radiusDistance km from the given postal
      * code.
-     * This method converts the postal code to geographic coordinates,
-     * queries the database to find nearby stops, and returns a list of stop IDs.
+     * This method converts the postal code to geographic coordinates. The stops
+     * of the precomputed access table are taken if it covers the postal code and
+     * radius and lists every stop near it. Otherwise the nearby stops are looked
+     * up in the stop grid of the graph. Either way the stops are returned nearest
+     * first.
      *
      * @param postalCode the postal code to find nearby stops for
      * @return a list of stops within radiusDistance km of the given postal code
@@ -36,64 +41,27 @@ public class GTFSEngine {
         if (coordinates == null) {
             return null;
         }
-        // Initiate nearest stops list
-        ArrayList<Stop> nearestStops = new ArrayList<>();
-
-        try {
-            // Get database connection
-            Connection connection = DatabaseConnection.getConnection();
-
-            // Get nearest stops SQL query
-            String getNearPostalCodesSQL = """
-                    select
-                        stop_id,
-                        stop_lat,
-                        stop_lon,
-                        distance_in_km
-                    from
-                        (
-                            select
-                                stop_id,
-                                stop_lat,
-                                stop_lon,
-                                2 * 6371 * ASIN(SQRT(
-                                    POWER(SIN((RADIANS(stop_lat) - RADIANS(?)) / 2), 2) +
-                                    COS(RADIANS(?)) * COS(RADIANS(stop_lat)) *
-                                    POWER(SIN((RADIANS(stop_lon) - RADIANS(?)) / 2), 2)
-                                )) as distance_in_km
-                            from
-                                stops
-                        ) as distances
-                    where
-                        distance_in_km < ?
-                    order by
-                        distance_in_km;
-                    """;
-
-            // Prepare the statement
-            PreparedStatement getNearestStopsStatement = connection.prepareStatement(getNearPostalCodesSQL);
-            getNearestStopsStatement.setString(1, coordinates.getLatitude());
-            getNearestStopsStatement.setString(2, coordinates.getLatitude());
-            getNearestStopsStatement.setString(3, coordinates.getLongitude());
-            getNearestStopsStatement.setDouble(4, radiusDistance);
-
-            // Execute query and add results to array list
-            ResultSet nearestStopsResultSet = getNearestStopsStatement.executeQuery();
-            while (nearestStopsResultSet.next()) {
-                String stopId = nearestStopsResultSet.getString("stop_id");
-                Coordinates stopCoordinates = new Coordinates(nearestStopsResultSet.getString("stop_lat"),
-                        nearestStopsResultSet.getString("stop_lon"));
-                nearestStops.add(new Stop(stopId, stopCoordinates));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        GTFSGraph graph = GTFSGraph.getInstance();
+
+        // Take the stops with precomputed walks, in the order of the table
+        ArrayList<Stop> tableStops = PostalCodeAccessTable.getInstance().getStops(postalCode, coordinates,
+                radiusDistance, graph);
+        if (tableStops != null) {
+            return tableStops;
         }
 
-        return nearestStops;
+        // Look the stops up in the spatial index of the graph
+        return graph.getStopGrid().findStopsWithin(Double.parseDouble(coordinates.getLatitude()),
+                Double.parseDouble(coordinates.getLongitude()), radiusDistance);
     }
 
     /**
-     * Finds the shortest direct path between two postal codes.
+     * Finds the shortest direct path between two postal codes. Every pair of a
+     * stop near the start and a stop near the destination is tried, each with
+     * the walks to and from it, and the trip arriving earliest at the
+     * destination is taken. Trips are looked up in the route patterns of the
+     * graph, so no database query is needed. Trips of yesterday's service day
+     * that still run after midnight are tried as well
      *
      * @param fromPostalCode the starting postal code
      * @param toPostalCode   the destination postal code
@@ -110,110 +78,68 @@ public class GTFSEngine {
         System.out.println("Size of fromStops " + fromStops.size());
         System.out.println("Size of toStops " + toStops.size());
 
-        // Set outer variables to store the shortest path
-        int bestTripId = -1;
-        LocalTime bestDepartureTime = null;
-        LocalTime bestArrivalTime = null;
+        // Walking time to every from stop and from every to stop
+        int[] accessTimes = GTFSEngineWithTransfers.computeAccessTimes(fromPostalCode, fromStops);
+        int[] egressTimes = GTFSEngineWithTransfers.computeEgressTimes(toStops, toPostalCode);
+
+        // Search the graph of today as it is now, even if a new one is published meanwhile
+        GTFSGraph graph = GTFSGraph.getInstance();
+        TripPatterns patterns = graph.getTripPatterns();
+        LocalDate today = LocalDate.now();
+        int startTime = LocalTime.now().toSecondOfDay();
+
+        // Set outer variables to store the shortest path, its arrival time counted
+        // on the clock of its own service day
+        int[] bestTrip = null;
+        int bestArrivalTime = Integer.MAX_VALUE;
+        int bestDayOffset = 0;
         Stop bestFromStop = null;
         Stop bestToStop = null;
-        Path path = new Path();
 
-        try {
-            // Get database connection
-            Connection connection = DatabaseConnection.getConnection();
-
-            // Find shortest trip
-            boolean found = false;
-            for (Stop fromStop : fromStops) {
-                if (found) break;
-                for (Stop toStop : toStops) {
-                    if (found) break;
-
-                    // Calculate walk time from postal code to stop
-                    ResponsePath walkToFromStopPath = walk(CoordHandler.getCoordinates(fromPostalCode),
-                            fromStop.getCoordinates());
-                    int walkTimeInSecondsToFromStop = (int) walkToFromStopPath.getTime() / 1000;
-
-                    // Calculate walk time from to stop to to postal code
-                    ResponsePath walkToToPostalCode = walk(toStop.getCoordinates(),
-                            CoordHandler.getCoordinates(toPostalCode));
-                    int walkTimeInSecondsToToPostalCode = (int) walkToToPostalCode.getTime() / 1000;
-
-                    // SQL query to find shortest trip from stop to stop
-                    String findShortestPathSQL = """
-                        SELECT
-                            t1.trip_id AS trip_id,
-                            t1.from_stop_id AS from_stop_id,
-                            t2.to_stop_id AS to_stop_id,
-                            t1.departure_time AS departure_time,
-                            (t2.departure_time + INTERVAL t2.travel_time SECOND + INTERVAL ? SECOND) AS arrival_time
-                        FROM
-                            timetable t1
-                        JOIN
-                            timetable t2 ON t1.trip_id = t2.trip_id
-                        WHERE
-                            t1.from_stop_id = ?
-                            AND t2.to_stop_id = ?
-                            AND EXISTS (
-                                SELECT 1
-                                FROM trips tr
-                                WHERE tr.trip_id = t1.trip_id
-                                AND EXISTS (
-                                    SELECT 1
-                                    FROM calendar_dates cd
-                                    WHERE cd.service_id = tr.service_id
-                                    AND cd.date = CURRENT_DATE
-                                )
-                            )
-                            AND t2.trip_segment >= t1.trip_segment
-                            AND t1.departure_time >= (CURRENT_TIME + INTERVAL ? SECOND)
-                        ORDER BY
-                            arrival_time
-                        LIMIT 1;
-                    """;
-                    
-                    // Prepare the statement
-                    PreparedStatement statement = connection.prepareStatement(findShortestPathSQL);
-                    statement.setInt(1, walkTimeInSecondsToToPostalCode);  // For the interval addition in arrival_time calculation
-                    statement.setString(2, fromStop.getStopId());
-                    statement.setString(3, toStop.getStopId());
-                    statement.setInt(4, walkTimeInSecondsToFromStop);  // For the departure_time condition                    
-
-                    // Check if this path is better than previous ones
-                    ResultSet newPossibleBestPath = statement.executeQuery();
-                    if (newPossibleBestPath.next()) {
-                        int tripId = newPossibleBestPath.getInt("trip_id");
-                        LocalTime departureTime = newPossibleBestPath.getTime("departure_time").toLocalTime();
-                        LocalTime arrivalTime = newPossibleBestPath.getTime("arrival_time").toLocalTime();
-
-                        if (bestArrivalTime == null || arrivalTime.isBefore(bestArrivalTime)) {
-                            bestTripId = tripId;
-                            bestDepartureTime = departureTime;
-                            bestArrivalTime = arrivalTime;
-                            bestFromStop = fromStop;
-                            bestToStop = toStop;
-                            found = true;
-                        }
-                    }
+        // Find the trip arriving earliest, walk included, on today's service day and
+        // on yesterday's, where the current time lies a day later
+        for (int dayOffset = 0; dayOffset <= SECONDS_PER_DAY; dayOffset += SECONDS_PER_DAY) {
+            int dayStartTime = startTime + dayOffset;
+            if (dayOffset > 0 && dayStartTime > graph.getLastDepartureTime()) {
+                break;
+            }
+            long[] running = graph.getRunningPatternTrips(today.minusDays(dayOffset / SECONDS_PER_DAY));
 
-                    statement.close();
+            for (int i = 0; i < fromStops.size(); i++) {
+                int fromStop = graph.getStopIndex(fromStops.get(i).getStopId());
+                if (fromStop == -1) {
+                    continue;
+                }
+                for (int j = 0; j < toStops.size(); j++) {
+                    int toStop = graph.getStopIndex(toStops.get(j).getStopId());
+                    if (toStop == -1 || toStop == fromStop) {
+                        continue;
+                    }
 
+                    int[] trip = patterns.findEarliestDirectTrip(fromStop, toStop, dayStartTime + accessTimes[i],
+                            running);
+                    if (trip == null) {
+                        continue;
+                    }
+                    int arrivalTime = patterns.getArrivalTime(trip[0], trip[2]) + egressTimes[j];
+                    if (arrivalTime - dayOffset < bestArrivalTime - bestDayOffset) {
+                        bestTrip = trip;
+                        bestArrivalTime = arrivalTime;
+                        bestDayOffset = dayOffset;
+                        bestFromStop = fromStops.get(i);
+                        bestToStop = toStops.get(j);
+                    }
                 }
             }
-
-            // Check if a direct trip was not found
-            if (bestTripId == -1)
-                return null;
-
-            // Construct path using shapes
-            path = constructPath(fromPostalCode, toPostalCode, bestTripId, bestFromStop, bestToStop, bestDepartureTime,
-                    bestArrivalTime, connection);
-
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
 
-        return path;
+        // Check if a direct trip was not found
+        if (bestTrip == null)
+            return null;
+
+        // Construct path using shapes
+        return constructPath(fromPostalCode, toPostalCode, graph, patterns, bestTrip, bestFromStop, bestToStop,
+                startTime + bestDayOffset, bestArrivalTime);
     }
 
     /**
@@ -224,58 +150,43 @@ public class GTFSEngine {
      * @return the ResponsePath containing the walking route 
      */
     public static ResponsePath walk(Coordinates from, Coordinates to) {
-        RoutingEngine routingEngine = new RoutingEngine(Transportation.FOOT);
-        return routingEngine.routing(from, to);
+        return RouterService.getInstance().route(Transportation.FOOT, from, to);
     }
 
     /**
      * Constructs a path between two stops.
      *
-     * @param tripId        the trip ID
-     * @param fromStop      the starting stop
-     * @param toStop        the destination stop
-     * @param departureTime the departure time
-     * @param arrivalTime   the arrival time
-     * @param connection    the database connection
+     * @param graph       the graph the trip was found in
+     * @param patterns    the route patterns of the graph
+     * @param trip        the pattern trip with its board and alight positions
+     * @param fromStop    the starting stop
+     * @param toStop      the destination stop
+     * @param startTime   the time of departure from the starting postal code in
+     *                    seconds of the day
+     * @param arrivalTime the time of arrival at the destination postal code in
+     *                    seconds since the start of the service day
      * @return the path between the two stops
-     * @throws SQLException if an error occurs while querying the database
      */
-    private Path constructPath(String fromPostalCode, String toPostalCode, int tripId, Stop fromStop, Stop toStop,
-            LocalTime departureTime, LocalTime arrivalTime,
-            Connection connection) throws SQLException {
+    private Path constructPath(String fromPostalCode, String toPostalCode, GTFSGraph graph, TripPatterns patterns,
+            int[] trip, Stop fromStop, Stop toStop, int startTime, int arrivalTime) {
         Path path = new Path();
-
-        // Get coordinates SQL query
-        String getCoordinatesSQL = """
-                select
-                    shape_pt_lat,
-                    shape_pt_lon,
-                    shape_dist_traveled
-                from
-                    shapes
-                where
-                    shape_id = (select shape_id from trips where trip_id = ?)
-                    and shape_dist_traveled >= (select shape_dist_traveled from stop_times where trip_id = ? and stop_id = ?)
-                    and shape_dist_traveled <= (select shape_dist_traveled from stop_times where trip_id = ? and stop_id = ?);
-                        """;
-
-        // Prepare statement
-        PreparedStatement statement = connection.prepareStatement(getCoordinatesSQL);
-        statement.setInt(1, tripId);
-        statement.setInt(2, tripId);
-        statement.setString(3, fromStop.getStopId());
-        statement.setInt(4, tripId);
-        statement.setString(5, toStop.getStopId());
-
-        // Populate the Path instance
-        ResultSet coordinates = statement.executeQuery();
-        while (coordinates.next()) {
-            String latitute = String.valueOf(coordinates.getDouble("shape_pt_lat"));
-            String longitude = String.valueOf(coordinates.getDouble("shape_pt_lon"));
-            int shapeDistTraveled = coordinates.getInt("shape_dist_traveled");
+        String tripId = graph.getTripId(patterns.getTrip(trip[0]));
+
+        // Slice the shape of the trip between the two stops
+        double[] legPoints = ShapeCache.getInstance().getLegPoints(tripId, fromStop.getStopId(),
+                toStop.getStopId());
+        for (int i = 0; i < legPoints.length; i += 3) {
+            String latitute = String.valueOf(legPoints[i]);
+            String longitude = String.valueOf(legPoints[i + 1]);
+            int shapeDistTraveled = (int) legPoints[i + 2];
             path.addCoordinates(new PathCoordinates(latitute, longitude, shapeDistTraveled, 1));
         }
 
+        // Without a shape, connect the stops of the trip in straight lines
+        if (legPoints.length == 0) {
+            addStopCoordinates(path, graph, patterns, trip);
+        }
+
         // Path from postal code to stop
         ResponsePath walkToFromStopPath = walk(CoordHandler.getCoordinates(fromPostalCode), fromStop.getCoordinates());
         ArrayList<Coordinates> walkToFromStopCoordinates = Utils.pointListToArrayList(walkToFromStopPath.getPoints());
@@ -286,7 +197,7 @@ public class GTFSEngine {
                 .pointListToArrayList(walkToToPostalCode.getPoints());
 
         // Set time of path
-        Duration timeOfPath = computeTime(arrivalTime);
+        Duration timeOfPath = Duration.ofSeconds(arrivalTime - startTime);
         path.setTime(timeOfPath);
 
         // Set distance of path
@@ -305,32 +216,51 @@ public class GTFSEngine {
         }
 
         // Get trip stops
-        ArrayList<PathStop> tripStops = getTripStops(tripId, fromStop, toStop, connection);
+        ArrayList<PathStop> tripStops = getTripStops(graph, patterns, trip);
         path.setStops(tripStops);
 
         return path;
     }
 
     /**
-     * Computes the time between two LocalTime instances.
+     * Adds the stops of a trip leg to a path, with the straight-line distance
+     * travelled in meters as their distance along the shape
      *
-     * //* @param departureTime the departure time
-     * 
-     * @param arrivalTime the arrival time
-     * @return the time between the two instances
+     * @param path     the path
+     * @param graph    the graph the trip was found in
+     * @param patterns the route patterns of the graph
+     * @param trip     the pattern trip with its board and alight positions
      */
-    private Duration computeTime(LocalTime arrivalTime) {
-        return Duration.between(LocalTime.now(), arrivalTime);
+    private void addStopCoordinates(Path path, GTFSGraph graph, TripPatterns patterns, int[] trip) {
+        int pattern = patterns.getTripPattern(trip[0]);
+        int previousStop = -1;
+        double distance = 0;
+        for (int position = trip[1]; position <= trip[2]; position++) {
+            int stop = patterns.getPatternStop(pattern, position);
+            if (Double.isNaN(graph.getStopLatitude(stop))) {
+                continue;
+            }
+            if (previousStop != -1) {
+                distance += graph.getDistance(previousStop, stop) * 1000;
+            }
+            path.addCoordinates(new PathCoordinates(String.valueOf(graph.getStopLatitude(stop)),
+                    String.valueOf(graph.getStopLongitude(stop)), (int) distance, 1));
+            previousStop = stop;
+        }
     }
 
     /**
      * Computes the distance given a set of PathCoordinates.
      *
-     * @param coordinates the coordinates to compute the distance between
+     * @param coordinates the coordinates to compute the distance between, the
+     *                    bus leg counts as no distance if there are none
      * @return the distance between the coordinates
      */
     private int computeDistance(ArrayList<PathCoordinates> coordinates, int walkToFromStopDistance,
             int walkToToPostalCodeDistance) {
+        if (coordinates.isEmpty()) {
+            return walkToFromStopDistance + walkToToPostalCodeDistance;
+        }
         PathCoordinates first = coordinates.get(0);
         PathCoordinates last = coordinates.get(coordinates.size() - 1);
         int busDistance = last.getShapeDistTraveled() - first.getShapeDistTraveled();
@@ -342,59 +272,23 @@ public class GTFSEngine {
     /**
      * Retrieves the list of stops for a given trip between the start and end stops
      * 
-     * @param tripId the trip ID
-     * @param start the starting stop
-     * @param end the ending stop
-     * @param connection the database connection
+     * @param graph    the graph the trip was found in
+     * @param patterns the route patterns of the graph
+     * @param trip     the pattern trip with its board and alight positions
      * @return the list of stops for the trip
-     * @throws SQLException if an error occurs while querying the database
      */
-    private ArrayList<PathStop> getTripStops(int tripId, Stop start, Stop end, Connection connection)
-            throws SQLException {
+    private ArrayList<PathStop> getTripStops(GTFSGraph graph, TripPatterns patterns, int[] trip) {
         ArrayList<PathStop> stops = new ArrayList<>();
-
-        // Get stops SQL query (using a join)
-        String getStopsSQL = """
-            select
-                s.stop_id,
-                s.stop_name,
-                s.stop_lat,
-                s.stop_lon,
-                (select st.departure_time from stop_times st where st.stop_id = s.stop_id and st.trip_id = ?) as departure_time
-            from
-                stops s
-            where
-                s.stop_id in (
-                    select stop_id
-                    from stop_times
-                    where trip_id = ?
-                    and stop_sequence >= (select stop_sequence from stop_times where trip_id = ? and stop_id = ?)
-                    and stop_sequence <= (select stop_sequence from stop_times where trip_id = ? and stop_id = ?)
-                )
-            order by
-                (select stop_sequence from stop_times st where st.stop_id = s.stop_id and st.trip_id = ?);
-            """;
-    
-        // Prepare statement
-        PreparedStatement statement = connection.prepareStatement(getStopsSQL);
-        statement.setInt(1, tripId); // For departure_time subquery
-        statement.setInt(2, tripId); // For the main subquery
-        statement.setInt(3, tripId); // For start stop_sequence subquery
-        statement.setString(4, start.getStopId()); // For start stop_sequence subquery
-        statement.setInt(5, tripId); // For end stop_sequence subquery
-        statement.setString(6, end.getStopId()); // For end stop_sequence subquery
-        statement.setInt(7, tripId); // For stop_sequence order subquery
-        
-
-        // Populate the stops list
-        ResultSet stopResults = statement.executeQuery();
-        while (stopResults.next()) {
-            String stopId = stopResults.getString("stop_id");
-            String stopName = stopResults.getString("stop_name");
-            Coordinates coordinates = new Coordinates(stopResults.getString("stop_lat"),
-                    stopResults.getString("stop_lon"));
-            String departureTime = stopResults.getTime("departure_time").toString();
-            stops.add(new PathStop(stopId, coordinates, stopName, departureTime));
+        int pattern = patterns.getTripPattern(trip[0]);
+        TransitCatalogue catalogue = graph.getCatalogue();
+
+        for (int position = trip[1]; position <= trip[2]; position++) {
+            // The graph's stops carry only their id, the location comes from the catalogue
+            String stopId = graph.getStop(patterns.getPatternStop(pattern, position)).getStopId();
+            String stopName = catalogue.getStopName(stopId);
+            String departureTime = LocalTime
+                    .ofSecondOfDay(patterns.getDepartureTime(trip[0], position) % SECONDS_PER_DAY).toString();
+            stops.add(new PathStop(stopId, catalogue.getStopCoordinates(stopId), stopName, departureTime));
         }
 
         return stops;
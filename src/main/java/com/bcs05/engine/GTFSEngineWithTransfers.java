@@ -1,31 +1,26 @@
 package com.bcs05.engine;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 import com.bcs05.util.BusTransferResult;
 import com.bcs05.util.CoordHandler;
 import com.bcs05.util.Coordinates;
-import com.bcs05.util.DatabaseConnection;
-import com.bcs05.util.DijkstraNode;
-import com.bcs05.util.DijkstraNodeComparator;
 import com.bcs05.util.GTFSGraph;
-import com.bcs05.util.GTFSWeightedEdge;
 import com.bcs05.util.Path;
 import com.bcs05.util.PathCoordinates;
 import com.bcs05.util.PathStop;
 import com.bcs05.util.PathTransfer;
 import com.bcs05.util.PathTransferStop;
 import com.bcs05.util.Route;
+import com.bcs05.util.ShapeCache;
 import com.bcs05.util.Stop;
+import com.bcs05.util.Transportation;
+import com.bcs05.util.TripPatterns;
 import com.bcs05.util.Utils;
 import com.graphhopper.ResponsePath;
 
@@ -36,18 +31,67 @@ public class GTFSEngineWithTransfers {
         engine.findPathWithTransfers("6221BA", "6221GE", 0.3);
     }
 
-    // maximum number of results to consider before breaking out of the loop
-    private final int HEURISTIC_PARAMETER = 10;
+    protected static final int SECONDS_PER_DAY = 24 * 60 * 60;
 
-    GTFSGraph graph;
+    // The graph searched, fixed for the lifetime of the engine so a reload never
+    // swaps it in the middle of a search
+    final GTFSGraph graph;
+
+    // whether the Dijkstra search is directed towards the end stops (A*)
+    private final boolean goalDirected;
 
     // initializes the graph
     public GTFSEngineWithTransfers() {
-        graph = GTFSGraph.getInstance();
+        this(false);
+    }
+
+    /**
+     * Constructs the engine, optionally in A* mode. In A* mode stops are expanded
+     * in order of their travel time plus a lower bound on the time still needed
+     * to reach the destination, which finds the same paths while settling far
+     * fewer stops for short trips
+     *
+     * @param goalDirected true to direct the search towards the end stops
+     */
+    public GTFSEngineWithTransfers(boolean goalDirected) {
+        this(GTFSGraph.getInstance(), goalDirected);
+    }
+
+    /**
+     * Constructs the engine on a given graph. The engine keeps searching that
+     * graph when a newer one is published, create a new engine to use it
+     *
+     * @param graph        the graph to search
+     * @param goalDirected true to direct the search towards the end stops
+     */
+    public GTFSEngineWithTransfers(GTFSGraph graph, boolean goalDirected) {
+        this.graph = graph;
+        this.goalDirected = goalDirected;
+    }
+
+    /**
+     * Retrieves the graph the engine searches
+     *
+     * @return the graph
+     */
+    public GTFSGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Checks whether the engine runs in A* mode
+     *
+     * @return true if the search is directed towards the end stops
+     */
+    public boolean isGoalDirected() {
+        return goalDirected;
     }
 
     /**
-     * Finds the path with transfers between two postal codes within a given radius
+     * Finds the path with transfers between two postal codes within a given radius.
+     * All stops within the radius of the starting postal code are searched from at
+     * once, each at the time it can be reached on foot, and the path arriving
+     * earliest at the destination postal code is returned
      * 
      * @param fromPostalCode the starting postal code 
      * @param toPostalCode the destination postal code 
@@ -58,54 +102,110 @@ public class GTFSEngineWithTransfers {
         ArrayList<Stop> startStops = GTFSEngine.getStopsFromPostalCode(fromPostalCode, radius);
         ArrayList<Stop> endStops = GTFSEngine.getStopsFromPostalCode(toPostalCode, radius);
 
-        Coordinates fromPostalCodeCoordinates = CoordHandler.getCoordinates(fromPostalCode);
-
-        ArrayList<BusTransferResult> results = new ArrayList<BusTransferResult>();
-        Boolean alreadyFoundResults = false;
+        if (startStops == null || endStops == null || startStops.isEmpty() || endStops.isEmpty()) {
+            return null;
+        }
 
-        for (Stop startStop : startStops) {
-            for (Stop endStop : endStops) {
-                // Get walking time to start stop
-                ResponsePath walkToFromStopPath = GTFSEngine.walk(fromPostalCodeCoordinates,
-                        startStop.getCoordinates());
-                int walkTimeInSecondsToFromStop = (int) walkToFromStopPath.getTime() / 1000;
+        // Walking time to every start stop and from every end stop
+        int[] accessTimes = computeAccessTimes(fromPostalCode, startStops);
+        int[] egressTimes = computeEgressTimes(endStops, toPostalCode);
 
-                LocalTime timeArrivingAtStartStop = LocalTime.now().plusSeconds(walkTimeInSecondsToFromStop)
-                        .truncatedTo(ChronoUnit.MINUTES);
+        BusTransferResult bestResult = findBusPathWithTransfers(startStops, accessTimes, endStops, egressTimes,
+                LocalTime.now());
 
-                BusTransferResult path = findBusPathWithTransfers(startStop, endStop,
-                        timeArrivingAtStartStop);
+        if (bestResult == null) {
+            return null;
+        }
 
-                if (path != null) {
-                    results.add(path);
-                }
+        // Reconstruct the path for UI
+        PathTransfer finalPath = reconstructPathForUI(fromPostalCode, toPostalCode, bestResult);
 
-                // Heuristic parameter
-                if (results.size() == HEURISTIC_PARAMETER) {
-                    alreadyFoundResults = true;
-                    break;
-                }
+        return finalPath;
+    }
 
+    /**
+     * Computes the walking time from a postal code to each of the given stops.
+     * Walks in the precomputed access table are looked up, the others and those
+     * the table does not know are found together in one search from the postal
+     * code. Stops listed by GTFSEngine.getStopsFromPostalCode are in the order of
+     * the table, so the entry of every stop is found from its position
+     * 
+     * @param postalCode the postal code to walk from
+     * @param stops the stops to walk to
+     * @return the walking time in seconds for every stop
+     */
+    protected static int[] computeAccessTimes(String postalCode, ArrayList<Stop> stops) {
+        PostalCodeAccessTable accessTable = PostalCodeAccessTable.getInstance();
+        int[] accessTimes = new int[stops.size()];
+        ArrayList<Stop> missingStops = new ArrayList<Stop>();
+        for (int i = 0; i < stops.size(); i++) {
+            int entry = accessTable.getEntry(postalCode, i, stops.get(i).getStopId());
+            accessTimes[i] = entry == -1 ? -1 : accessTable.getAccessTime(entry);
+            if (accessTimes[i] == -1) {
+                missingStops.add(stops.get(i));
             }
+        }
+        if (missingStops.isEmpty()) {
+            return accessTimes;
+        }
 
-            if (alreadyFoundResults) {
-                break;
+        Coordinates origin = CoordHandler.getCoordinates(postalCode);
+        int[] walkTimes = new RoutingEngine(Transportation.FOOT).getTimesToStops(origin, missingStops);
+        for (int i = 0, missing = 0; i < stops.size(); i++) {
+            if (accessTimes[i] == -1) {
+                accessTimes[i] = walkTimes[missing++];
+            }
+            // Beyond the search bound, route the walk on its own
+            if (accessTimes[i] == -1) {
+                ResponsePath walkToStop = GTFSEngine.walk(origin, stops.get(i).getCoordinates());
+                accessTimes[i] = (int) walkToStop.getTime() / 1000;
             }
         }
+        return accessTimes;
+    }
 
-        if (results.isEmpty()) {
-            return null;
+    /**
+     * Computes the walking time from each of the given stops to a postal code.
+     * Walks in the precomputed access table are looked up by the position of
+     * every stop, see computeAccessTimes, the others are found together in one
+     * search backwards from the postal code
+     * 
+     * @param stops the stops to walk from
+     * @param postalCode the postal code to walk to
+     * @return the walking time in seconds for every stop
+     */
+    protected static int[] computeEgressTimes(ArrayList<Stop> stops, String postalCode) {
+        PostalCodeAccessTable accessTable = PostalCodeAccessTable.getInstance();
+        int[] egressTimes = new int[stops.size()];
+        ArrayList<Stop> missingStops = new ArrayList<Stop>();
+        for (int i = 0; i < stops.size(); i++) {
+            int entry = accessTable.getEntry(postalCode, i, stops.get(i).getStopId());
+            egressTimes[i] = entry == -1 ? -1 : accessTable.getEgressTime(entry);
+            if (egressTimes[i] == -1) {
+                missingStops.add(stops.get(i));
+            }
+        }
+        if (missingStops.isEmpty()) {
+            return egressTimes;
         }
 
-        // Get the best transfer result and reconstruct the path for UI
-        BusTransferResult bestResult = getBestTransferResult(results);
-        PathTransfer finalPath = reconstructPathForUI(fromPostalCode, toPostalCode, bestResult);
-
-        return finalPath;
+        Coordinates destination = CoordHandler.getCoordinates(postalCode);
+        int[] walkTimes = new RoutingEngine(Transportation.FOOT).getTimesFromStops(missingStops, destination);
+        for (int i = 0, missing = 0; i < stops.size(); i++) {
+            if (egressTimes[i] == -1) {
+                egressTimes[i] = walkTimes[missing++];
+            }
+            // Beyond the search bound, route the walk on its own
+            if (egressTimes[i] == -1) {
+                ResponsePath walkFromStop = GTFSEngine.walk(stops.get(i).getCoordinates(), destination);
+                egressTimes[i] = (int) walkFromStop.getTime() / 1000;
+            }
+        }
+        return egressTimes;
     }
 
     /**
-     * Find the shortest path between two stops with transfers using Dijkstra's algorithm
+     * Find the shortest path between two stops with transfers
      * 
      * @param startStop the starting stop 
      * @param endStop the destination stop
@@ -114,102 +214,334 @@ public class GTFSEngineWithTransfers {
      **/
     public BusTransferResult findBusPathWithTransfers(Stop startStop, Stop endStop,
             LocalTime timeArrivingAtStartStop) {
-        HashMap<Stop, Boolean> explored = new HashMap<Stop, Boolean>();
-        HashMap<Stop, Integer> travelTime = new HashMap<Stop, Integer>();
-        HashMap<Stop, Stop> previous = new HashMap<Stop, Stop>();
-        HashMap<Stop, String> tripId = new HashMap<Stop, String>();
-        HashMap<Stop, LocalTime> departureTime = new HashMap<Stop, LocalTime>();
-
-        for (Stop stop : graph.getStops()) {
-            explored.put(stop, false);
-            travelTime.put(stop, Integer.MAX_VALUE);
-            previous.put(stop, null);
-            tripId.put(stop, null);
-            departureTime.put(stop, null);
+        ArrayList<Stop> startStops = new ArrayList<Stop>();
+        startStops.add(startStop);
+        ArrayList<Stop> endStops = new ArrayList<Stop>();
+        endStops.add(endStop);
+
+        return findBusPathWithTransfers(startStops, new int[] { 0 }, endStops, new int[] { 0 },
+                timeArrivingAtStartStop);
+    }
+
+    /**
+     * Find the path with transfers that arrives earliest at the destination when
+     * departing today, see the variant taking a date and time
+     * 
+     * @param startStops    the stops the path may start at
+     * @param accessTimes   the time in seconds needed to reach every start stop
+     * @param endStops      the stops the path may end at
+     * @param egressTimes   the time in seconds needed to get from every end stop to
+     *                      the destination
+     * @param departureTime the time of departure, access times are counted from it
+     * @return BusTransferResult containing the path details, or null if none of
+     *         the end stops can be reached
+     */
+    public BusTransferResult findBusPathWithTransfers(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalTime departureTime) {
+        return findBusPathWithTransfers(startStops, accessTimes, endStops, egressTimes,
+                LocalDateTime.of(LocalDate.now(), departureTime));
+    }
+
+    /**
+     * Find the path with transfers that arrives earliest at the destination when
+     * departing at a given moment. Trips of the previous service day that still
+     * run after midnight are used as well: that day is searched with the
+     * departure counted from its start, 24 hours later, and the earlier of both
+     * arrivals is taken
+     * 
+     * @param startStops  the stops the path may start at
+     * @param accessTimes the time in seconds needed to reach every start stop
+     * @param endStops    the stops the path may end at
+     * @param egressTimes the time in seconds needed to get from every end stop to
+     *                    the destination
+     * @param departure   the date and time of departure, access times are counted
+     *                    from it
+     * @return BusTransferResult containing the path details, or null if none of
+     *         the end stops can be reached
+     */
+    public BusTransferResult findBusPathWithTransfers(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalDateTime departure) {
+        LocalDate day = departure.toLocalDate();
+        int startTime = departure.toLocalTime().toSecondOfDay();
+        BusTransferResult result = findBusPathOnServiceDay(startStops, accessTimes, endStops, egressTimes, day,
+                startTime);
+
+        if (runsPastStartTime(startTime + SECONDS_PER_DAY)) {
+            BusTransferResult overnightResult = findBusPathOnServiceDay(startStops, accessTimes, endStops,
+                    egressTimes, day.minusDays(1), startTime + SECONDS_PER_DAY);
+            if (overnightResult != null && (result == null
+                    || overnightResult.getTravelTime().compareTo(result.getTravelTime()) < 0)) {
+                result = overnightResult;
+            }
         }
+        return result;
+    }
 
-        PriorityQueue<DijkstraNode> priorityQueue = new PriorityQueue<DijkstraNode>(
-                new DijkstraNodeComparator());
+    /**
+     * Find the path with transfers that arrives earliest at the destination when
+     * departing on a given service day, see findBusPathOnServiceDay
+     * 
+     * @param startStops    the stops the path may start at
+     * @param accessTimes   the time in seconds needed to reach every start stop
+     * @param endStops      the stops the path may end at
+     * @param egressTimes   the time in seconds needed to get from every end stop to
+     *                      the destination
+     * @param serviceDay    the service day to travel on
+     * @param departureTime the time of departure, access times are counted from it
+     * @return BusTransferResult containing the path details, or null if none of
+     *         the end stops can be reached
+     */
+    public BusTransferResult findBusPathWithTransfers(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalDate serviceDay, LocalTime departureTime) {
+        return findBusPathOnServiceDay(startStops, accessTimes, endStops, egressTimes, serviceDay,
+                departureTime.toSecondOfDay());
+    }
 
-        travelTime.put(startStop, 0);
-        priorityQueue.add(new DijkstraNode(startStop, 0));
+    /**
+     * Checks whether any bus of a service day departs at or after a time, so a
+     * search starting then can still find a path
+     *
+     * @param startTime the time in seconds since the start of the service day
+     * @return true if the graph has a departure that late
+     */
+    protected boolean runsPastStartTime(int startTime) {
+        return startTime <= graph.getLastDepartureTime();
+    }
 
-        LocalTime currentTime = timeArrivingAtStartStop;
+    /**
+     * Find the path with transfers that arrives earliest at the destination when
+     * any of the start stops may be used to depart and any of the end stops to
+     * arrive, using Dijkstra's algorithm started from all start stops at once.
+     * Every stop is queued with its travel time plus a lower bound on the time
+     * left, and the search ends as soon as no unsettled stop can still lead to an
+     * earlier arrival at the destination. Only trips running on the service day
+     * are used
+     * 
+     * @param startStops  the stops the path may start at
+     * @param accessTimes the time in seconds needed to reach every start stop
+     * @param endStops    the stops the path may end at
+     * @param egressTimes the time in seconds needed to get from every end stop to
+     *                    the destination
+     * @param serviceDay  the service day to travel on
+     * @param startTime   the time of departure in seconds since the start of the
+     *                    service day, beyond 24 hours after midnight, access
+     *                    times are counted from it
+     * @return BusTransferResult containing the path details, or null if none of
+     *         the end stops can be reached
+     */
+    protected BusTransferResult findBusPathOnServiceDay(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalDate serviceDay, int startTime) {
+        long[] runningTrips = graph.getRunningTrips(serviceDay);
+        SearchContext context = SearchContext.start(graph.getStopCount());
+        IndexedHeap heap = context.getHeap();
+
+        int[] endStopIndices = new int[endStops.size()];
+        int minEgressTime = Integer.MAX_VALUE;
+        for (int i = 0; i < endStops.size(); i++) {
+            endStopIndices[i] = graph.getStopIndex(endStops.get(i).getStopId());
+            if (endStopIndices[i] != -1) {
+                context.addEndStop(endStopIndices[i], egressTimes[i]);
+                minEgressTime = Math.min(minEgressTime, egressTimes[i]);
+            }
+        }
+        if (minEgressTime == Integer.MAX_VALUE) {
+            return null;
+        }
 
-        while (!priorityQueue.isEmpty()) {
-            Stop currentStop = priorityQueue.poll().getStop();
-            LocalTime currentDepartureTime = currentTime.plusSeconds(travelTime.get(currentStop)); // arrive at station
+        // Without a usable speed bound only the walk from the end stops is certain
+        double maxSpeed = graph.getMaxSpeed();
+        boolean useDistance = goalDirected && maxSpeed > 0 && maxSpeed != Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < startStops.size(); i++) {
+            int startStop = graph.getStopIndex(startStops.get(i).getStopId());
+            if (startStop != -1 && accessTimes[i] < context.getTravelTime(startStop)) {
+                context.setStart(startStop, accessTimes[i]);
+                int lowerBound = useDistance ? lowerBound(startStop, endStopIndices, egressTimes, maxSpeed)
+                        : minEgressTime;
+                heap.addOrDecrease(startStop, accessTimes[i] + lowerBound);
+            }
+        }
 
-            explored.put(currentStop, true);
+        int bestEndStop = -1;
+        int bestTotalTime = Integer.MAX_VALUE;
 
-            if (currentStop.equals(endStop)) {
+        while (!heap.isEmpty()) {
+            // No stop left can lead to the destination before the best path found
+            if (heap.peekKey() >= bestTotalTime) {
                 break;
             }
 
-            for (GTFSWeightedEdge neighbourEdge : graph.getNeighbours(currentStop, currentDepartureTime)) {
-                Stop neighbourStop = neighbourEdge.getStop();
-                int waitingTime = (int) (neighbourEdge.getDepartureTime().toSecondOfDay()
-                        - currentDepartureTime.toSecondOfDay());
-                int newTravelTime = travelTime.get(currentStop) + waitingTime + neighbourEdge.getTravelTime();
-                if (newTravelTime < travelTime.get(neighbourStop)) {
-                    travelTime.put(neighbourStop, newTravelTime);
-                    previous.put(neighbourStop, currentStop);
-                    tripId.put(neighbourStop, neighbourEdge.getTripId());
-                    departureTime.put(currentStop, neighbourEdge.getDepartureTime());
-
-                    if (!explored.get(neighbourStop)) {
-                        priorityQueue.add(new DijkstraNode(neighbourStop, travelTime.get(neighbourStop)));
+            int currentStop = heap.poll();
+            context.settle(currentStop);
+            int currentTravelTime = context.getTravelTime(currentStop);
+
+            int currentEgressTime = context.getEgressTime(currentStop);
+            if (currentEgressTime != Integer.MAX_VALUE && currentTravelTime + currentEgressTime < bestTotalTime) {
+                bestTotalTime = currentTravelTime + currentEgressTime;
+                bestEndStop = currentStop;
+            }
+
+            // arrive at station, counting past midnight for trips of the same service day
+            int currentSecondOfDay = startTime + currentTravelTime;
+            for (int group = graph.getNeighbourStart(currentStop); group < graph
+                    .getNeighbourEnd(currentStop); group++) {
+                int edge = graph.findEarliestArrivalEdge(group, currentSecondOfDay, runningTrips);
+                if (edge == -1) {
+                    continue;
+                }
+
+                int neighbourStop = graph.getEdgeTarget(edge);
+                int waitingTime = graph.getEdgeDeparture(edge) - currentSecondOfDay;
+                int edgeTravelTime = graph.getEdgeArrival(edge) - graph.getEdgeDeparture(edge);
+                int newTravelTime = currentTravelTime + waitingTime + edgeTravelTime;
+                if (newTravelTime < context.getTravelTime(neighbourStop)) {
+                    context.setLabel(neighbourStop, newTravelTime, currentStop, graph.getEdgeTrip(edge),
+                            graph.getEdgeDeparture(edge));
+
+                    if (!context.isSettled(neighbourStop)) {
+                        int lowerBound = useDistance
+                                ? lowerBound(neighbourStop, endStopIndices, egressTimes, maxSpeed)
+                                : minEgressTime;
+                        heap.addOrDecrease(neighbourStop, newTravelTime + lowerBound);
                     }
                 }
 
             }
         }
 
-        if (explored.getOrDefault(endStop, false)) {
-
-            ArrayList<PathTransferStop> pathStops = new ArrayList<PathTransferStop>();
-
-            Stop currentStop = endStop;
-            while (currentStop != null) {
-                if (departureTime.get(currentStop) == null) {
-                    PathTransferStop pathStop = new PathTransferStop(currentStop.getStopId(),
-                            currentStop.getCoordinates(),
-                            null, null, tripId.get(currentStop));
-                    pathStops.add(0, pathStop);
-                } else {
-                    PathTransferStop pathStop = new PathTransferStop(currentStop.getStopId(),
-                            currentStop.getCoordinates(),
-                            null, departureTime.get(currentStop).toString(), tripId.get(currentStop));
-                    pathStops.add(0, pathStop);
-                }
+        if (bestEndStop == -1) {
+            return null;
+        }
+
+        // Walk back from the end stop, keeping the coordinates of the given stops
+        ArrayList<PathTransferStop> pathStops = new ArrayList<PathTransferStop>();
+        int currentStop = bestEndStop;
+        String departureFromCurrentStop = null;
+        while (currentStop != -1) {
+            int previousStop = context.getPrevious(currentStop);
+            Stop stop = graph.getStop(currentStop);
+            if (pathStops.isEmpty()) {
+                stop = findStop(endStops, currentStop);
+            } else if (previousStop == -1) {
+                stop = findStop(startStops, currentStop);
+            }
+            int trip = context.getTrip(currentStop);
+            PathTransferStop pathStop = new PathTransferStop(stop.getStopId(), stop.getCoordinates(), null,
+                    departureFromCurrentStop, trip == -1 ? null : graph.getTripId(trip));
+            pathStops.add(0, pathStop);
 
-                currentStop = previous.get(currentStop);
+            departureFromCurrentStop = previousStop == -1 ? null : toTimeString(context.getDeparture(currentStop));
+            currentStop = previousStop;
+        }
 
+        LocalTime departureTime = LocalTime.ofSecondOfDay(startTime % SECONDS_PER_DAY);
+        BusTransferResult result = new BusTransferResult(pathStops, departureTime,
+                departureTime.plusSeconds(context.getTravelTime(bestEndStop)), Duration.ofSeconds(bestTotalTime));
+
+        return result;
+    }
+
+    /**
+     * Calculates a lower bound on the time needed to get from a stop to the
+     * destination: the straight-line distance to an end stop covered at the
+     * highest speed in the network, plus the walk from that end stop. The bound
+     * never overestimates and never drops by more than the time of an edge, so
+     * A* settles every stop at its earliest arrival just like Dijkstra
+     *
+     * @param stop           the stop index
+     * @param endStopIndices the index of every end stop, -1 if not in the graph
+     * @param egressTimes    the walking time from every end stop in seconds
+     * @param maxSpeed       the highest speed in the network in km per second
+     * @return the lower bound in seconds
+     */
+    private int lowerBound(int stop, int[] endStopIndices, int[] egressTimes, double maxSpeed) {
+        double bound = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < endStopIndices.length; i++) {
+            if (endStopIndices[i] != -1) {
+                bound = Math.min(bound, graph.getDistance(stop, endStopIndices[i]) / maxSpeed + egressTimes[i]);
             }
+        }
 
-            BusTransferResult result = new BusTransferResult(pathStops,
-                    currentTime.plusSeconds(travelTime.get(endStop)));
+        // Round down with some slack so rounding errors cannot overestimate
+        return (int) Math.floor(bound - 1e-6);
+    }
 
-            return result;
+    /**
+     * Adds the stops of one trip leg to the front of a path. The pattern-based
+     * engines rebuild journeys from the destination backwards, one leg at a time
+     *
+     * @param pathStops         the path so far, starting at the stop the leg ends at
+     * @param patterns          the route patterns
+     * @param trip              the pattern trip ridden on the leg
+     * @param boardPosition     the pattern position the trip is boarded at
+     * @param alightPosition    the pattern position the trip is left at
+     * @param endStop           the destination stop, which keeps its coordinates in
+     *                          the path
+     * @param nextDepartureTime the departure time from the stop the leg ends at, or
+     *                          null if the journey ends there
+     * @return the departure time of the leg from its boarding stop
+     */
+    protected String prependTripLeg(ArrayList<PathTransferStop> pathStops, TripPatterns patterns, int trip,
+            int boardPosition, int alightPosition, Stop endStop, String nextDepartureTime) {
+        int pattern = patterns.getTripPattern(trip);
+        String legTripId = graph.getTripId(patterns.getTrip(trip));
+        for (int position = alightPosition; position > boardPosition; position--) {
+            Stop pathStop = position == alightPosition && pathStops.isEmpty() ? endStop
+                    : graph.getStop(patterns.getPatternStop(pattern, position));
+            pathStops.add(0, new PathTransferStop(pathStop.getStopId(), pathStop.getCoordinates(), null,
+                    nextDepartureTime, legTripId));
+            nextDepartureTime = toTimeString(patterns.getDepartureTime(trip, position - 1));
         }
-        return null;
+        return nextDepartureTime;
     }
 
     /**
-     * Get the best transfer result from a list of results
-     * 
-     * @param results the list of BusTransferResults
-     * @return the best result based on arrival time
+     * Formats a time of day the way departure times are reported in paths
+     *
+     * @param secondOfDay the time in seconds of the day
+     * @return the time as a string
+     */
+    protected String toTimeString(int secondOfDay) {
+        return LocalTime.ofSecondOfDay(secondOfDay % SECONDS_PER_DAY).toString();
+    }
+
+    /**
+     * Spreads the times given for a list of stops over an array indexed by stop.
+     * Stops that are listed twice keep their lowest time, stops that are not in
+     * the graph are left out
+     *
+     * @param stops the stops
+     * @param times the time in seconds for every stop in the list
+     * @return the time per stop index, Integer.MAX_VALUE for unlisted stops
      */
-    private BusTransferResult getBestTransferResult(ArrayList<BusTransferResult> results) {
-        BusTransferResult bestResult = results.get(0);
-        for (BusTransferResult result : results) {
-            if (result.getArrivalTime().isBefore(bestResult.getArrivalTime())) {
-                bestResult = result;
+    protected int[] toStopTimes(ArrayList<Stop> stops, int[] times) {
+        int[] stopTimes = new int[graph.getStopCount()];
+        Arrays.fill(stopTimes, Integer.MAX_VALUE);
+        for (int i = 0; i < stops.size(); i++) {
+            int stop = graph.getStopIndex(stops.get(i).getStopId());
+            if (stop != -1 && times[i] < stopTimes[stop]) {
+                stopTimes[stop] = times[i];
             }
         }
+        return stopTimes;
+    }
 
-        return bestResult;
+    /**
+     * Finds the stop object of the given list that belongs to a stop index, so the
+     * coordinates it was looked up with are kept in the path
+     *
+     * @param stops     the stops
+     * @param stopIndex the index of the stop in the graph
+     * @return the stop from the list
+     */
+    protected Stop findStop(ArrayList<Stop> stops, int stopIndex) {
+        String stopId = graph.getStop(stopIndex).getStopId();
+        for (Stop stop : stops) {
+            if (stop.getStopId().equals(stopId)) {
+                return stop;
+            }
+        }
+        return graph.getStop(stopIndex);
     }
 
     /**
@@ -220,7 +552,7 @@ public class GTFSEngineWithTransfers {
      * @param result the BusTransferResult containing the path details
      * @return the reconstructed path
      */
-    private PathTransfer reconstructPathForUI(String fromPostalCode, String toPostalCode, BusTransferResult result) {
+    protected PathTransfer reconstructPathForUI(String fromPostalCode, String toPostalCode, BusTransferResult result) {
         PathTransfer path = new PathTransfer();
 
         Stop fromStop = result.getStops().get(0);
@@ -235,7 +567,7 @@ public class GTFSEngineWithTransfers {
         ArrayList<Route> routes = getRoutesForEachStop(result.getStops());
 
         // Set stop name for first stop
-        String stopName = getStopName(result.getStops().get(0).getStopId());
+        String stopName = graph.getCatalogue().getStopName(result.getStops().get(0).getStopId());
         result.getStops().get(0).setName(stopName);
 
         // Add first stop to path
@@ -249,7 +581,7 @@ public class GTFSEngineWithTransfers {
         for (int i = 2; i < result.getStops().size(); i++) {
             PathTransferStop stop = result.getStops().get(i);
             if (!routes.get(i).getRouteId().equals(currentRouteId)) {
-                String stopNameForRoute = getStopName(stop.getStopId());
+                String stopNameForRoute = graph.getCatalogue().getStopName(stop.getStopId());
                 stop.setName(stopNameForRoute);
                 stops.add(stop);
                 associatedRoutes.add(routes.get(i));
@@ -277,7 +609,8 @@ public class GTFSEngineWithTransfers {
 
         // Add time
         int walkTimeInSecondsToToPostalCode = (int) walkPathToToPostalCode.getTime() / 1000;
-        Duration timeTaken = computeTime(result.getArrivalTime(), walkTimeInSecondsToToPostalCode);
+        LocalTime departureTime = result.getDepartureTime() == null ? LocalTime.now() : result.getDepartureTime();
+        Duration timeTaken = computeTime(departureTime, result.getArrivalTime(), walkTimeInSecondsToToPostalCode);
         path.setTime(timeTaken);
 
         return path;
@@ -307,7 +640,7 @@ public class GTFSEngineWithTransfers {
         routes.add(null);
         for (int i = 1; i < stops.size(); i++) {
             PathTransferStop stop = stops.get(i);
-            Route route = getRoute(stop.getTripId());
+            Route route = graph.getCatalogue().getRoute(stop.getTripId());
             routes.add(route);
         }
         return routes;
@@ -340,7 +673,8 @@ public class GTFSEngineWithTransfers {
     }
 
     /**
-     * Adds coordinates to the path based on trip stops
+     * Adds coordinates to the path based on trip stops, following the shape of
+     * the trip if it has one
      * 
      * @param path the Path object
      * @param tripStops the list of PathTransferStop objects for a trip
@@ -352,138 +686,39 @@ public class GTFSEngineWithTransfers {
         PathTransferStop firstStop = tripStops.get(0);
         PathTransferStop lastStop = tripStops.get(tripStops.size() - 1);
 
-        try {
-            Connection connection = DatabaseConnection.getConnection();
-            // Get coordinates SQL query
-            String getCoordinatesSQL = """
-                    select
-                        shape_pt_lat,
-                        shape_pt_lon,
-                        shape_dist_traveled
-                    from
-                        shapes
-                    where
-                        shape_id = (select shape_id from trips where trip_id = ?)
-                        and shape_dist_traveled >= (select shape_dist_traveled from stop_times where trip_id = ? and stop_id = ?)
-                        and shape_dist_traveled <= (select shape_dist_traveled from stop_times where trip_id = ? and stop_id = ?);
-                            """;
-            PreparedStatement getCoordinatesStatement = connection.prepareStatement(getCoordinatesSQL);
-            getCoordinatesStatement.setString(1, tripId);
-            getCoordinatesStatement.setString(2, tripId);
-            getCoordinatesStatement.setString(3, firstStop.getStopId());
-            getCoordinatesStatement.setString(4, tripId);
-            getCoordinatesStatement.setString(5, lastStop.getStopId());
-
-            ResultSet coordinatesResult = getCoordinatesStatement.executeQuery();
-            while (coordinatesResult.next()) {
-                String lat = coordinatesResult.getString("shape_pt_lat");
-                String lon = coordinatesResult.getString("shape_pt_lon");
-                Coordinates c = new Coordinates(lat, lon);
-                path.addCoordinates(c, 1, colorId);
-            }
+        // Slice the shape of the trip between the first and last stop
+        double[] legPoints = ShapeCache.getInstance().getLegPoints(tripId, firstStop.getStopId(),
+                lastStop.getStopId());
+        for (int i = 0; i < legPoints.length; i += 3) {
+            Coordinates c = new Coordinates(String.valueOf(legPoints[i]), String.valueOf(legPoints[i + 1]));
+            path.addCoordinates(c, 1, colorId);
+        }
 
-        } catch (SQLException e) {
-            e.printStackTrace();
+        // Without a shape, connect the stops of the trip in straight lines
+        if (legPoints.length == 0) {
+            for (PathTransferStop stop : tripStops) {
+                if (stop.getCoordinates() != null) {
+                    path.addCoordinates(stop.getCoordinates(), 1, colorId);
+                }
+            }
         }
     }
 
     /**
      * Computes the total time taken to travel along the path
      * 
+     * @param departureTime the time the journey departs from the origin
      * @param finalBusArrivalTime the final bus arrival time
      * @param walkTimeToToPostalCodeInSeconds the walking time to the destination postal code in seconds
      * @return the total duration of the journey
      */
-    private Duration computeTime(LocalTime finalBusArrivalTime, int walkTimeToToPostalCodeInSeconds) {
+    private Duration computeTime(LocalTime departureTime, LocalTime finalBusArrivalTime,
+            int walkTimeToToPostalCodeInSeconds) {
         LocalTime finalWalkArrivalTime = finalBusArrivalTime.plusSeconds(walkTimeToToPostalCodeInSeconds);
-        return Duration.between(LocalTime.now(), finalWalkArrivalTime);
-    }
-
-    /**
-     * Retrieves the name of a stop given its ID
-     * 
-     * @param stopId the stop ID
-     * @return the name of the stop as a string
-     */
-    private String getStopName(String stopId) {
-
-        String stopName = null;
-
-        try {
-            // Get DB connection
-            Connection connection = DatabaseConnection.getConnection();
-
-            // Query stop name
-            String stopNameQuerySQL = """
-                    SELECT
-                        stop_name
-                    FROM
-                        stops
-                    WHERE
-                        stop_id = ?
-                    """;
-            PreparedStatement stopNameStatement = connection.prepareStatement(stopNameQuerySQL);
-            stopNameStatement.setString(1, stopId);
-            ResultSet stopNameResult = stopNameStatement.executeQuery();
-            stopNameResult.next();
-            stopName = stopNameResult.getString("stop_name");
-
-            stopNameStatement.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
-        return stopName;
-
-    }
-
-    /**
-     * Retrieves the route details given a trip ID
-     * 
-     * @param tripId the trip ID
-     * @return a Route object containing the route details
-     */
-    private Route getRoute(String tripId) {
-
-        Route route = null;
-
-        try {
-            // Get DB connection
-            Connection connection = DatabaseConnection.getConnection();
-
-            // Query stop name
-            String routeIdSQL = """
-                    SELECT
-                        route_id,
-                        route_short_name,
-                        route_long_name
-                    FROM
-                        routes
-                    WHERE
-                        route_id = (
-                            SELECT
-                                route_id
-                            FROM
-                                trips
-                            WHERE
-                                trip_id = ?
-                        )
-                    """;
-
-            PreparedStatement routeIdStatement = connection.prepareStatement(routeIdSQL);
-            routeIdStatement.setString(1, tripId);
-            ResultSet routeIdResult = routeIdStatement.executeQuery();
-            routeIdResult.next();
-            String routeId = routeIdResult.getString("route_id");
-            String routeShortName = routeIdResult.getString("route_short_name");
-            String routeLongName = routeIdResult.getString("route_long_name");
-            route = new Route(routeId, routeShortName, routeLongName);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
-        return route;
+        Duration time = Duration.between(departureTime, finalWalkArrivalTime);
 
+        // Journeys arriving after midnight end on the next day
+        return time.isNegative() ? time.plusDays(1) : time;
     }
 
 }
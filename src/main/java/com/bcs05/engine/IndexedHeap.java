@@ -0,0 +1,186 @@
+package com.bcs05.engine;
+
+import java.util.Arrays;
+
+/**
+ * Indexed 4-ary min-heap of int items (stop indices) with int keys. Every item
+ * is in the heap at most once and its key can be lowered in place, so the heap
+ * never holds more entries than there are items
+ */
+public class IndexedHeap {
+
+    private static final int ARITY = 4;
+
+    // Items in heap order and their keys
+    private int[] items;
+    private int[] keys;
+    private int size;
+
+    // Position of every item in the heap, -1 if it is not in the heap
+    private int[] positions;
+
+    /**
+     * Constructs an empty heap for the items 0 to capacity - 1
+     *
+     * @param capacity the number of distinct items
+     */
+    public IndexedHeap(int capacity) {
+        items = new int[capacity];
+        keys = new int[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /**
+     * Retrieves the number of distinct items the heap can hold
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return positions.length;
+    }
+
+    /**
+     * Retrieves the number of items in the heap
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the heap is empty
+     *
+     * @return true if the heap holds no items
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Checks whether an item is in the heap
+     *
+     * @param item the item
+     * @return true if the item is in the heap
+     */
+    public boolean contains(int item) {
+        return positions[item] != -1;
+    }
+
+    /**
+     * Adds an item, or lowers its key if it is already in the heap with a higher
+     * key
+     *
+     * @param item the item
+     * @param key  the key
+     */
+    public void addOrDecrease(int item, int key) {
+        int position = positions[item];
+        if (position == -1) {
+            position = size++;
+        } else if (key >= keys[position]) {
+            return;
+        }
+        siftUp(position, item, key);
+    }
+
+    /**
+     * Retrieves the smallest key in the heap
+     *
+     * @return the smallest key
+     */
+    public int peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * Removes the item with the smallest key
+     *
+     * @return the removed item
+     */
+    public int poll() {
+        int top = items[0];
+        positions[top] = -1;
+        size--;
+        if (size > 0) {
+            siftDown(0, items[size], keys[size]);
+        }
+        return top;
+    }
+
+    /**
+     * Removes all items from the heap, in time proportional to its size
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[items[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Moves an item up from a position until its parent has a smaller or equal key
+     *
+     * @param position the position to start at
+     * @param item     the item to place
+     * @param key      its key
+     */
+    private void siftUp(int position, int item, int key) {
+        while (position > 0) {
+            int parent = (position - 1) / ARITY;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(position, items[parent], keys[parent]);
+            position = parent;
+        }
+        place(position, item, key);
+    }
+
+    /**
+     * Moves an item down from a position until all its children have a larger or
+     * equal key
+     *
+     * @param position the position to start at
+     * @param item     the item to place
+     * @param key      its key
+     */
+    private void siftDown(int position, int item, int key) {
+        while (true) {
+            int firstChild = position * ARITY + 1;
+            if (firstChild >= size) {
+                break;
+            }
+
+            int smallest = firstChild;
+            int lastChild = Math.min(firstChild + ARITY, size);
+            for (int child = firstChild + 1; child < lastChild; child++) {
+                if (keys[child] < keys[smallest]) {
+                    smallest = child;
+                }
+            }
+            if (keys[smallest] >= key) {
+                break;
+            }
+
+            place(position, items[smallest], keys[smallest]);
+            position = smallest;
+        }
+        place(position, item, key);
+    }
+
+    /**
+     * Stores an item at a position of the heap
+     *
+     * @param position the position
+     * @param item     the item
+     * @param key      its key
+     */
+    private void place(int position, int item, int key) {
+        items[position] = item;
+        keys[position] = key;
+        positions[item] = position;
+    }
+
+}
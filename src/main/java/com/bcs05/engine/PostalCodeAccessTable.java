@@ -0,0 +1,473 @@
+package com.bcs05.engine;
+
+import com.bcs05.data.PostalCodeReader;
+import com.bcs05.util.Coordinates;
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.Stop;
+import com.bcs05.util.Transportation;
+import com.graphhopper.ResponsePath;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Precomputed walks between every postal code and the stops around it. For each
+ * postal code the table holds the stops within MAX_RADIUS km, nearest first,
+ * with the walking time and distance to and from each stop. Walks GraphHopper
+ * could not route are kept as unknown, so they are routed at query time. Any
+ * smaller radius uses a prefix of these stops, so one table serves every radius
+ * the UI offers. The table is computed offline by running this class and stored
+ * in a binary file that is read on first use
+ */
+public class PostalCodeAccessTable {
+
+    // Location of the table file
+    public static final String TABLE_FILE = "src/main/resources/postal_access.bin";
+
+    // Largest search radius in km the table covers
+    public static final double MAX_RADIUS = 0.5;
+
+    // "PCAT" in ASCII
+    private static final int MAGIC = 0x50434154;
+    private static final int VERSION = 2;
+
+    // Times and distances are stored as unsigned shorts, larger values are capped.
+    // The largest value marks a walk that is not known
+    private static final int MAX_SHORT = 0xFFFF;
+
+    private static PostalCodeAccessTable instance;
+
+    // Postal code dictionary
+    private HashMap<String, Integer> postalCodeIndices;
+
+    // Stop dictionary
+    private String[] stopIds;
+
+    // The entries of postal code p are [entryStart[p], entryStart[p + 1]), nearest
+    // stop first. Times are in seconds and distances in metres, -1 if the walk is
+    // not known
+    private int[] entryStart;
+    private int[] entryStop;
+    private float[] entryAerialDistance;
+    private int[] accessTime;
+    private int[] accessDistance;
+    private int[] egressTime;
+    private int[] egressDistance;
+
+    /**
+     * Computes the table for every postal code in MassZipLatLon.csv and writes it
+     * to the table file
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) {
+        try {
+            long start = System.currentTimeMillis();
+            PostalCodeAccessTable table = compute(new PostalCodeReader().getRecords(), GTFSGraph.getInstance());
+            table.write(new File(TABLE_FILE));
+            System.out.println("Computed access table for " + table.postalCodeIndices.size() + " postal codes in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Retrieves the table, reading it from the table file on first use
+     *
+     * @return the table, empty if there is no table file or it cannot be read
+     */
+    public static synchronized PostalCodeAccessTable getInstance() {
+        if (instance == null) {
+            instance = new PostalCodeAccessTable();
+            File file = new File(TABLE_FILE);
+            if (file.isFile()) {
+                try {
+                    instance = read(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Constructs an empty table
+     */
+    private PostalCodeAccessTable() {
+        postalCodeIndices = new HashMap<String, Integer>();
+        stopIds = new String[0];
+        entryStart = new int[] { 0 };
+        entryStop = new int[0];
+        entryAerialDistance = new float[0];
+        accessTime = new int[0];
+        accessDistance = new int[0];
+        egressTime = new int[0];
+        egressDistance = new int[0];
+    }
+
+    /**
+     * Computes the walks between postal codes and their nearby stops, one postal
+     * code per task on all processors. Walks that GraphHopper cannot route are
+     * kept as unknown
+     *
+     * @param postalCodes the coordinates of every postal code
+     * @param graph       the graph whose stops are walked to
+     * @return the table
+     * @throws InterruptedException if the computation is interrupted
+     * @throws ExecutionException   if a task fails
+     */
+    static PostalCodeAccessTable compute(HashMap<String, Coordinates> postalCodes, GTFSGraph graph)
+            throws InterruptedException, ExecutionException {
+        RoutingEngine routingEngine = new RoutingEngine(Transportation.FOOT);
+        String[] codes = postalCodes.keySet().toArray(new String[0]);
+        Arrays.sort(codes);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        ArrayList<Future<ArrayList<Walk>>> tasks = new ArrayList<Future<ArrayList<Walk>>>();
+        for (String code : codes) {
+            Coordinates coordinates = postalCodes.get(code);
+            tasks.add(executorService.submit(() -> computeWalks(routingEngine, graph, coordinates)));
+        }
+        executorService.shutdown();
+
+        // Stops are numbered in the table as in the graph
+        PostalCodeAccessTable table = new PostalCodeAccessTable();
+        table.stopIds = new String[graph.getStopCount()];
+        for (int stop = 0; stop < graph.getStopCount(); stop++) {
+            table.stopIds[stop] = graph.getStop(stop).getStopId();
+        }
+
+        table.entryStart = new int[codes.length + 1];
+        ArrayList<Walk> entries = new ArrayList<Walk>();
+        for (int p = 0; p < codes.length; p++) {
+            table.postalCodeIndices.put(codes[p], p);
+            entries.addAll(tasks.get(p).get());
+            table.entryStart[p + 1] = entries.size();
+        }
+
+        int entryCount = entries.size();
+        table.entryStop = new int[entryCount];
+        table.entryAerialDistance = new float[entryCount];
+        table.accessTime = new int[entryCount];
+        table.accessDistance = new int[entryCount];
+        table.egressTime = new int[entryCount];
+        table.egressDistance = new int[entryCount];
+        for (int e = 0; e < entryCount; e++) {
+            Walk walk = entries.get(e);
+            table.entryStop[e] = walk.stop;
+            table.entryAerialDistance[e] = walk.aerialDistance;
+            table.accessTime[e] = walk.accessTime;
+            table.accessDistance[e] = walk.accessDistance;
+            table.egressTime[e] = walk.egressTime;
+            table.egressDistance[e] = walk.egressDistance;
+        }
+        return table;
+    }
+
+    /**
+     * Walks from a postal code to every stop within MAX_RADIUS and back. Every
+     * stop gets a walk, with -1 as time and distance of a direction that cannot
+     * be routed
+     *
+     * @param routingEngine the foot routing engine
+     * @param graph         the graph whose stops are walked to
+     * @param coordinates   the coordinates of the postal code
+     * @return the walks, nearest stop first
+     */
+    private static ArrayList<Walk> computeWalks(RoutingEngine routingEngine, GTFSGraph graph,
+            Coordinates coordinates) {
+        double latitude = Double.parseDouble(coordinates.getLatitude());
+        double longitude = Double.parseDouble(coordinates.getLongitude());
+
+        ArrayList<Walk> walks = new ArrayList<Walk>();
+        for (int stop : graph.getStopGrid().findStopIndicesWithin(latitude, longitude, MAX_RADIUS)) {
+            Coordinates stopCoordinates = new Coordinates(String.valueOf(graph.getStopLatitude(stop)),
+                    String.valueOf(graph.getStopLongitude(stop)));
+            Walk walk = new Walk();
+            walk.stop = stop;
+            walk.aerialDistance = (float) DistanceCalculator.calculateAerialDistance(latitude, longitude,
+                    graph.getStopLatitude(stop), graph.getStopLongitude(stop));
+            try {
+                ResponsePath access = routingEngine.routing(coordinates, stopCoordinates);
+                walk.accessTime = (int) (access.getTime() / 1000);
+                walk.accessDistance = (int) Math.round(access.getDistance());
+            } catch (RuntimeException e) {
+                // No walking route, computeAccessTimes routes the walk at query time
+                walk.accessTime = -1;
+                walk.accessDistance = -1;
+            }
+            try {
+                ResponsePath egress = routingEngine.routing(stopCoordinates, coordinates);
+                walk.egressTime = (int) (egress.getTime() / 1000);
+                walk.egressDistance = (int) Math.round(egress.getDistance());
+            } catch (RuntimeException e) {
+                // No walking route, computeEgressTimes routes the walk at query time
+                walk.egressTime = -1;
+                walk.egressDistance = -1;
+            }
+            walks.add(walk);
+        }
+        return walks;
+    }
+
+    /**
+     * Writes the table to a file
+     *
+     * @param file the table file
+     * @throws IOException if the file cannot be written
+     */
+    void write(File file) throws IOException {
+        String[] codes = new String[postalCodeIndices.size()];
+        for (String code : postalCodeIndices.keySet()) {
+            codes[postalCodeIndices.get(code)] = code;
+        }
+
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(stopIds.length);
+            for (String stopId : stopIds) {
+                output.writeUTF(stopId);
+            }
+            output.writeInt(codes.length);
+            for (int p = 0; p < codes.length; p++) {
+                output.writeUTF(codes[p]);
+                output.writeInt(entryStart[p + 1] - entryStart[p]);
+                for (int e = entryStart[p]; e < entryStart[p + 1]; e++) {
+                    output.writeInt(entryStop[e]);
+                    output.writeFloat(entryAerialDistance[e]);
+                    writeWalkValue(output, accessTime[e]);
+                    writeWalkValue(output, accessDistance[e]);
+                    writeWalkValue(output, egressTime[e]);
+                    writeWalkValue(output, egressDistance[e]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a table from a file
+     *
+     * @param file the table file
+     * @return the table
+     * @throws IOException if the file cannot be read or has another format
+     */
+    static PostalCodeAccessTable read(File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unknown access table format: " + file);
+            }
+
+            PostalCodeAccessTable table = new PostalCodeAccessTable();
+            table.stopIds = new String[input.readInt()];
+            for (int stop = 0; stop < table.stopIds.length; stop++) {
+                table.stopIds[stop] = input.readUTF();
+            }
+
+            int codeCount = input.readInt();
+            table.entryStart = new int[codeCount + 1];
+            int capacity = Math.max(codeCount * 8, 16);
+            table.entryStop = new int[capacity];
+            table.entryAerialDistance = new float[capacity];
+            table.accessTime = new int[capacity];
+            table.accessDistance = new int[capacity];
+            table.egressTime = new int[capacity];
+            table.egressDistance = new int[capacity];
+
+            int e = 0;
+            for (int p = 0; p < codeCount; p++) {
+                table.postalCodeIndices.put(input.readUTF(), p);
+                int entryCount = input.readInt();
+                if (e + entryCount > table.entryStop.length) {
+                    table.grow(Math.max(e + entryCount, table.entryStop.length * 2));
+                }
+                for (int i = 0; i < entryCount; i++, e++) {
+                    table.entryStop[e] = input.readInt();
+                    table.entryAerialDistance[e] = input.readFloat();
+                    table.accessTime[e] = readWalkValue(input);
+                    table.accessDistance[e] = readWalkValue(input);
+                    table.egressTime[e] = readWalkValue(input);
+                    table.egressDistance[e] = readWalkValue(input);
+                }
+                table.entryStart[p + 1] = e;
+            }
+            table.grow(e);
+            return table;
+        }
+    }
+
+    /**
+     * Writes a walking time or distance as an unsigned short
+     *
+     * @param output the table file
+     * @param value  the time or distance, -1 if the walk is not known
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeWalkValue(DataOutputStream output, int value) throws IOException {
+        output.writeShort(value == -1 ? MAX_SHORT : Math.min(value, MAX_SHORT - 1));
+    }
+
+    /**
+     * Reads a walking time or distance written by writeWalkValue
+     *
+     * @param input the table file
+     * @return the time or distance, -1 if the walk is not known
+     * @throws IOException if the file cannot be read
+     */
+    private static int readWalkValue(DataInputStream input) throws IOException {
+        int value = input.readUnsignedShort();
+        return value == MAX_SHORT ? -1 : value;
+    }
+
+    /**
+     * Resizes the entry arrays
+     *
+     * @param capacity the new number of entries
+     */
+    private void grow(int capacity) {
+        entryStop = Arrays.copyOf(entryStop, capacity);
+        entryAerialDistance = Arrays.copyOf(entryAerialDistance, capacity);
+        accessTime = Arrays.copyOf(accessTime, capacity);
+        accessDistance = Arrays.copyOf(accessDistance, capacity);
+        egressTime = Arrays.copyOf(egressTime, capacity);
+        egressDistance = Arrays.copyOf(egressDistance, capacity);
+    }
+
+    /**
+     * Retrieves the first entry of a postal code. The stops returned by getStops
+     * have consecutive entries from this one, in the same order
+     *
+     * @param postalCode the postal code
+     * @return the entry index, -1 if the postal code is not in the table
+     */
+    public int getFirstEntry(String postalCode) {
+        Integer p = postalCodeIndices.get(postalCode);
+        return p == null ? -1 : entryStart[p];
+    }
+
+    /**
+     * Finds the entry of a stop near a postal code, given where the stop is
+     * expected in the list of the postal code, so no search is needed
+     *
+     * @param postalCode the postal code
+     * @param rank       the position of the stop in the list returned by getStops
+     * @param stopId     the stop id
+     * @return the entry index, -1 if the stop is not at that position
+     */
+    public int getEntry(String postalCode, int rank, String stopId) {
+        Integer p = postalCodeIndices.get(postalCode);
+        if (p == null || rank >= entryStart[p + 1] - entryStart[p]) {
+            return -1;
+        }
+        int e = entryStart[p] + rank;
+        return stopIds[entryStop[e]].equals(stopId) ? e : -1;
+    }
+
+    /**
+     * Retrieves the walking time from the postal code of an entry to its stop
+     *
+     * @param entry the entry index
+     * @return the time in seconds, -1 if the walk is not known
+     */
+    public int getAccessTime(int entry) {
+        return accessTime[entry];
+    }
+
+    /**
+     * Retrieves the walking distance from the postal code of an entry to its stop
+     *
+     * @param entry the entry index
+     * @return the distance in metres, -1 if the walk is not known
+     */
+    public int getAccessDistance(int entry) {
+        return accessDistance[entry];
+    }
+
+    /**
+     * Retrieves the walking time from the stop of an entry to its postal code
+     *
+     * @param entry the entry index
+     * @return the time in seconds, -1 if the walk is not known
+     */
+    public int getEgressTime(int entry) {
+        return egressTime[entry];
+    }
+
+    /**
+     * Retrieves the walking distance from the stop of an entry to its postal code
+     *
+     * @param entry the entry index
+     * @return the distance in metres, -1 if the walk is not known
+     */
+    public int getEgressDistance(int entry) {
+        return egressDistance[entry];
+    }
+
+    /**
+     * Retrieves the stops within a radius of a postal code that the table has
+     * entries for. The table is not used when the stop grid of the graph finds
+     * more stops within the radius, as it was then computed for an older graph
+     *
+     * @param postalCode  the postal code
+     * @param coordinates the coordinates of the postal code
+     * @param radius      the radius in km, at most MAX_RADIUS
+     * @param graph       the graph the stops are taken from
+     * @return the stops with their coordinates nearest first, or null if the
+     *         table does not cover the postal code and radius or does not match
+     *         the stops of the graph
+     */
+    public ArrayList<Stop> getStops(String postalCode, Coordinates coordinates, double radius, GTFSGraph graph) {
+        Integer p = postalCodeIndices.get(postalCode);
+        if (p == null || radius > MAX_RADIUS) {
+            return null;
+        }
+        ArrayList<Stop> stops = new ArrayList<Stop>();
+        for (int e = entryStart[p]; e < entryStart[p + 1] && entryAerialDistance[e] < radius; e++) {
+            String stopId = stopIds[entryStop[e]];
+            int stop = graph.getStopIndex(stopId);
+            if (stop == -1) {
+                return null;
+            }
+            Coordinates stopCoordinates = new Coordinates(String.valueOf(graph.getStopLatitude(stop)),
+                    String.valueOf(graph.getStopLongitude(stop)));
+            stops.add(new Stop(stopId, stopCoordinates));
+        }
+
+        // A table computed for an older graph misses the stops added since
+        int gridStopCount = graph.getStopGrid().findStopIndicesWithin(Double.parseDouble(coordinates.getLatitude()),
+                Double.parseDouble(coordinates.getLongitude()), radius).length;
+        if (gridStopCount > stops.size()) {
+            return null;
+        }
+        return stops;
+    }
+
+    /**
+     * Walk between a postal code and one stop, computed by the offline job
+     */
+    private static class Walk {
+        private int stop;
+        private float aerialDistance;
+        private int accessTime;
+        private int accessDistance;
+        private int egressTime;
+        private int egressDistance;
+    }
+
+}
@@ -0,0 +1,632 @@
+package com.bcs05.engine;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.bcs05.util.BusTransferResult;
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.PathTransfer;
+import com.bcs05.util.PathTransferStop;
+import com.bcs05.util.Stop;
+import com.bcs05.util.TripPatterns;
+
+/**
+ * Transit engine based on RAPTOR (Round-bAsed Public Transit Optimized Router).
+ * Instead of expanding single stops it scans whole route patterns, one round per
+ * boarded trip, so round k holds the earliest arrival at every stop using at
+ * most k trips
+ */
+public class RaptorEngine extends GTFSEngineWithTransfers {
+
+    public static void main(String[] args) {
+        RaptorEngine engine = new RaptorEngine();
+        PathTransfer path = engine.findPathWithTransfers("6221BA", "6221GE", 0.3);
+        System.out.println(path == null ? "No path found" : "Path found, takes " + path.getTime());
+    }
+
+    // Number of transfers allowed when none is given
+    public static final int DEFAULT_MAX_TRANSFERS = 5;
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final int maxTransfers;
+
+    /**
+     * Constructs a RAPTOR engine allowing the default number of transfers
+     */
+    public RaptorEngine() {
+        this(DEFAULT_MAX_TRANSFERS);
+    }
+
+    /**
+     * Constructs a RAPTOR engine
+     *
+     * @param maxTransfers the maximum number of transfers in a journey
+     */
+    public RaptorEngine(int maxTransfers) {
+        this(GTFSGraph.getInstance(), maxTransfers);
+    }
+
+    /**
+     * Constructs a RAPTOR engine on a given graph
+     *
+     * @param graph        the graph to search
+     * @param maxTransfers the maximum number of transfers in a journey
+     */
+    public RaptorEngine(GTFSGraph graph, int maxTransfers) {
+        super(graph, false);
+        this.maxTransfers = maxTransfers;
+    }
+
+    /**
+     * Retrieves the maximum number of transfers in a journey
+     *
+     * @return the maximum number of transfers
+     */
+    public int getMaxTransfers() {
+        return maxTransfers;
+    }
+
+    /**
+     * Find the earliest arriving path from any of the start stops to any of the
+     * end stops with at most maxTransfers transfers. All start stops are labelled
+     * in round 0 and a stop only keeps an improved label while it can still beat
+     * the best arrival at the destination, walking included. Only trips running
+     * on the service day are boarded
+     *
+     * @param startStops    the stops the path may start at
+     * @param accessTimes   the time in seconds needed to reach every start stop
+     * @param endStops      the stops the path may end at
+     * @param egressTimes   the time in seconds needed to get from every end stop to
+     *                      the destination
+     * @param serviceDay    the service day to travel on
+     * @param startTime     the time of departure in seconds since the start of the
+     *                      service day, access times are counted from it
+     * @return BusTransferResult containing the path details, or null if none of
+     *         the end stops can be reached
+     */
+    @Override
+    protected BusTransferResult findBusPathOnServiceDay(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalDate serviceDay, int startTime) {
+        TripPatterns patterns = graph.getTripPatterns();
+        long[] running = graph.getRunningPatternTrips(serviceDay);
+        int[] access = toStopTimes(startStops, accessTimes);
+        int[] egress = toStopTimes(endStops, egressTimes);
+        if (minimum(egress) == UNREACHED) {
+            return null;
+        }
+
+        RoundLabels labels = new RoundLabels(graph.getStopCount(), maxTransfers + 1, patterns.getPatternCount());
+        labelStartStops(labels, access, egress, startTime, true);
+        runRounds(labels, patterns, running, egress);
+
+        if (labels.bestTotal == UNREACHED) {
+            return null;
+        }
+
+        return reconstructJourney(patterns, labels, startStops, endStops, startTime);
+    }
+
+    /**
+     * Finds the paths with transfers between two postal codes for every moment to
+     * leave within a time window, see findBusProfileWithTransfers
+     *
+     * @param fromPostalCode the starting postal code
+     * @param toPostalCode   the destination postal code
+     * @param radius         the radius to search for stops
+     * @param windowStart    the earliest time to leave
+     * @param windowLength   the length of the time window
+     * @return the paths ordered by departure time, empty if there are none
+     */
+    public ArrayList<PathTransfer> findProfileWithTransfers(String fromPostalCode, String toPostalCode,
+            double radius, LocalTime windowStart, Duration windowLength) {
+        ArrayList<PathTransfer> paths = new ArrayList<PathTransfer>();
+        ArrayList<Stop> startStops = GTFSEngine.getStopsFromPostalCode(fromPostalCode, radius);
+        ArrayList<Stop> endStops = GTFSEngine.getStopsFromPostalCode(toPostalCode, radius);
+
+        if (startStops == null || endStops == null || startStops.isEmpty() || endStops.isEmpty()) {
+            return paths;
+        }
+
+        int[] accessTimes = computeAccessTimes(fromPostalCode, startStops);
+        int[] egressTimes = computeEgressTimes(endStops, toPostalCode);
+
+        for (BusTransferResult result : findBusProfileWithTransfers(startStops, accessTimes, endStops, egressTimes,
+                windowStart, windowLength)) {
+            paths.add(reconstructPathForUI(fromPostalCode, toPostalCode, result));
+        }
+        return paths;
+    }
+
+    /**
+     * Finds every journey worth taking when leaving today within a time window,
+     * see the variant taking a date and time
+     *
+     * @param startStops   the stops the journeys may start at
+     * @param accessTimes  the time in seconds needed to reach every start stop
+     * @param endStops     the stops the journeys may end at
+     * @param egressTimes  the time in seconds needed to get from every end stop to
+     *                     the destination
+     * @param windowStart  the earliest time to leave
+     * @param windowLength the length of the time window
+     * @return the journeys ordered by departure time, empty if there are none
+     */
+    public ArrayList<BusTransferResult> findBusProfileWithTransfers(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalTime windowStart, Duration windowLength) {
+        return findBusProfileWithTransfers(startStops, accessTimes, endStops, egressTimes,
+                LocalDateTime.of(LocalDate.now(), windowStart), windowLength);
+    }
+
+    /**
+     * Finds every journey worth taking when leaving within a time window starting
+     * at a given moment. Trips of the previous service day that still run after
+     * midnight are used as well: the profiles of both service days are merged,
+     * keeping every journey that arrives strictly earlier than any journey of
+     * either day leaving later
+     *
+     * @param startStops   the stops the journeys may start at
+     * @param accessTimes  the time in seconds needed to reach every start stop
+     * @param endStops     the stops the journeys may end at
+     * @param egressTimes  the time in seconds needed to get from every end stop to
+     *                     the destination
+     * @param windowStart  the date and time of the earliest moment to leave
+     * @param windowLength the length of the time window
+     * @return the journeys ordered by departure time, each with its departure
+     *         time set, empty if there are none
+     */
+    public ArrayList<BusTransferResult> findBusProfileWithTransfers(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalDateTime windowStart, Duration windowLength) {
+        LocalDate day = windowStart.toLocalDate();
+        int startTime = windowStart.toLocalTime().toSecondOfDay();
+        int endTime = startTime + (int) windowLength.getSeconds();
+        ArrayList<BusTransferResult> journeys = findProfileOnServiceDay(startStops, accessTimes, endStops,
+                egressTimes, day, startTime, endTime);
+
+        if (!runsPastStartTime(startTime + SECONDS_PER_DAY)) {
+            return journeys;
+        }
+        journeys.addAll(findProfileOnServiceDay(startStops, accessTimes, endStops, egressTimes, day.minusDays(1),
+                startTime + SECONDS_PER_DAY, endTime + SECONDS_PER_DAY));
+
+        // Order by moment of leaving in the window, the earliest arrival last among
+        // journeys leaving at the same moment
+        journeys.sort((first, second) -> {
+            int order = Integer.compare(secondsIntoWindow(first, startTime), secondsIntoWindow(second, startTime));
+            return order != 0 ? order : second.getTravelTime().compareTo(first.getTravelTime());
+        });
+
+        // Only keep the journeys that beat every journey leaving later
+        ArrayList<BusTransferResult> profile = new ArrayList<BusTransferResult>();
+        long latestArrival = Long.MAX_VALUE;
+        for (int i = journeys.size() - 1; i >= 0; i--) {
+            BusTransferResult journey = journeys.get(i);
+            long arrival = secondsIntoWindow(journey, startTime) + journey.getTravelTime().getSeconds();
+            if (arrival < latestArrival) {
+                latestArrival = arrival;
+                profile.add(0, journey);
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Calculates how long after the start of a window a journey leaves
+     *
+     * @param journey   the journey
+     * @param startTime the start of the window in seconds of the day
+     * @return the seconds between the start of the window and the departure
+     */
+    private int secondsIntoWindow(BusTransferResult journey, int startTime) {
+        return Math.floorMod(journey.getDepartureTime().toSecondOfDay() - startTime, SECONDS_PER_DAY);
+    }
+
+    /**
+     * Finds every journey worth taking when leaving within a time window on a
+     * given service day, not using trips of the previous service day
+     *
+     * @param startStops   the stops the journeys may start at
+     * @param accessTimes  the time in seconds needed to reach every start stop
+     * @param endStops     the stops the journeys may end at
+     * @param egressTimes  the time in seconds needed to get from every end stop to
+     *                     the destination
+     * @param serviceDay   the service day to travel on
+     * @param windowStart  the earliest time to leave
+     * @param windowLength the length of the time window
+     * @return the journeys ordered by departure time, each with its departure
+     *         time set, empty if there are none
+     */
+    public ArrayList<BusTransferResult> findBusProfileWithTransfers(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalDate serviceDay, LocalTime windowStart,
+            Duration windowLength) {
+        return findProfileOnServiceDay(startStops, accessTimes, endStops, egressTimes, serviceDay,
+                windowStart.toSecondOfDay(), windowStart.toSecondOfDay() + (int) windowLength.getSeconds());
+    }
+
+    /**
+     * Finds every journey worth taking when leaving within a time window: each one
+     * arrives strictly earlier than any journey leaving later. Only journeys that
+     * use at least one bus are listed, as walking to a stop that is also an end
+     * stop takes equally long at any moment. This is the rRAPTOR profile search,
+     * which runs the rounds once per moment a bus can be caught from a start stop,
+     * latest first, and keeps the labels of later departures, as they are still
+     * valid when leaving earlier. Most of the work is therefore done once for the
+     * whole window
+     *
+     * @param startStops   the stops the journeys may start at
+     * @param accessTimes  the time in seconds needed to reach every start stop
+     * @param endStops     the stops the journeys may end at
+     * @param egressTimes  the time in seconds needed to get from every end stop to
+     *                     the destination
+     * @param serviceDay   the service day to travel on
+     * @param windowStart  the earliest time to leave in seconds since the start of
+     *                     the service day, access times are counted from the
+     *                     moment of leaving
+     * @param windowEnd    the latest time to leave in seconds since the start of
+     *                     the service day
+     * @return the journeys ordered by departure time, each with its departure
+     *         time set, empty if there are none
+     */
+    private ArrayList<BusTransferResult> findProfileOnServiceDay(ArrayList<Stop> startStops, int[] accessTimes,
+            ArrayList<Stop> endStops, int[] egressTimes, LocalDate serviceDay, int windowStart, int windowEnd) {
+        ArrayList<BusTransferResult> journeys = new ArrayList<BusTransferResult>();
+        TripPatterns patterns = graph.getTripPatterns();
+        long[] running = graph.getRunningPatternTrips(serviceDay);
+        int[] access = toStopTimes(startStops, accessTimes);
+        int[] egress = toStopTimes(endStops, egressTimes);
+        if (minimum(egress) == UNREACHED) {
+            return journeys;
+        }
+
+        int[] departures = collectDepartures(patterns, running, access, windowStart, windowEnd);
+
+        RoundLabels labels = new RoundLabels(graph.getStopCount(), maxTransfers + 1, patterns.getPatternCount());
+        long latestBestTotal = UNREACHED;
+        for (int i = departures.length - 1; i >= 0; i--) {
+            labelStartStops(labels, access, egress, departures[i], false);
+            runRounds(labels, patterns, running, egress);
+
+            // Only keep the journey if it beats every journey leaving later
+            if (labels.bestTotal < latestBestTotal) {
+                latestBestTotal = labels.bestTotal;
+                journeys.add(0, reconstructJourney(patterns, labels, startStops, endStops, departures[i]));
+            }
+        }
+        return journeys;
+    }
+
+    /**
+     * Lists the distinct moments to leave within a window at which a bus can be
+     * caught right on arrival at a start stop
+     *
+     * @param patterns    the route patterns
+     * @param running     the running pattern trips
+     * @param access      the walking time to every start stop, Integer.MAX_VALUE
+     *                    for other stops
+     * @param windowStart the start of the window in seconds of the day
+     * @param windowEnd   the end of the window in seconds of the day
+     * @return the departure times in ascending order
+     */
+    private int[] collectDepartures(TripPatterns patterns, long[] running, int[] access, int windowStart,
+            int windowEnd) {
+        int[] departures = new int[16];
+        int count = 0;
+        for (int stop = 0; stop < access.length; stop++) {
+            if (access[stop] == UNREACHED) {
+                continue;
+            }
+            for (int entry = patterns.getStopPatternStart(stop); entry < patterns.getStopPatternEnd(stop); entry++) {
+                int pattern = patterns.getStopPattern(entry);
+                int position = patterns.getStopPatternPosition(entry);
+                if (position == patterns.getPatternLength(pattern) - 1) {
+                    continue;
+                }
+                for (int trip = patterns.getTripStart(pattern); trip < patterns.getTripEnd(pattern); trip++) {
+                    if ((running[trip >>> 6] & (1L << trip)) == 0) {
+                        continue;
+                    }
+                    int departure = patterns.getDepartureTime(trip, position) - access[stop];
+                    if (departure >= windowStart && departure <= windowEnd) {
+                        if (count == departures.length) {
+                            departures = Arrays.copyOf(departures, count * 2);
+                        }
+                        departures[count++] = departure;
+                    }
+                }
+            }
+        }
+
+        // Sort and drop duplicates
+        departures = Arrays.copyOf(departures, count);
+        Arrays.sort(departures);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || departures[i] != departures[i - 1]) {
+                departures[distinct++] = departures[i];
+            }
+        }
+        return Arrays.copyOf(departures, distinct);
+    }
+
+    /**
+     * Retrieves the lowest of a list of times
+     *
+     * @param times the times
+     * @return the lowest time, Integer.MAX_VALUE if the list is empty
+     */
+    private int minimum(int[] times) {
+        int minimum = UNREACHED;
+        for (int time : times) {
+            minimum = Math.min(minimum, time);
+        }
+        return minimum;
+    }
+
+    /**
+     * Labels every start stop in round 0 at the time it is reached when leaving at
+     * the given time, and marks it for the first round
+     *
+     * @param labels    the labels of the search
+     * @param access    the walking time to every start stop, Integer.MAX_VALUE for
+     *                  other stops
+     * @param egress    the walking time from every end stop, Integer.MAX_VALUE for
+     *                  other stops
+     * @param startTime the time of leaving in seconds of the day
+     * @param walkOnly  whether a start stop that is also an end stop counts as a
+     *                  journey
+     */
+    private void labelStartStops(RoundLabels labels, int[] access, int[] egress, int startTime,
+            boolean walkOnly) {
+        for (int stop = 0; stop < access.length; stop++) {
+            if (access[stop] == UNREACHED) {
+                continue;
+            }
+
+            int arrivalTime = startTime + access[stop];
+            labels.arrival[stop] = arrivalTime;
+            labels.bestArrival[stop] = Math.min(labels.bestArrival[stop], arrivalTime);
+            labels.mark(stop);
+            if (walkOnly && egress[stop] != UNREACHED) {
+                labels.improveBestTotal(arrivalTime, egress[stop], stop, 0);
+            }
+        }
+    }
+
+    /**
+     * Runs the rounds from the marked stops until nothing improves or every
+     * allowed trip has been used. Labels left by an earlier run are kept wherever
+     * they are earlier
+     *
+     * @param labels   the labels of the search
+     * @param patterns the route patterns
+     * @param running  the running pattern trips, the only ones boarded
+     * @param egress   the walking time from every end stop, Integer.MAX_VALUE for
+     *                 other stops
+     */
+    private void runRounds(RoundLabels labels, TripPatterns patterns, long[] running, int[] egress) {
+        int stopCount = labels.bestArrival.length;
+        int minEgress = minimum(egress);
+        int[] arrival = labels.arrival;
+
+        for (int k = 1; k <= labels.rounds && labels.markedCount > 0; k++) {
+            int previousRound = (k - 1) * stopCount;
+            int round = k * stopCount;
+
+            // Using one more trip is never worse than the previous round
+            for (int stop = 0; stop < stopCount; stop++) {
+                if (arrival[previousRound + stop] < arrival[round + stop]) {
+                    arrival[round + stop] = arrival[previousRound + stop];
+                    labels.parentTrip[round + stop] = -1;
+                }
+            }
+
+            // Collect the patterns serving a marked stop, with the earliest marked position
+            int queuedCount = 0;
+            for (int i = 0; i < labels.markedCount; i++) {
+                int stop = labels.markedStops[i];
+                labels.marked[stop] = false;
+                for (int entry = patterns.getStopPatternStart(stop); entry < patterns
+                        .getStopPatternEnd(stop); entry++) {
+                    int pattern = patterns.getStopPattern(entry);
+                    int position = patterns.getStopPatternPosition(entry);
+                    if (labels.patternFrom[pattern] == -1) {
+                        labels.patternFrom[pattern] = position;
+                        labels.queuedPatterns[queuedCount++] = pattern;
+                    } else if (position < labels.patternFrom[pattern]) {
+                        labels.patternFrom[pattern] = position;
+                    }
+                }
+            }
+            labels.markedCount = 0;
+
+            // Scan every queued pattern from its earliest marked position
+            for (int i = 0; i < queuedCount; i++) {
+                int pattern = labels.queuedPatterns[i];
+                int length = patterns.getPatternLength(pattern);
+                int trip = -1;
+                int boardPosition = -1;
+
+                for (int position = labels.patternFrom[pattern]; position < length; position++) {
+                    int stop = patterns.getPatternStop(pattern, position);
+
+                    // Ride the current trip to this stop
+                    if (trip != -1) {
+                        int arrivalTime = patterns.getArrivalTime(trip, position);
+                        if (arrivalTime < labels.bestArrival[stop]
+                                && (long) arrivalTime + minEgress < labels.bestTotal) {
+                            arrival[round + stop] = arrivalTime;
+                            labels.bestArrival[stop] = arrivalTime;
+                            labels.parentTrip[round + stop] = trip;
+                            labels.parentBoardPosition[round + stop] = boardPosition;
+                            labels.parentAlightPosition[round + stop] = position;
+                            if (egress[stop] != UNREACHED) {
+                                labels.improveBestTotal(arrivalTime, egress[stop], stop, k);
+                            }
+                            labels.mark(stop);
+                        }
+                    }
+
+                    // Switch to an earlier trip if the previous round reached this stop in time
+                    int readyTime = arrival[previousRound + stop];
+                    if (readyTime != UNREACHED
+                            && (trip == -1 || readyTime <= patterns.getDepartureTime(trip, position))) {
+                        int earliestTrip = patterns.findEarliestTrip(pattern, position, readyTime, running);
+                        if (earliestTrip != -1 && (trip == -1 || earliestTrip < trip)) {
+                            trip = earliestTrip;
+                            boardPosition = position;
+                        }
+                    }
+                }
+
+                labels.patternFrom[pattern] = -1;
+            }
+        }
+
+        // Leave nothing marked for a next run
+        for (int i = 0; i < labels.markedCount; i++) {
+            labels.marked[labels.markedStops[i]] = false;
+        }
+        labels.markedCount = 0;
+    }
+
+    /**
+     * Follows the parent pointers back from the destination and lists every stop
+     * of the journey
+     *
+     * @param patterns      the route patterns
+     * @param labels        the labels of the search
+     * @param startStops    the stops the path may start at
+     * @param endStops      the stops the path may end at
+     * @param startTime     the time of departure from the origin in seconds since
+     *                      the start of the service day
+     * @return BusTransferResult containing the path details
+     */
+    private BusTransferResult reconstructJourney(TripPatterns patterns, RoundLabels labels,
+            ArrayList<Stop> startStops, ArrayList<Stop> endStops, int startTime) {
+        int stopCount = graph.getStopCount();
+        int target = labels.bestEndStop;
+        int arrivalTime = labels.arrival[labels.bestRound * stopCount + target];
+        Stop endStop = findStop(endStops, target);
+
+        ArrayList<PathTransferStop> pathStops = new ArrayList<PathTransferStop>();
+        String nextDepartureTime = null;
+        int stop = target;
+        int k = labels.bestRound;
+        while (k > 0) {
+            int label = k * stopCount + stop;
+            if (labels.parentTrip[label] == -1) {
+                k--;
+                continue;
+            }
+
+            int trip = labels.parentTrip[label];
+            nextDepartureTime = prependTripLeg(pathStops, patterns, trip, labels.parentBoardPosition[label],
+                    labels.parentAlightPosition[label], endStop, nextDepartureTime);
+
+            stop = patterns.getPatternStop(patterns.getTripPattern(trip), labels.parentBoardPosition[label]);
+            k--;
+        }
+
+        Stop startStop = findStop(startStops, stop);
+        pathStops.add(0, new PathTransferStop(startStop.getStopId(), startStop.getCoordinates(), null,
+                nextDepartureTime, null));
+
+        return new BusTransferResult(pathStops, LocalTime.ofSecondOfDay(startTime % SECONDS_PER_DAY),
+                LocalTime.ofSecondOfDay(arrivalTime % SECONDS_PER_DAY),
+                Duration.ofSeconds(labels.bestTotal - startTime));
+    }
+
+    /**
+     * Labels of one RAPTOR search, kept together so a profile search can run the
+     * rounds again on the same labels
+     */
+    private static class RoundLabels {
+
+        private final int rounds;
+
+        // arrival[k * stopCount + s] is the earliest arrival at s using at most k trips
+        private final int[] arrival;
+        private final int[] bestArrival;
+
+        // How every label of a round was reached: the pattern trip and the positions it
+        // was boarded and left at
+        private final int[] parentTrip;
+        private final int[] parentBoardPosition;
+        private final int[] parentAlightPosition;
+
+        // Stops improved in the last round and the patterns queued for the next one
+        private final boolean[] marked;
+        private final int[] markedStops;
+        private int markedCount;
+        private final int[] patternFrom;
+        private final int[] queuedPatterns;
+
+        // Best arrival at the destination over all end stops, walking included, and
+        // the label it was reached from
+        private long bestTotal;
+        private int bestEndStop;
+        private int bestRound;
+
+        /**
+         * Constructs empty labels
+         *
+         * @param stopCount    the number of stops
+         * @param rounds       the number of rounds
+         * @param patternCount the number of route patterns
+         */
+        private RoundLabels(int stopCount, int rounds, int patternCount) {
+            this.rounds = rounds;
+            arrival = new int[(rounds + 1) * stopCount];
+            Arrays.fill(arrival, UNREACHED);
+            bestArrival = new int[stopCount];
+            Arrays.fill(bestArrival, UNREACHED);
+
+            parentTrip = new int[(rounds + 1) * stopCount];
+            parentBoardPosition = new int[(rounds + 1) * stopCount];
+            parentAlightPosition = new int[(rounds + 1) * stopCount];
+            Arrays.fill(parentTrip, -1);
+
+            marked = new boolean[stopCount];
+            markedStops = new int[stopCount];
+            patternFrom = new int[patternCount];
+            Arrays.fill(patternFrom, -1);
+            queuedPatterns = new int[patternCount];
+
+            bestTotal = UNREACHED;
+        }
+
+        /**
+         * Records a new best arrival at the destination if it is earlier than the
+         * best so far
+         *
+         * @param arrivalTime the arrival time at the end stop
+         * @param egressTime  the walking time from the end stop to the destination
+         * @param endStop     the end stop
+         * @param round       the round of the label at the end stop
+         */
+        private void improveBestTotal(int arrivalTime, int egressTime, int endStop, int round) {
+            if ((long) arrivalTime + egressTime < bestTotal) {
+                bestTotal = (long) arrivalTime + egressTime;
+                bestEndStop = endStop;
+                bestRound = round;
+            }
+        }
+
+        /**
+         * Marks a stop for the next round
+         *
+         * @param stop the stop index
+         */
+        private void mark(int stop) {
+            if (!marked[stop]) {
+                marked[stop] = true;
+                markedStops[markedCount++] = stop;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.bcs05.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.bcs05.util.Transportation;
+import com.graphhopper.ResponsePath;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.GHPoint;
+
+/**
+ * Bounded cache of walking and cycling routes. Routes are keyed by the points
+ * their start and end snap to on the road network and by the mode of
+ * transportation, so every request snapping to the same two points shares one
+ * route. Only the travel time, the distance and the geometry are kept, the
+ * geometry as fixed-point coordinates taking 8 bytes per point. Once the cache
+ * is full the least recently used route is evicted
+ */
+public class RouteCache {
+
+    // Geometry is stored in millionths of a degree, about 0.1 meter
+    private static final double SCALE = 1e6;
+
+    private final int capacity;
+
+    // Routes in access order, the eldest being the least recently used
+    private final LinkedHashMap<Key, Leg> legs;
+
+    // Cache metrics
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Constructs an empty cache
+     *
+     * @param capacity the maximum number of routes
+     */
+    public RouteCache(int capacity) {
+        this.capacity = capacity;
+        legs = new LinkedHashMap<Key, Leg>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Leg> eldest) {
+                if (size() > RouteCache.this.capacity) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks up the route between two snapped points
+     *
+     * @param transportation the mode of transportation
+     * @param from           the snapped start
+     * @param to             the snapped end
+     * @return the route with its time, distance and points, or null if it is not
+     *         cached
+     */
+    public ResponsePath get(Transportation transportation, GHPoint from, GHPoint to) {
+        Leg leg;
+        synchronized (legs) {
+            leg = legs.get(new Key(transportation, from, to));
+        }
+        if (leg == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+
+        PointList points = new PointList(leg.points.length / 2, false);
+        for (int i = 0; i < leg.points.length; i += 2) {
+            points.add(leg.points[i] / SCALE, leg.points[i + 1] / SCALE);
+        }
+        ResponsePath path = new ResponsePath();
+        path.setTime(leg.time).setDistance(leg.distance).setPoints(points);
+        return path;
+    }
+
+    /**
+     * Stores the route between two snapped points, evicting the least recently
+     * used route if the cache is full
+     *
+     * @param transportation the mode of transportation
+     * @param from           the snapped start
+     * @param to             the snapped end
+     * @param path           the route
+     */
+    public void put(Transportation transportation, GHPoint from, GHPoint to, ResponsePath path) {
+        PointList points = path.getPoints();
+        int[] packedPoints = new int[points.size() * 2];
+        for (int i = 0; i < points.size(); i++) {
+            packedPoints[i * 2] = (int) Math.round(points.getLat(i) * SCALE);
+            packedPoints[i * 2 + 1] = (int) Math.round(points.getLon(i) * SCALE);
+        }
+
+        Leg leg = new Leg(path.getTime(), path.getDistance(), packedPoints);
+        synchronized (legs) {
+            legs.put(new Key(transportation, from, to), leg);
+        }
+    }
+
+    /**
+     * Removes all routes, keeping the metrics
+     */
+    public void clear() {
+        synchronized (legs) {
+            legs.clear();
+        }
+    }
+
+    /**
+     * Retrieves the maximum number of routes
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Retrieves the number of cached routes
+     *
+     * @return the number of routes
+     */
+    public int getSize() {
+        synchronized (legs) {
+            return legs.size();
+        }
+    }
+
+    /**
+     * Retrieves the number of lookups that found their route
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Retrieves the number of lookups that did not find their route
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Retrieves the number of routes evicted to make room for others
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Retrieves the share of lookups that found their route
+     *
+     * @return the hit rate between 0 and 1, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long lookups = getHitCount() + getMissCount();
+        return lookups == 0 ? 0 : (double) getHitCount() / lookups;
+    }
+
+    /**
+     * Summarises the cache metrics
+     *
+     * @return the metrics as one line of text
+     */
+    public String getStatistics() {
+        return "routes " + getSize() + "/" + capacity + ", hits " + getHitCount() + ", misses " + getMissCount()
+                + String.format(" (hit rate %.1f%%)", getHitRate() * 100) + ", evictions " + getEvictionCount();
+    }
+
+    /**
+     * Mode of transportation and snapped end points of a route
+     */
+    private static final class Key {
+
+        private final Transportation transportation;
+        private final double fromLatitude;
+        private final double fromLongitude;
+        private final double toLatitude;
+        private final double toLongitude;
+
+        /**
+         * Constructs a key
+         *
+         * @param transportation the mode of transportation
+         * @param from           the snapped start
+         * @param to             the snapped end
+         */
+        private Key(Transportation transportation, GHPoint from, GHPoint to) {
+            this.transportation = transportation;
+            this.fromLatitude = from.getLat();
+            this.fromLongitude = from.getLon();
+            this.toLatitude = to.getLat();
+            this.toLongitude = to.getLon();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return transportation == key.transportation && fromLatitude == key.fromLatitude
+                    && fromLongitude == key.fromLongitude && toLatitude == key.toLatitude
+                    && toLongitude == key.toLongitude;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = transportation.hashCode();
+            hash = 31 * hash + Double.hashCode(fromLatitude);
+            hash = 31 * hash + Double.hashCode(fromLongitude);
+            hash = 31 * hash + Double.hashCode(toLatitude);
+            hash = 31 * hash + Double.hashCode(toLongitude);
+            return hash;
+        }
+    }
+
+    /**
+     * Travel time, distance and packed geometry of a cached route
+     */
+    private static final class Leg {
+
+        private final long time;
+        private final double distance;
+
+        // Latitude and longitude of every point in millionths of a degree
+        private final int[] points;
+
+        /**
+         * Constructs a cached route
+         *
+         * @param time     the travel time in milliseconds
+         * @param distance the distance in meters
+         * @param points   the packed geometry
+         */
+        private Leg(long time, double distance, int[] points) {
+            this.time = time;
+            this.distance = distance;
+            this.points = points;
+        }
+    }
+
+}
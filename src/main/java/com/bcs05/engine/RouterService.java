@@ -0,0 +1,354 @@
+package com.bcs05.engine;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+
+import com.bcs05.util.Coordinates;
+import com.bcs05.util.Stop;
+import com.bcs05.util.Transportation;
+import com.bcs05.util.Utils;
+import com.graphhopper.GHRequest;
+import com.graphhopper.GHResponse;
+import com.graphhopper.GraphHopper;
+import com.graphhopper.ResponsePath;
+import com.graphhopper.config.CHProfile;
+import com.graphhopper.config.LMProfile;
+import com.graphhopper.config.Profile;
+import com.graphhopper.isochrone.algorithm.ShortestPathTree;
+import com.graphhopper.routing.ev.Subnetwork;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.util.DefaultSnapFilter;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.PMap;
+import com.graphhopper.util.shapes.GHPoint;
+
+/**
+ * Walking and cycling router shared by the whole process. The routing graph is
+ * imported or loaded once, with the foot and bike profiles, and every route is
+ * calculated on that one GraphHopper instance. GraphHopper answers requests on
+ * a loaded graph without changing it, so route may be called from any number of
+ * threads at once.
+ * <p>
+ * Both profiles are prepared with contraction hierarchies, which answer the
+ * plain point to point requests of route, and with landmarks, which speed up
+ * requests that disable contraction hierarchies to use flexible options. The
+ * preparations are stored with the routing graph, so they are only computed the
+ * first time the graph is loaded without them.
+ * <p>
+ * Routes are kept in a RouteCache keyed by the points their ends snap to, so
+ * walks that are asked for again, such as the walk of the chosen path after its
+ * time was used to compare candidates, skip GraphHopper
+ */
+public class RouterService {
+
+    private static final String OSM_FILE_PATH = "src/main/resources/Maastricht.osm.pbf";
+
+    // Location of the imported routing graph
+    private static final String GRAPH_LOCATION = "target/routing-graph-cache";
+
+    // Profiles of the routing graph, named after the transportation labels
+    private static final String[] PROFILES = { Transportation.FOOT.label, Transportation.BIKE.label };
+
+    // One-to-many searches explore up to this many times the straight-line
+    // distance to the farthest target, and at least MIN_SEARCH_DISTANCE meters
+    private static final double MAX_DETOUR = 3;
+    private static final double MIN_SEARCH_DISTANCE = 1000;
+
+    // Maximum number of routes in the cache
+    private static final int ROUTE_CACHE_SIZE = 20000;
+
+    private static RouterService instance;
+
+    private final GraphHopper hopper;
+
+    // Filter of the edges a point may snap to, per mode of transportation
+    private final EnumMap<Transportation, EdgeFilter> snapFilters = new EnumMap<Transportation, EdgeFilter>(
+            Transportation.class);
+
+    private final RouteCache routeCache = new RouteCache(ROUTE_CACHE_SIZE);
+
+    /**
+     * Imports the routing graph, or loads it if it was imported before, and
+     * prepares the speed-up structures that are missing
+     */
+    private RouterService() {
+        hopper = new GraphHopper();
+        hopper.setOSMFile(OSM_FILE_PATH);
+        hopper.setGraphHopperLocation(GRAPH_LOCATION);
+
+        hopper.setProfiles(new Profile(PROFILES[0]).setVehicle("foot").setTurnCosts(false),
+                new Profile(PROFILES[1]).setVehicle("bike").setTurnCosts(true));
+
+        // Contraction hierarchies for fixed requests, landmarks for flexible ones,
+        // the profiles being prepared in parallel
+        CHProfile[] chProfiles = new CHProfile[PROFILES.length];
+        LMProfile[] lmProfiles = new LMProfile[PROFILES.length];
+        for (int i = 0; i < PROFILES.length; i++) {
+            chProfiles[i] = new CHProfile(PROFILES[i]);
+            lmProfiles[i] = new LMProfile(PROFILES[i]);
+        }
+        hopper.getCHPreparationHandler().setCHProfiles(chProfiles).setPreparationThreads(PROFILES.length);
+        hopper.getLMPreparationHandler().setLMProfiles(lmProfiles).setPreparationThreads(PROFILES.length);
+
+        hopper.importOrLoad();
+
+        // Snap points the way GraphHopper does when routing
+        for (Transportation transportation : new Transportation[] { Transportation.FOOT, Transportation.BIKE }) {
+            Profile profile = hopper.getProfile(transportation.label);
+            snapFilters.put(transportation, new DefaultSnapFilter(hopper.createWeighting(profile, new PMap()),
+                    hopper.getEncodingManager().getBooleanEncodedValue(Subnetwork.key(profile.getName()))));
+        }
+    }
+
+    /**
+     * Retrieves the router, loading the routing graph on first use
+     *
+     * @return the router
+     */
+    public static synchronized RouterService getInstance() {
+        if (instance == null) {
+            instance = new RouterService();
+        }
+        return instance;
+    }
+
+    /**
+     * Retrieves the cache of routes
+     *
+     * @return the route cache
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    /**
+     * Calculates the best route between two coordinates, or takes it from the
+     * cache if a route between the same snapped points was calculated before. The
+     * route only holds its time, distance and points
+     *
+     * @param transportation the mode of transportation, foot or bike
+     * @param from           the starting coordinates
+     * @param to             the destination coordinates
+     * @return the best route
+     * @throws RuntimeException if no route can be calculated
+     */
+    public ResponsePath route(Transportation transportation, Coordinates from, Coordinates to) {
+        double fromLatitude = Double.parseDouble(from.getLatitude());
+        double fromLongitude = Double.parseDouble(from.getLongitude());
+        double toLatitude = Double.parseDouble(to.getLatitude());
+        double toLongitude = Double.parseDouble(to.getLongitude());
+
+        // Points that cannot be snapped are left to GraphHopper to report
+        GHPoint snappedFrom = snap(transportation, fromLatitude, fromLongitude);
+        GHPoint snappedTo = snap(transportation, toLatitude, toLongitude);
+        boolean cacheable = snappedFrom != null && snappedTo != null;
+        if (cacheable) {
+            ResponsePath cached = routeCache.get(transportation, snappedFrom, snappedTo);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        GHRequest request = new GHRequest(fromLatitude, fromLongitude, toLatitude, toLongitude)
+                .setProfile(transportation.label);
+
+        GHResponse response = hopper.route(request);
+        if (response.hasErrors()) {
+            throw new RuntimeException(response.getErrors().toString());
+        }
+        if (cacheable) {
+            routeCache.put(transportation, snappedFrom, snappedTo, response.getBest());
+        }
+        return response.getBest();
+    }
+
+    /**
+     * Finds the point of the road network a coordinate snaps to
+     *
+     * @param transportation the mode of transportation
+     * @param latitude       the latitude
+     * @param longitude      the longitude
+     * @return the snapped point, or null if no road is near
+     */
+    private GHPoint snap(Transportation transportation, double latitude, double longitude) {
+        EdgeFilter snapFilter = snapFilters.get(transportation);
+        if (snapFilter == null) {
+            return null;
+        }
+        Snap snap = hopper.getLocationIndex().findClosest(latitude, longitude, snapFilter);
+        if (!snap.isValid()) {
+            return null;
+        }
+        return snap.getSnappedPoint();
+    }
+
+    /**
+     * Calculates the travel time of the best route between two coordinates
+     *
+     * @param transportation the mode of transportation, foot or bike
+     * @param from           the starting coordinates
+     * @param to             the destination coordinates
+     * @return the travel time
+     * @throws RuntimeException if no route can be calculated
+     */
+    public Duration getTime(Transportation transportation, Coordinates from, Coordinates to) {
+        return Duration.ofMillis(route(transportation, from, to).getTime());
+    }
+
+    /**
+     * Calculates the length of the best route between two coordinates
+     *
+     * @param transportation the mode of transportation, foot or bike
+     * @param from           the starting coordinates
+     * @param to             the destination coordinates
+     * @return the distance in meters
+     * @throws RuntimeException if no route can be calculated
+     */
+    public double getDistance(Transportation transportation, Coordinates from, Coordinates to) {
+        return route(transportation, from, to).getDistance();
+    }
+
+    /**
+     * Retrieves the coordinates along the best route between two coordinates
+     *
+     * @param transportation the mode of transportation, foot or bike
+     * @param from           the starting coordinates
+     * @param to             the destination coordinates
+     * @return the coordinates in driving order
+     * @throws RuntimeException if no route can be calculated
+     */
+    public ArrayList<Coordinates> getPoints(Transportation transportation, Coordinates from, Coordinates to) {
+        return Utils.pointListToArrayList(route(transportation, from, to).getPoints());
+    }
+
+    /**
+     * Calculates the travel time from one point to each of a list of stops with a
+     * single shortest path tree search, see getTimesFromStops for the other
+     * direction
+     *
+     * @param transportation the mode of transportation, foot or bike
+     * @param origin         the starting coordinates
+     * @param stops          the stops to travel to
+     * @return the travel time in seconds to every stop, -1 for stops that cannot
+     *         be reached within the search bound
+     */
+    public int[] getTimesToStops(Transportation transportation, Coordinates origin, List<Stop> stops) {
+        return getTimes(transportation, origin, stops, false);
+    }
+
+    /**
+     * Calculates the travel time from each of a list of stops to one point with a
+     * single shortest path tree search, run backwards from the point
+     *
+     * @param transportation the mode of transportation, foot or bike
+     * @param stops          the stops to travel from
+     * @param destination    the destination coordinates
+     * @return the travel time in seconds from every stop, -1 for stops that cannot
+     *         reach the destination within the search bound
+     */
+    public int[] getTimesFromStops(Transportation transportation, List<Stop> stops, Coordinates destination) {
+        return getTimes(transportation, destination, stops, true);
+    }
+
+    /**
+     * Runs one shortest path tree search between a point and a list of stops. The
+     * point and all stops are snapped onto the road network together, so the
+     * times match those of point to point routes, and the search stops at
+     * MAX_DETOUR times the straight-line distance to the farthest stop. The tree
+     * does not count the time spent turning, so profiles with turn costs route
+     * every stop on its own instead
+     *
+     * @param transportation the mode of transportation, foot or bike
+     * @param point          the point the search starts at
+     * @param stops          the stops
+     * @param reverse        true to calculate the times from the stops to the point
+     * @return the travel time in seconds for every stop, -1 if not reached
+     */
+    private int[] getTimes(Transportation transportation, Coordinates point, List<Stop> stops, boolean reverse) {
+        int[] times = new int[stops.size()];
+        Arrays.fill(times, -1);
+
+        Profile profile = hopper.getProfile(transportation.label);
+        if (profile.isTurnCosts()) {
+            for (int i = 0; i < stops.size(); i++) {
+                Coordinates coordinates = stops.get(i).getCoordinates();
+                try {
+                    ResponsePath path = reverse ? route(transportation, coordinates, point)
+                            : route(transportation, point, coordinates);
+                    times[i] = (int) (path.getTime() / 1000);
+                } catch (RuntimeException e) {
+                    // The stop cannot be reached
+                }
+            }
+            return times;
+        }
+
+        Weighting weighting = hopper.createWeighting(profile, new PMap());
+        EdgeFilter snapFilter = snapFilters.get(transportation);
+        LocationIndex locationIndex = hopper.getLocationIndex();
+
+        double latitude = Double.parseDouble(point.getLatitude());
+        double longitude = Double.parseDouble(point.getLongitude());
+        Snap pointSnap = locationIndex.findClosest(latitude, longitude, snapFilter);
+        if (!pointSnap.isValid()) {
+            return times;
+        }
+
+        // Snap the stops, the farthest one bounds the search
+        ArrayList<Snap> snaps = new ArrayList<Snap>();
+        snaps.add(pointSnap);
+        Snap[] stopSnaps = new Snap[stops.size()];
+        double maxDistance = 0;
+        for (int i = 0; i < stops.size(); i++) {
+            Coordinates coordinates = stops.get(i).getCoordinates();
+            if (coordinates == null) {
+                continue;
+            }
+            double stopLatitude = Double.parseDouble(coordinates.getLatitude());
+            double stopLongitude = Double.parseDouble(coordinates.getLongitude());
+            Snap snap = locationIndex.findClosest(stopLatitude, stopLongitude, snapFilter);
+            if (snap.isValid()) {
+                stopSnaps[i] = snap;
+                snaps.add(snap);
+                maxDistance = Math.max(maxDistance, 1000
+                        * DistanceCalculator.calculateAerialDistance(latitude, longitude, stopLatitude, stopLongitude));
+            }
+        }
+
+        // The query graph moves every snap onto a node, virtual if it lies in the
+        // middle of an edge
+        QueryGraph queryGraph = QueryGraph.create(hopper.getBaseGraph(), snaps);
+        ShortestPathTree tree = new ShortestPathTree(queryGraph, queryGraph.wrapWeighting(weighting), reverse,
+                TraversalMode.NODE_BASED);
+        tree.setDistanceLimit(Math.max(MIN_SEARCH_DISTANCE, maxDistance * MAX_DETOUR));
+
+        // Time at every stop node
+        HashMap<Integer, Long> nodeTimes = new HashMap<Integer, Long>();
+        for (Snap snap : stopSnaps) {
+            if (snap != null) {
+                nodeTimes.put(snap.getClosestNode(), Long.MAX_VALUE);
+            }
+        }
+        tree.search(pointSnap.getClosestNode(), label -> {
+            if (nodeTimes.containsKey(label.node)) {
+                nodeTimes.merge(label.node, label.time, Math::min);
+            }
+        });
+
+        for (int i = 0; i < stops.size(); i++) {
+            if (stopSnaps[i] != null && nodeTimes.get(stopSnaps[i].getClosestNode()) != Long.MAX_VALUE) {
+                times[i] = (int) (nodeTimes.get(stopSnaps[i].getClosestNode()) / 1000);
+            }
+        }
+        return times;
+    }
+
+}
@@ -2,19 +2,20 @@ package com.bcs05.engine;
 
 import com.bcs05.util.Utils;
 import com.graphhopper.ResponsePath;
-import com.graphhopper.GraphHopper;
-import com.graphhopper.GHRequest;
-import com.graphhopper.GHResponse;
-import com.graphhopper.config.Profile;
 import com.bcs05.util.Coordinates;
+import com.bcs05.util.Stop;
 import com.bcs05.util.Transportation;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Routes between coordinates with one mode of transportation. Engines are cheap
+ * to create, they all route on the shared graph of RouterService
+ */
 public class RoutingEngine {
 
-    private static final String OSM_FILE_PATH = "src/main/resources/Maastricht.osm.pbf";
-    private GraphHopper hopper;
+    private RouterService router;
     private Transportation transportation;
 
     /**
@@ -23,30 +24,10 @@ public class RoutingEngine {
      * @param transportation The mode of transportation for routing.
      */
     public RoutingEngine(Transportation transportation) {
-        this.hopper = createGraphHopperInstance(OSM_FILE_PATH);
+        this.router = RouterService.getInstance();
         this.transportation = transportation;
     }
 
-    /**
-     * Represents a routing engine that uses the GraphHopper library for route
-     * calculation.
-     *
-     * @param ghLoc The location of the GraphHopper files.
-     * @return The initialized GraphHopper instance.
-     */
-    private GraphHopper createGraphHopperInstance(String ghLoc) {
-        GraphHopper hopper = new GraphHopper();
-        hopper.setOSMFile(ghLoc);
-        hopper.setGraphHopperLocation("target/routing-graph-cache");
-
-        hopper.setProfiles(new Profile("foot").setVehicle("foot").setTurnCosts(false),
-                new Profile("bike").setVehicle("bike").setTurnCosts(true));
-
-        hopper.importOrLoad();
-
-        return hopper;
-    }
-
     /**
      * Calculates the best route between two coordinates using GraphHopper.
      *
@@ -56,20 +37,7 @@ public class RoutingEngine {
      * @throws RuntimeException if the routing request encounters errors.
      */
     protected ResponsePath routing(Coordinates from, Coordinates to) {
-
-        // Create GraphHopper request
-        GHRequest request = new GHRequest(Double.valueOf(from.getLatitude()),
-                Double.valueOf(from.getLongitude()), Double.valueOf(to.getLatitude()),
-                Double.valueOf(to.getLongitude())).setProfile(transportation.label);
-
-        // Generate GraphHopper response
-        GHResponse response = hopper.route(request);
-
-        if (response.hasErrors()) {
-            throw new RuntimeException(response.getErrors().toString());
-        }
-
-        return response.getBest();
+        return router.route(transportation, from, to);
     }
 
     /**
@@ -110,4 +78,29 @@ public class RoutingEngine {
 
         return points;
     }
+
+    /**
+     * Calculates the travel time from one point to each of a list of stops in a
+     * single search.
+     *
+     * @param from  The starting coordinates.
+     * @param stops The stops to travel to.
+     * @return The travel time in seconds to every stop, -1 if it cannot be reached.
+     */
+    public int[] getTimesToStops(Coordinates from, List<Stop> stops) {
+        return router.getTimesToStops(transportation, from, stops);
+    }
+
+    /**
+     * Calculates the travel time from each of a list of stops to one point in a
+     * single search.
+     *
+     * @param stops The stops to travel from.
+     * @param to    The ending coordinates.
+     * @return The travel time in seconds from every stop, -1 if it cannot reach the
+     *         point.
+     */
+    public int[] getTimesFromStops(List<Stop> stops, Coordinates to) {
+        return router.getTimesFromStops(transportation, stops, to);
+    }
 }
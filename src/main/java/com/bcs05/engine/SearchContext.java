@@ -0,0 +1,211 @@
+package com.bcs05.engine;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread state of a stop-based graph search, stored in arrays indexed by
+ * stop. Every query starts a new epoch, so a label only counts when it was
+ * written during the current epoch and nothing has to be cleared between
+ * queries
+ */
+class SearchContext {
+
+    private static final ThreadLocal<SearchContext> CONTEXT = new ThreadLocal<SearchContext>();
+
+    private int epoch;
+
+    // Epoch in which the label of a stop was last written, in which it was settled
+    // and in which it was made an end stop
+    private int[] reachedEpoch;
+    private int[] settledEpoch;
+    private int[] endEpoch;
+
+    // Labels, only valid while reachedEpoch equals the current epoch
+    private int[] travelTime;
+    private int[] previous;
+    private int[] trip;
+    private int[] departure;
+
+    // Walking time from every end stop to the destination
+    private int[] egressTime;
+
+    // Queue of reached but unsettled stops
+    private IndexedHeap heap;
+
+    /**
+     * Constructs a search context for a graph with the given number of stops
+     *
+     * @param stopCount the number of stops
+     */
+    private SearchContext(int stopCount) {
+        reachedEpoch = new int[stopCount];
+        settledEpoch = new int[stopCount];
+        travelTime = new int[stopCount];
+        previous = new int[stopCount];
+        trip = new int[stopCount];
+        departure = new int[stopCount];
+        endEpoch = new int[stopCount];
+        egressTime = new int[stopCount];
+        heap = new IndexedHeap(stopCount);
+    }
+
+    /**
+     * Retrieves the search context of the calling thread and starts a new query on
+     * it. A new context is made when the thread has none yet or when the number of
+     * stops has changed
+     *
+     * @param stopCount the number of stops in the graph that is searched
+     * @return the reset search context
+     */
+    static SearchContext start(int stopCount) {
+        SearchContext context = CONTEXT.get();
+        if (context == null || context.reachedEpoch.length != stopCount) {
+            context = new SearchContext(stopCount);
+            CONTEXT.set(context);
+        }
+        context.reset();
+        return context;
+    }
+
+    /**
+     * Starts a new epoch, invalidating all labels
+     */
+    private void reset() {
+        heap.clear();
+        epoch++;
+
+        // Stamps from before the counter wrapped around could look current again
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(reachedEpoch, 0);
+            Arrays.fill(settledEpoch, 0);
+            Arrays.fill(endEpoch, 0);
+            epoch = 1;
+        }
+    }
+
+    /**
+     * Retrieves the queue of reached stops that are not settled yet, keyed by
+     * travel time
+     *
+     * @return the heap, empty at the start of a query
+     */
+    IndexedHeap getHeap() {
+        return heap;
+    }
+
+    /**
+     * Retrieves the travel time of a stop
+     *
+     * @param stop the stop index
+     * @return the travel time in seconds, Integer.MAX_VALUE if the stop has not
+     *         been reached
+     */
+    int getTravelTime(int stop) {
+        return reachedEpoch[stop] == epoch ? travelTime[stop] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Retrieves the stop a stop was reached from
+     *
+     * @param stop the stop index
+     * @return the previous stop index, -1 for a start stop or an unreached stop
+     */
+    int getPrevious(int stop) {
+        return reachedEpoch[stop] == epoch ? previous[stop] : -1;
+    }
+
+    /**
+     * Retrieves the trip a stop was reached with
+     *
+     * @param stop the stop index
+     * @return the trip index, -1 for a start stop or an unreached stop
+     */
+    int getTrip(int stop) {
+        return reachedEpoch[stop] == epoch ? trip[stop] : -1;
+    }
+
+    /**
+     * Retrieves the departure time from the previous stop of the trip a stop was
+     * reached with
+     *
+     * @param stop the stop index
+     * @return the departure time in seconds of the day, -1 for a start stop or an
+     *         unreached stop
+     */
+    int getDeparture(int stop) {
+        return reachedEpoch[stop] == epoch ? departure[stop] : -1;
+    }
+
+    /**
+     * Labels a stop that is reached on foot at the start of the search
+     *
+     * @param stop       the stop index
+     * @param travelTime the travel time in seconds
+     */
+    void setStart(int stop, int travelTime) {
+        setLabel(stop, travelTime, -1, -1, -1);
+    }
+
+    /**
+     * Labels a stop
+     *
+     * @param stop       the stop index
+     * @param travelTime the travel time in seconds
+     * @param previous   the stop it was reached from
+     * @param trip       the trip it was reached with
+     * @param departure  the departure time of that trip from the previous stop
+     */
+    void setLabel(int stop, int travelTime, int previous, int trip, int departure) {
+        reachedEpoch[stop] = epoch;
+        this.travelTime[stop] = travelTime;
+        this.previous[stop] = previous;
+        this.trip[stop] = trip;
+        this.departure[stop] = departure;
+    }
+
+    /**
+     * Checks whether a stop has been settled
+     *
+     * @param stop the stop index
+     * @return true if the stop has been settled in this query
+     */
+    boolean isSettled(int stop) {
+        return settledEpoch[stop] == epoch;
+    }
+
+    /**
+     * Marks a stop as settled
+     *
+     * @param stop the stop index
+     */
+    void settle(int stop) {
+        settledEpoch[stop] = epoch;
+    }
+
+    /**
+     * Makes a stop an end stop of the query. A stop given twice keeps its lowest
+     * walking time
+     *
+     * @param stop       the stop index
+     * @param egressTime the walking time from the stop to the destination in
+     *                   seconds
+     */
+    void addEndStop(int stop, int egressTime) {
+        if (endEpoch[stop] != epoch || egressTime < this.egressTime[stop]) {
+            endEpoch[stop] = epoch;
+            this.egressTime[stop] = egressTime;
+        }
+    }
+
+    /**
+     * Retrieves the walking time from a stop to the destination
+     *
+     * @param stop the stop index
+     * @return the walking time in seconds, Integer.MAX_VALUE if the stop is not
+     *         an end stop
+     */
+    int getEgressTime(int stop) {
+        return endEpoch[stop] == epoch ? egressTime[stop] : Integer.MAX_VALUE;
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.bcs05.util;
 
+import java.time.Duration;
 import java.time.LocalTime;
 import java.util.ArrayList;
 
@@ -8,9 +9,16 @@ public class BusTransferResult {
     // The list of stops in the transfer path
     private ArrayList<PathTransferStop> stops;
 
+    // The time the journey departs from the origin, null if unknown
+    private LocalTime departureTime;
+
     //The arrival time at the final stop
     private LocalTime arrivalTime;
 
+    // The time from leaving the origin until reaching the destination, walking
+    // included, null if unknown
+    private Duration travelTime;
+
     /**
      * Constructs a new BusTransferResult with the given stops and arrival time
      * 
@@ -22,6 +30,36 @@ public class BusTransferResult {
         this.arrivalTime = arrivalTime;
     }
 
+    /**
+     * Constructs a new BusTransferResult with the given stops, departure time and
+     * arrival time
+     * 
+     * @param stops the list of stops in the transfer path
+     * @param departureTime the time the journey departs from the origin
+     * @param arrivalTime the arrival time at the final stop
+     */
+    public BusTransferResult(ArrayList<PathTransferStop> stops, LocalTime departureTime, LocalTime arrivalTime) {
+        this.stops = stops;
+        this.departureTime = departureTime;
+        this.arrivalTime = arrivalTime;
+    }
+
+    /**
+     * Constructs a new BusTransferResult with the given stops, departure time,
+     * arrival time and total travel time
+     * 
+     * @param stops the list of stops in the transfer path
+     * @param departureTime the time the journey departs from the origin
+     * @param arrivalTime the arrival time at the final stop
+     * @param travelTime the time from leaving the origin until reaching the
+     *                   destination, walking included
+     */
+    public BusTransferResult(ArrayList<PathTransferStop> stops, LocalTime departureTime, LocalTime arrivalTime,
+            Duration travelTime) {
+        this(stops, departureTime, arrivalTime);
+        this.travelTime = travelTime;
+    }
+
     /**
      * Gets the list of stops in the transfer path
      * 
@@ -31,6 +69,16 @@ public class BusTransferResult {
         return stops;
     }
 
+    /**
+     * Gets the time the journey departs from the origin, before walking to the
+     * first stop
+     * 
+     * @return the departure time as a LocalTime object, or null if unknown
+     */
+    public LocalTime getDepartureTime() {
+        return departureTime;
+    }
+
     /**
      * Gets the arrival time at the final stop
      * 
@@ -39,4 +87,14 @@ public class BusTransferResult {
     public LocalTime getArrivalTime() {
         return arrivalTime;
     }
+
+    /**
+     * Gets the time from leaving the origin until reaching the destination,
+     * walking to and from the stops included
+     * 
+     * @return the travel time as a Duration object, or null if unknown
+     */
+    public Duration getTravelTime() {
+        return travelTime;
+    }
 }
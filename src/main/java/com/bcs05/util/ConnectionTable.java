@@ -0,0 +1,169 @@
+package com.bcs05.util;
+
+/**
+ * All elementary connections of the timetable (one bus driving from one stop to
+ * the next) in a single array sorted by departure time, as needed by the
+ * Connection Scan Algorithm. Every connection also knows the pattern trip it
+ * belongs to and its position in that trip, so journeys can be rebuilt from the
+ * route patterns
+ */
+public class ConnectionTable {
+
+    // Parallel connection arrays, ordered by departure time
+    private int[] departureTimes;
+    private int[] arrivalTimes;
+    private int[] fromStops;
+    private int[] toStops;
+    private int[] trips;
+    private int[] positions;
+
+    /**
+     * Builds the connection table from the route patterns of a graph
+     *
+     * @param patterns the route patterns
+     */
+    public ConnectionTable(TripPatterns patterns) {
+        int connectionCount = 0;
+        for (int p = 0; p < patterns.getPatternCount(); p++) {
+            connectionCount += (patterns.getPatternLength(p) - 1) * (patterns.getTripEnd(p) - patterns.getTripStart(p));
+        }
+
+        // Collect one connection per hop of every pattern trip
+        int[] departure = new int[connectionCount];
+        int[] arrival = new int[connectionCount];
+        int[] from = new int[connectionCount];
+        int[] to = new int[connectionCount];
+        int[] trip = new int[connectionCount];
+        int[] position = new int[connectionCount];
+        int maxTime = 0;
+        int maxLength = 0;
+        int c = 0;
+        for (int p = 0; p < patterns.getPatternCount(); p++) {
+            int length = patterns.getPatternLength(p);
+            maxLength = Math.max(maxLength, length);
+            for (int t = patterns.getTripStart(p); t < patterns.getTripEnd(p); t++) {
+                for (int i = 0; i < length - 1; i++) {
+                    departure[c] = patterns.getDepartureTime(t, i);
+                    arrival[c] = patterns.getArrivalTime(t, i + 1);
+                    from[c] = patterns.getPatternStop(p, i);
+                    to[c] = patterns.getPatternStop(p, i + 1);
+                    trip[c] = t;
+                    position[c] = i;
+                    maxTime = Math.max(maxTime, arrival[c]);
+                    c++;
+                }
+            }
+        }
+
+        // Sort by departure, then arrival, then position in the trip, so hops that
+        // take no time are still scanned in the order the bus drives them
+        int[] order = new int[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            order[i] = i;
+        }
+        order = GTFSGraphBuilder.sortByKey(order, position, maxLength);
+        order = GTFSGraphBuilder.sortByKey(order, arrival, maxTime + 1);
+        order = GTFSGraphBuilder.sortByKey(order, departure, maxTime + 1);
+
+        departureTimes = new int[connectionCount];
+        arrivalTimes = new int[connectionCount];
+        fromStops = new int[connectionCount];
+        toStops = new int[connectionCount];
+        trips = new int[connectionCount];
+        positions = new int[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            int source = order[i];
+            departureTimes[i] = departure[source];
+            arrivalTimes[i] = arrival[source];
+            fromStops[i] = from[source];
+            toStops[i] = to[source];
+            trips[i] = trip[source];
+            positions[i] = position[source];
+        }
+    }
+
+    /**
+     * Retrieves the number of connections
+     *
+     * @return the number of connections
+     */
+    public int getConnectionCount() {
+        return departureTimes.length;
+    }
+
+    /**
+     * Finds the first connection departing at or after the given time
+     *
+     * @param departureTime the time in seconds of the day
+     * @return the connection index, equal to the connection count if nothing
+     *         departs that late
+     */
+    public int findFirstConnection(int departureTime) {
+        int low = 0;
+        int high = departureTimes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (departureTimes[middle] < departureTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Retrieves the departure times of all connections, indexed by connection
+     *
+     * @return the departure times in seconds of the day
+     */
+    public int[] getDepartureTimes() {
+        return departureTimes;
+    }
+
+    /**
+     * Retrieves the arrival times of all connections, indexed by connection
+     *
+     * @return the arrival times in seconds of the day
+     */
+    public int[] getArrivalTimes() {
+        return arrivalTimes;
+    }
+
+    /**
+     * Retrieves the stops all connections depart from, indexed by connection
+     *
+     * @return the stop indices
+     */
+    public int[] getFromStops() {
+        return fromStops;
+    }
+
+    /**
+     * Retrieves the stops all connections arrive at, indexed by connection
+     *
+     * @return the stop indices
+     */
+    public int[] getToStops() {
+        return toStops;
+    }
+
+    /**
+     * Retrieves the pattern trips of all connections, indexed by connection
+     *
+     * @return the pattern trips, see TripPatterns
+     */
+    public int[] getTrips() {
+        return trips;
+    }
+
+    /**
+     * Retrieves the position of every connection in its pattern trip
+     *
+     * @return the pattern position of the stop each connection departs from
+     */
+    public int[] getPositions() {
+        return positions;
+    }
+
+}
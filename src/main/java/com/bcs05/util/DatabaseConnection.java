@@ -0,0 +1,318 @@
+package com.bcs05.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of connections to the GTFS database. The database is configured
+ * through the environment variables DB_HOST, DB_PORT, DB_NAME, DB_USER and
+ * DB_PASSWORD, and the pool through DB_POOL_SIZE and DB_POOL_TIMEOUT (seconds).
+ * Connections are handed out as wrappers whose close() returns the connection to
+ * the pool, so callers close them with try-with-resources as usual. Prepared
+ * statements are prepared on the server and cached per connection by the
+ * driver, so preparing the same SQL again is cheap
+ */
+public class DatabaseConnection {
+
+    private static final String HOST = getSetting("DB_HOST", "localhost");
+    private static final String PORT = getSetting("DB_PORT", "3306");
+    private static final String NAME = getSetting("DB_NAME", "gtfs");
+    private static final String USER = getSetting("DB_USER", "root");
+    private static final String PASSWORD = getSetting("DB_PASSWORD", "");
+
+    // Server side prepared statements, cached by the driver, and multi-row
+    // inserts for batches
+    private static final String URL = "jdbc:mysql://" + HOST + ":" + PORT + "/" + NAME
+            + "?useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=256&prepStmtCacheSqlLimit=8192"
+            + "&rewriteBatchedStatements=true";
+
+    private static final int POOL_SIZE = Integer.parseInt(getSetting("DB_POOL_SIZE", "8"));
+    private static final long TIMEOUT_SECONDS = Long.parseLong(getSetting("DB_POOL_TIMEOUT", "30"));
+
+    // Seconds a pooled connection gets to prove it is still alive
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    // One permit per connection that may be handed out
+    private static final Semaphore permits = new Semaphore(POOL_SIZE, true);
+
+    // Connections that were returned and can be handed out again
+    private static final ArrayDeque<Connection> idleConnections = new ArrayDeque<Connection>();
+
+    // Pool metrics
+    private static final AtomicLong acquiredCount = new AtomicLong();
+    private static final AtomicLong waitCount = new AtomicLong();
+    private static final AtomicLong waitNanos = new AtomicLong();
+    private static final AtomicLong maxWaitNanos = new AtomicLong();
+    private static final AtomicLong timeoutCount = new AtomicLong();
+    private static final AtomicLong createdCount = new AtomicLong();
+    private static final AtomicLong peakActiveCount = new AtomicLong();
+
+    private DatabaseConnection() {
+    }
+
+    /**
+     * Reads a setting from the environment
+     *
+     * @param name         the environment variable
+     * @param defaultValue the value used when the variable is not set
+     * @return the setting
+     */
+    private static String getSetting(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    /**
+     * Takes a connection from the pool, waiting while all connections are in use.
+     * The connection must be closed to return it to the pool
+     *
+     * @return the connection
+     * @throws SQLException if no connection becomes free in time or the database
+     *                      cannot be reached
+     */
+    public static Connection getConnection() throws SQLException {
+        // Wait for a free connection, counting the waits that were needed
+        if (!permits.tryAcquire()) {
+            waitCount.incrementAndGet();
+            long start = System.nanoTime();
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            long waited = System.nanoTime() - start;
+            waitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            if (!acquired) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("No database connection free after " + TIMEOUT_SECONDS + " seconds");
+            }
+        }
+
+        try {
+            Connection connection = takeIdleConnection();
+            if (connection == null) {
+                connection = DriverManager.getConnection(URL, USER, PASSWORD);
+                createdCount.incrementAndGet();
+            }
+            acquiredCount.incrementAndGet();
+            peakActiveCount.accumulateAndGet(getActiveCount(), Math::max);
+            return wrap(connection);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a live connection out of the idle connections, closing dead ones
+     *
+     * @return the connection, or null if there is no idle connection
+     */
+    private static Connection takeIdleConnection() {
+        while (true) {
+            Connection connection;
+            synchronized (idleConnections) {
+                connection = idleConnections.poll();
+            }
+            if (connection == null) {
+                return null;
+            }
+            try {
+                if (connection.isValid(VALIDATION_TIMEOUT)) {
+                    return connection;
+                }
+                connection.close();
+            } catch (SQLException e) {
+                // The connection is dropped either way
+            }
+        }
+    }
+
+    /**
+     * Puts a connection back into the pool. Unfinished transactions are rolled
+     * back, and a connection that cannot be reset is closed instead
+     *
+     * @param connection the connection
+     */
+    private static void release(Connection connection) {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            synchronized (idleConnections) {
+                idleConnections.push(connection);
+            }
+        } catch (SQLException e) {
+            try {
+                connection.close();
+            } catch (SQLException closeException) {
+                // The connection is dropped either way
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Wraps a connection so that closing it returns it to the pool. The wrapper
+     * can be closed once, after which it refuses all calls
+     *
+     * @param connection the pooled connection
+     * @return the wrapper
+     */
+    private static Connection wrap(Connection connection) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean closed;
+
+            @Override
+            public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!closed) {
+                            closed = true;
+                            release(connection);
+                        }
+                        return null;
+                    case "isClosed":
+                        return closed || connection.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled " + connection;
+                    default:
+                        if (closed) {
+                            throw new SQLException("Connection is closed");
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, handler);
+    }
+
+    /**
+     * Retrieves the maximum number of connections
+     *
+     * @return the pool size
+     */
+    public static int getPoolSize() {
+        return POOL_SIZE;
+    }
+
+    /**
+     * Retrieves the number of connections currently handed out
+     *
+     * @return the number of active connections
+     */
+    public static int getActiveCount() {
+        return POOL_SIZE - permits.availablePermits();
+    }
+
+    /**
+     * Retrieves the highest number of connections that were handed out at once
+     *
+     * @return the peak number of active connections
+     */
+    public static long getPeakActiveCount() {
+        return peakActiveCount.get();
+    }
+
+    /**
+     * Retrieves the number of open connections waiting in the pool
+     *
+     * @return the number of idle connections
+     */
+    public static int getIdleCount() {
+        synchronized (idleConnections) {
+            return idleConnections.size();
+        }
+    }
+
+    /**
+     * Retrieves the number of connections handed out so far
+     *
+     * @return the number of acquisitions
+     */
+    public static long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    /**
+     * Retrieves the number of physical connections opened so far
+     *
+     * @return the number of created connections
+     */
+    public static long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Retrieves the number of requests that found the pool saturated and had to
+     * wait
+     *
+     * @return the number of waits
+     */
+    public static long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /**
+     * Retrieves the total time requests waited for a connection
+     *
+     * @return the wait time in milliseconds
+     */
+    public static long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+    /**
+     * Retrieves the longest time a request waited for a connection
+     *
+     * @return the wait time in milliseconds
+     */
+    public static long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /**
+     * Retrieves the number of requests that gave up waiting for a connection
+     *
+     * @return the number of timeouts
+     */
+    public static long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Summarises the pool metrics
+     *
+     * @return the metrics as one line of text
+     */
+    public static String getStatistics() {
+        return "active " + getActiveCount() + "/" + POOL_SIZE + ", peak " + getPeakActiveCount() + ", idle "
+                + getIdleCount() + ", acquired " + getAcquiredCount() + ", created " + getCreatedCount()
+                + ", waits " + getWaitCount() + " (total " + getTotalWaitMillis() + " ms, max "
+                + getMaxWaitMillis() + " ms), timeouts " + getTimeoutCount();
+    }
+
+}
@@ -1,170 +1,1133 @@
 package com.bcs05.util;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDate;
 import java.time.LocalTime;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.bcs05.data.GTFSFeed;
+import com.bcs05.engine.DistanceCalculator;
+
+/**
+ * Timetable graph of the bus network. Stops and trips are numbered with int
+ * indices and the edges are stored in compressed sparse row form: the edges
+ * leaving stop s occupy the range [edgeStart[s], edgeStart[s + 1]) of the
+ * parallel edge arrays. Within that range the edges are grouped by the stop they
+ * arrive at and sorted by departure time, so the next departure towards a
+ * neighbour is found with a binary search. The graph holds the trips of every
+ * service day: times are seconds since the start of the service day, beyond 24
+ * hours for trips running past midnight, and the days each trip runs on are
+ * kept as one bitset per service, to be checked while searching.
+ * <p>
+ * A graph is never changed after it is published. Reloading builds a complete
+ * new graph in the background and swaps it in as a whole, so searches that
+ * already hold a graph finish on it while new searches get the new version
+ */
 public class GTFSGraph {
 
     public static void main(String[] args) {
-        GTFSGraph graph = new GTFSGraph();
+        GTFSGraph graph = createGraph();
         System.out.println("Graph created");
         // Check outgoing edges for 2577952
         Stop stop = new Stop("2577952");
-        LinkedList<GTFSWeightedEdge> edges = graph.adjacencyList.get(stop);
+        LinkedList<GTFSWeightedEdge> edges = graph.getNeighbours(stop, LocalTime.MIN);
         System.out.println("Outgoing edges for stop " + stop.getStopId() + ": ");
         for (GTFSWeightedEdge edge : edges) {
             System.out.println(edge.getStop().getStopId() + " " + edge.getDepartureTime() + " " + edge.getTravelTime());
         }
     }
 
-    private HashMap<Stop, LinkedList<GTFSWeightedEdge>> adjacencyList;
-    private static GTFSGraph instance;
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    // Number of service days whose running trips are kept
+    private static final int RUNNING_DAYS_KEPT = 8;
+
+    // Location of the binary snapshot of the graph
+    public static final String SNAPSHOT_FILE = "target/gtfs-graph.bin";
+
+    // The published graph, replaced as a whole by a reload
+    private static final AtomicReference<GTFSGraph> instance = new AtomicReference<GTFSGraph>();
+
+    // Version of the last published graph
+    private static final AtomicLong publishedVersion = new AtomicLong();
+
+    // Held while the first graph is loaded, so it is only loaded once
+    private static final Object initialLoadLock = new Object();
+
+    // Builds reloaded graphs in the background, one at a time
+    private static final ExecutorService reloader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gtfs-graph-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Reload that was requested but has not started yet, shared by every request
+    // made in the meantime
+    private static CompletableFuture<GTFSGraph> queuedReload;
+
+    // Version of this graph, counting up from 1 in the order graphs are published
+    private long version;
+
+    // Stop dictionary
+    private String[] stopIds;
+    private Stop[] stops;
+    private HashMap<String, Integer> stopIndices;
+
+    // Stop coordinates in degrees, NaN for stops without a location
+    private double[] stopLatitudes;
+    private double[] stopLongitudes;
+
+    // Highest straight-line speed of any edge in km per second, used as a bound on
+    // how fast the network can move a passenger
+    private double maxSpeed;
+
+    // Latest departure of any edge in seconds since the start of the service day
+    private int lastDepartureTime;
+
+    // Trip dictionary and the route of every trip, -1 if unknown
+    private String[] tripIds;
+    private int[] tripRoutes;
+
+    // Route dictionary
+    private String[] routeIds;
+
+    // Service dictionary and the service of every trip, -1 for trips that run
+    // every day
+    private String[] serviceIds;
+    private int[] tripServices;
+
+    // Days every service runs on, bit d of the serviceWords words of service s
+    // starting at serviceDays[s * serviceWords] is day firstServiceDay + d
+    private long firstServiceDay;
+    private int serviceWords;
+    private long[] serviceDays;
+
+    // Trips running on the days asked for lately, one bit per trip
+    private final ConcurrentHashMap<LocalDate, long[]> runningTrips = new ConcurrentHashMap<LocalDate, long[]>();
+
+    // Pattern trips running on the days asked for lately, one bit per pattern trip
+    private final ConcurrentHashMap<LocalDate, long[]> runningPatternTrips = new ConcurrentHashMap<LocalDate, long[]>();
+
+    // Edge ranges per stop, the edges of stop s are [edgeStart[s], edgeStart[s + 1])
+    private int[] edgeStart;
+
+    // Parallel edge arrays, times are in seconds of the day
+    private int[] edgeTarget;
+    private int[] edgeDeparture;
+    private int[] edgeArrival;
+    private int[] edgeTrip;
+
+    // Neighbour groups per stop, the groups of stop s are [neighbourStart[s], neighbourStart[s + 1])
+    private int[] neighbourStart;
+
+    // Edge ranges per neighbour group, the edges of group g are [neighbourEdgeStart[g], neighbourEdgeStart[g + 1])
+    private int[] neighbourEdgeStart;
+
+    // For every edge, the edge of its group arriving earliest among those departing at the same time or later
+    private int[] earliestArrivalEdge;
+
+    // Route patterns and connections, built on first use
+    private TripPatterns tripPatterns;
+    private ConnectionTable connectionTable;
+
+    // Spatial index of the stops, built on first use
+    private StopGrid stopGrid;
+
+    // Names of the stops and routes, built and stored with the graph
+    private TransitCatalogue catalogue;
 
     /**
-     * Creates an instance of GTFSGraph
+     * Creates an instance of GTFSGraph, replacing the current one
      */
     public static void createInstance() {
-        instance = new GTFSGraph();
+        publish(loadGraph(false));
     }
 
     /**
-     * Retrieves the instance of GTFSGraph
-     * 
+     * Retrieves the instance of GTFSGraph, loading it on first use. Searches
+     * should retrieve the graph once and use it throughout, so a reload cannot
+     * change the graph under them
+     *
      * @return the instance of GTFSGraph
      */
     public static GTFSGraph getInstance() {
-        if (instance == null) {
-            instance = new GTFSGraph();
+        GTFSGraph graph = instance.get();
+        if (graph == null) {
+            synchronized (initialLoadLock) {
+                graph = instance.get();
+                if (graph == null) {
+                    graph = loadGraph(false);
+                    publish(graph);
+                }
+            }
         }
-        return instance;
+        return graph;
     }
 
     /**
-     * Private Constructor to initialize the graph and populate the adjacency list using data from the database
+     * Checks whether a graph has been published
+     *
+     * @return true if getInstance returns without loading
      */
-    private GTFSGraph() {
-        adjacencyList = new HashMap<Stop, LinkedList<GTFSWeightedEdge>>();
-        createGraph();
+    public static boolean isLoaded() {
+        return instance.get() != null;
     }
 
     /**
-     * Creates the graph by populating the adjacency list from the timetable data in the database
+     * Loads the graph again in the background and publishes it once it is
+     * complete, including its route patterns, connections, stop grid and today's
+     * running trips. The shape cache is loaded again along with it. Searches
+     * keep using the current graph until then and are never blocked by the
+     * reload. Requests made before a queued reload starts share it. A graph
+     * without stops, which means the timetable could not be read, is not
+     * published
+     *
+     * @return the future new graph
      */
-    private void createGraph() {
+    public static CompletableFuture<GTFSGraph> reloadAsync() {
+        synchronized (instance) {
+            if (queuedReload != null) {
+                return queuedReload;
+            }
+            CompletableFuture<GTFSGraph> reload = new CompletableFuture<GTFSGraph>();
+            queuedReload = reload;
+            reloader.execute(() -> {
+                // Requests from now on need another reload to see later changes
+                synchronized (instance) {
+                    queuedReload = null;
+                }
+                try {
+                    GTFSGraph graph = loadGraph(true);
+                    if (graph.getStopCount() == 0 && instance.get() != null) {
+                        reload.completeExceptionally(new IllegalStateException(
+                                "The reloaded graph has no stops, keeping version " + instance.get().getVersion()));
+                        return;
+                    }
 
-        try {
-            // Get database connection
-            Connection connection = DatabaseConnection.getConnection();
-
-            // Query outgoing stops for each stop
-            String outGoingStopsSQL = """
-                    SELECT
-                    	from_stop_id, to_stop_id, departure_time, travel_time, trip_id
-                    FROM
-                    	timetable
-                    ORDER BY
-                    	from_stop_id, to_stop_id, departure_time, travel_time;
-                                        """;
-            PreparedStatement outGoingStopsStatement = connection.prepareStatement(outGoingStopsSQL);
-            ResultSet outGoingStops = outGoingStopsStatement.executeQuery();
-
-            // Populate adjacency list
-            while (outGoingStops.next()) {
-                String fromStopId = outGoingStops.getString("from_stop_id");
-                String toStopId = outGoingStops.getString("to_stop_id");
-                int travelTime = outGoingStops.getInt("travel_time");
-                LocalTime departureTime = outGoingStops.getTime("departure_time").toLocalTime();
-                LocalTime arrivalTime = departureTime.plusSeconds(travelTime);
-                String tripId = outGoingStops.getString("trip_id");
-
-                Stop fromStop = new Stop(fromStopId);
-                Stop toStop = new Stop(toStopId);
-
-                GTFSWeightedEdge edge = new GTFSWeightedEdge(tripId, toStop, departureTime, arrivalTime, travelTime);
-
-                if (!adjacencyList.containsKey(fromStop)) {
-                    adjacencyList.put(fromStop, new LinkedList<>());
+                    // Build everything searches use, so the first ones on the new
+                    // graph do not have to
+                    graph.getConnectionTable();
+                    graph.getStopGrid();
+                    graph.getRunningPatternTrips(LocalDate.now());
+                    ShapeCache.reload();
+
+                    publish(graph);
+                    reload.complete(graph);
+                } catch (RuntimeException e) {
+                    reload.completeExceptionally(e);
                 }
+            });
+            return reload;
+        }
+    }
 
-                adjacencyList.get(fromStop).add(edge);
+    /**
+     * Makes a graph the instance, numbering it with the next version
+     *
+     * @param graph the graph
+     */
+    private static void publish(GTFSGraph graph) {
+        synchronized (instance) {
+            graph.version = publishedVersion.incrementAndGet();
+            instance.set(graph);
+        }
+    }
+
+    /**
+     * Constructs a graph from packed arrays, see GTFSGraphBuilder
+     *
+     * @param stopIds             the stop id of every stop index
+     * @param stopLatitudes       the latitude of every stop, NaN if unknown
+     * @param stopLongitudes      the longitude of every stop, NaN if unknown
+     * @param tripIds             the trip id of every trip index
+     * @param tripRoutes          the route index of every trip, -1 if unknown
+     * @param routeIds            the route id of every route index
+     * @param tripServices        the service index of every trip, -1 if it runs
+     *                            every day
+     * @param serviceIds          the service id of every service index
+     * @param firstServiceDay     the epoch day of the first bit of every service
+     * @param serviceDays         the days every service runs on, the same number
+     *                            of words per service
+     * @param edgeStart           the first edge of every stop, with one extra entry
+     *                            marking the end of the last range
+     * @param edgeTarget          the stop index every edge arrives at
+     * @param edgeDeparture       the departure time of every edge in seconds since
+     *                            the start of the service day
+     * @param edgeArrival         the arrival time of every edge in seconds since
+     *                            the start of the service day
+     * @param edgeTrip            the trip index of every edge
+     * @param neighbourStart      the first neighbour group of every stop, with one
+     *                            extra entry marking the end of the last range
+     * @param neighbourEdgeStart  the first edge of every neighbour group, with one
+     *                            extra entry marking the end of the last range
+     * @param earliestArrivalEdge the earliest arriving edge of the group among the
+     *                            ones departing at the same time or later
+     */
+    GTFSGraph(String[] stopIds, double[] stopLatitudes, double[] stopLongitudes, String[] tripIds,
+            int[] tripRoutes, String[] routeIds, int[] tripServices, String[] serviceIds, long firstServiceDay,
+            long[] serviceDays, int[] edgeStart, int[] edgeTarget, int[] edgeDeparture, int[] edgeArrival,
+            int[] edgeTrip, int[] neighbourStart, int[] neighbourEdgeStart, int[] earliestArrivalEdge) {
+        this.stopIds = stopIds;
+        this.stopLatitudes = stopLatitudes;
+        this.stopLongitudes = stopLongitudes;
+        this.tripIds = tripIds;
+        this.tripRoutes = tripRoutes;
+        this.routeIds = routeIds;
+        this.tripServices = tripServices;
+        this.serviceIds = serviceIds;
+        this.firstServiceDay = firstServiceDay;
+        this.serviceWords = serviceIds.length == 0 ? 0 : serviceDays.length / serviceIds.length;
+        this.serviceDays = serviceDays;
+        this.edgeStart = edgeStart;
+        this.edgeTarget = edgeTarget;
+        this.edgeDeparture = edgeDeparture;
+        this.edgeArrival = edgeArrival;
+        this.edgeTrip = edgeTrip;
+        this.neighbourStart = neighbourStart;
+        this.neighbourEdgeStart = neighbourEdgeStart;
+        this.earliestArrivalEdge = earliestArrivalEdge;
+
+        stops = new Stop[stopIds.length];
+        stopIndices = new HashMap<String, Integer>();
+        for (int i = 0; i < stopIds.length; i++) {
+            stops[i] = new Stop(stopIds[i]);
+            stopIndices.put(stopIds[i], i);
+        }
+
+        maxSpeed = computeMaxSpeed();
+        for (int departure : edgeDeparture) {
+            lastDepartureTime = Math.max(lastDepartureTime, departure);
+        }
+    }
+
+    /**
+     * Computes the highest straight-line speed over all edges. An edge that covers
+     * a distance in no time makes the speed unbounded, and so does a stop without
+     * a location, as no distance can then be trusted
+     *
+     * @return the speed in km per second, Double.POSITIVE_INFINITY if it is
+     *         unbounded
+     */
+    private double computeMaxSpeed() {
+        for (int s = 0; s < stopIds.length; s++) {
+            if (Double.isNaN(stopLatitudes[s]) || Double.isNaN(stopLongitudes[s])) {
+                return Double.POSITIVE_INFINITY;
             }
+        }
 
-            addEndingStopsWithNoOutgoingEdges(connection);
+        double speed = 0;
+        for (int s = 0; s < stopIds.length; s++) {
+            for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+                double distance = getDistance(s, edgeTarget[e]);
+                int travelTime = edgeArrival[e] - edgeDeparture[e];
+                if (travelTime <= 0) {
+                    if (distance > 0) {
+                        return Double.POSITIVE_INFINITY;
+                    }
+                    continue;
+                }
+                speed = Math.max(speed, distance / travelTime);
+            }
+        }
+        return speed;
+    }
 
-            outGoingStops.close();
+    /**
+     * Loads the graph from the snapshot file if there is one, and otherwise
+     * creates it, from the GTFS zip if there is one and from the
+     * database if not, and stores a new snapshot. Only one graph is loaded at a
+     * time, as loads share the snapshot file
+     *
+     * @param reload true to read the GTFS zip again instead of using the feed read
+     *               before
+     * @return the graph
+     */
+    private static synchronized GTFSGraph loadGraph(boolean reload) {
+        File snapshotFile = new File(SNAPSHOT_FILE);
 
-        } catch (SQLException e) {
+        // A snapshot older than the GTFS zip does not hold its timetable
+        File feedFile = new File(GTFSFeed.FEED_FILE);
+        if (feedFile.isFile() && feedFile.lastModified() > snapshotFile.lastModified()) {
+            snapshotFile.delete();
+        }
+
+        GTFSGraph graph = null;
+        try {
+            graph = readSnapshot(snapshotFile);
+        } catch (IOException | RuntimeException e) {
+            // A damaged snapshot is rebuilt from the database
             e.printStackTrace();
         }
 
+        if (graph == null) {
+            GTFSFeed feed = reload ? GTFSFeed.reload() : GTFSFeed.getInstance();
+            graph = feed != null ? feed.getGraph() : createGraph();
+
+            // Do not keep an empty graph around when the database could not be read
+            if (graph.getStopCount() > 0) {
+                try {
+                    graph.writeSnapshot(snapshotFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Deletes the snapshot file, so the next graph is created from the database
+     * again. Needed whenever the timetable in the database changes
+     */
+    public static void deleteSnapshot() {
+        new File(SNAPSHOT_FILE).delete();
+    }
+
+    /**
+     * Writes the graph with its catalogue to a snapshot file, replacing the file
+     * once it is complete
+     *
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeSnapshot(File file) throws IOException {
+        GTFSGraphSnapshot snapshot = GTFSGraphSnapshot.create(file);
+        writeSnapshot(snapshot);
+        snapshot.close(file);
+    }
+
+    /**
+     * Reads a graph with its catalogue from a snapshot file
+     *
+     * @param file the snapshot file
+     * @return the graph, or null if the file does not exist or has another
+     *         format version
+     * @throws IOException if the file cannot be read
+     */
+    public static GTFSGraph readSnapshot(File file) throws IOException {
+        GTFSGraphSnapshot snapshot = GTFSGraphSnapshot.open(file);
+        return snapshot == null ? null : readSnapshot(snapshot);
+    }
+
+    /**
+     * Writes all graph arrays and the catalogue to a snapshot
+     *
+     * @param snapshot the snapshot opened for writing
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void writeSnapshot(GTFSGraphSnapshot snapshot) throws IOException {
+        snapshot.writeStrings(stopIds);
+        snapshot.writeDoubles(stopLatitudes);
+        snapshot.writeDoubles(stopLongitudes);
+        snapshot.writeStrings(tripIds);
+        snapshot.writeInts(tripRoutes);
+        snapshot.writeStrings(routeIds);
+        snapshot.writeInts(tripServices);
+        snapshot.writeStrings(serviceIds);
+        snapshot.writeLong(firstServiceDay);
+        snapshot.writeLongs(serviceDays);
+        snapshot.writeInts(edgeStart);
+        snapshot.writeInts(edgeTarget);
+        snapshot.writeInts(edgeDeparture);
+        snapshot.writeInts(edgeArrival);
+        snapshot.writeInts(edgeTrip);
+        snapshot.writeInts(neighbourStart);
+        snapshot.writeInts(neighbourEdgeStart);
+        snapshot.writeInts(earliestArrivalEdge);
+        catalogue.writeSnapshot(snapshot);
+    }
+
+    /**
+     * Reads a graph from a snapshot, in the order writeSnapshot stores it
+     *
+     * @param snapshot the snapshot opened for reading
+     * @return the graph
+     */
+    private static GTFSGraph readSnapshot(GTFSGraphSnapshot snapshot) {
+        GTFSGraph graph = new GTFSGraph(snapshot.readStrings(), snapshot.readDoubles(), snapshot.readDoubles(),
+                snapshot.readStrings(), snapshot.readInts(), snapshot.readStrings(), snapshot.readInts(),
+                snapshot.readStrings(), snapshot.readLong(), snapshot.readLongs(), snapshot.readInts(),
+                snapshot.readInts(), snapshot.readInts(), snapshot.readInts(), snapshot.readInts(),
+                snapshot.readInts(), snapshot.readInts(), snapshot.readInts());
+        graph.catalogue = TransitCatalogue.readSnapshot(graph, snapshot);
+        return graph;
     }
 
     /**
-     * Adds ending stops that do not have outgoing edges to the adjacency list
-     * 
-     * @param connection the database connection
-     * @throws SQLException if an error occurs with accessing the database
+     * Creates the graph from the timetable data in the database
+     *
+     * @return the graph, empty if the database could not be read
      */
-    private void addEndingStopsWithNoOutgoingEdges(Connection connection) throws SQLException {
-        // Get ending stops that don't have outgoing edges
-        String endingStopsSQL = """
-                SELECT DISTINCT
-                	to_stop_id
+    private static GTFSGraph createGraph() {
+        GTFSGraphBuilder builder = null;
+
+        // Query all edges of the timetable. The edges are sorted in memory while
+        // building, so the database does not have to sort them. The departure
+        // time is converted to seconds by the database
+        String outGoingStopsSQL = """
+                SELECT
+                	from_stop_id, to_stop_id, TIME_TO_SEC(departure_time), travel_time, trip_id
+                FROM
+                	timetable;
+                                    """;
+        String stopLocationsSQL = "SELECT stop_id, stop_name, stop_lat, stop_lon FROM stops;";
+        String tripRoutesSQL = "SELECT trip_id, route_id, service_id FROM trips;";
+        String routeNamesSQL = "SELECT route_id, route_short_name, route_long_name FROM routes;";
+
+        // Days every service runs on, as days since 1970-01-01. Exception type 2
+        // removes a service from a day
+        String serviceDaysSQL = """
+                SELECT
+                	service_id, DATEDIFF(date, '1970-01-01')
                 FROM
-                	timetable
+                	calendar_dates
                 WHERE
-                	to_stop_id NOT IN (SELECT DISTINCT from_stop_id FROM timetable);
-                                """;
-        PreparedStatement endingStopsStatement = connection.prepareStatement(endingStopsSQL);
-        ResultSet endingStops = endingStopsStatement.executeQuery();
-        while (endingStops.next()) {
-            Stop stop = new Stop(endingStops.getString("to_stop_id"));
-            adjacencyList.put(stop, new LinkedList<>());
+                	exception_type = 1;
+                                    """;
+
+        // Get database connection
+        try (Connection connection = DatabaseConnection.getConnection()) {
+
+            // Size the builder for the whole timetable up front
+            try (PreparedStatement edgeCountStatement = connection.prepareStatement("SELECT COUNT(*) FROM timetable;");
+                    ResultSet edgeCount = edgeCountStatement.executeQuery()) {
+                builder = new GTFSGraphBuilder(edgeCount.next() ? edgeCount.getInt(1) : 0);
+            }
+
+            try (PreparedStatement outGoingStopsStatement = connection.prepareStatement(outGoingStopsSQL,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+                // Stream the rows one by one instead of buffering the whole result set
+                // in the driver (MySQL Connector/J streaming mode)
+                outGoingStopsStatement.setFetchSize(Integer.MIN_VALUE);
+
+                // Every stop that appears in the timetable gets an index, including
+                // ending stops that do not have outgoing edges
+                try (ResultSet outGoingStops = outGoingStopsStatement.executeQuery()) {
+                    while (outGoingStops.next()) {
+                        int fromStop = builder.addStop(outGoingStops.getString(1));
+                        int toStop = builder.addStop(outGoingStops.getString(2));
+                        int departureTime = outGoingStops.getInt(3);
+                        int travelTime = outGoingStops.getInt(4);
+                        int trip = builder.addTrip(outGoingStops.getString(5));
+
+                        builder.addEdge(fromStop, toStop, departureTime, departureTime + travelTime, trip);
+                    }
+                }
+            }
+
+            // Query the location and name of every stop in the timetable
+            try (PreparedStatement stopLocationsStatement = connection.prepareStatement(stopLocationsSQL);
+                    ResultSet stopLocations = stopLocationsStatement.executeQuery()) {
+                while (stopLocations.next()) {
+                    int stop = builder.getStopIndex(stopLocations.getString("stop_id"));
+                    if (stop != -1) {
+                        builder.setStopCoordinates(stop, stopLocations.getDouble("stop_lat"),
+                                stopLocations.getDouble("stop_lon"));
+                        builder.setStopName(stop, stopLocations.getString("stop_name"));
+                    }
+                }
+            }
+
+            // Query the route and service of every trip in the timetable
+            try (PreparedStatement tripRoutesStatement = connection.prepareStatement(tripRoutesSQL);
+                    ResultSet tripRoutes = tripRoutesStatement.executeQuery()) {
+                while (tripRoutes.next()) {
+                    int trip = builder.getTripIndex(tripRoutes.getString("trip_id"));
+                    if (trip != -1) {
+                        builder.setTripRoute(trip, builder.addRoute(tripRoutes.getString("route_id")));
+                        builder.setTripService(trip, builder.addService(tripRoutes.getString("service_id")));
+                    }
+                }
+            }
+
+            // Query the names of every route in the timetable
+            try (PreparedStatement routeNamesStatement = connection.prepareStatement(routeNamesSQL);
+                    ResultSet routeNames = routeNamesStatement.executeQuery()) {
+                while (routeNames.next()) {
+                    int route = builder.getRouteIndex(routeNames.getString("route_id"));
+                    if (route != -1) {
+                        builder.setRouteNames(route, routeNames.getString("route_short_name"),
+                                routeNames.getString("route_long_name"));
+                    }
+                }
+            }
+
+            // Query the days of every service in the timetable
+            try (PreparedStatement serviceDaysStatement = connection.prepareStatement(serviceDaysSQL);
+                    ResultSet serviceDays = serviceDaysStatement.executeQuery()) {
+                while (serviceDays.next()) {
+                    int service = builder.getServiceIndex(serviceDays.getString(1));
+                    if (service != -1) {
+                        builder.addServiceDay(service, LocalDate.ofEpochDay(serviceDays.getLong(2)));
+                    }
+                }
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
+
+        if (builder == null) {
+            builder = new GTFSGraphBuilder();
+        }
+        return builder.build();
     }
 
     /**
      * Retrieves all stops in the graph
-     * 
+     *
      * @return a LinkedList of all stops in the graph
      */
     public LinkedList<Stop> getStops() {
-        return new LinkedList<Stop>(adjacencyList.keySet());
+        LinkedList<Stop> allStops = new LinkedList<Stop>();
+        for (Stop stop : stops) {
+            allStops.add(stop);
+        }
+        return allStops;
+    }
+
+    /**
+     * Retrieves the version of the graph
+     *
+     * @return the version, 0 if the graph was never published
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the route patterns of the graph, building them on first use
+     *
+     * @return the route patterns
+     */
+    public synchronized TripPatterns getTripPatterns() {
+        if (tripPatterns == null) {
+            tripPatterns = new TripPatterns(this);
+        }
+        return tripPatterns;
+    }
+
+    /**
+     * Retrieves the departure-sorted connections of the graph, building them on
+     * first use
+     *
+     * @return the connection table
+     */
+    public synchronized ConnectionTable getConnectionTable() {
+        if (connectionTable == null) {
+            connectionTable = new ConnectionTable(getTripPatterns());
+        }
+        return connectionTable;
+    }
+
+    /**
+     * Retrieves the spatial index of the stops, building it on first use
+     *
+     * @return the stop grid
+     */
+    public synchronized StopGrid getStopGrid() {
+        if (stopGrid == null) {
+            stopGrid = new StopGrid(this);
+        }
+        return stopGrid;
+    }
+
+    /**
+     * Retrieves the names of the stops and routes
+     *
+     * @return the catalogue
+     */
+    public TransitCatalogue getCatalogue() {
+        return catalogue;
+    }
+
+    /**
+     * Sets the names of the stops and routes, see GTFSGraphBuilder
+     *
+     * @param catalogue the catalogue
+     */
+    void setCatalogue(TransitCatalogue catalogue) {
+        this.catalogue = catalogue;
+    }
+
+    /**
+     * Retrieves the number of stops in the graph
+     *
+     * @return the number of stops
+     */
+    public int getStopCount() {
+        return stops.length;
+    }
+
+    /**
+     * Retrieves the index of a stop
+     *
+     * @param stopId the stop id
+     * @return the index of the stop, or -1 if the stop is not in the graph
+     */
+    public int getStopIndex(String stopId) {
+        Integer index = stopIndices.get(stopId);
+        return index == null ? -1 : index;
     }
 
     /**
-     * Retrieves neighbouring edges (departures) from a given stop and departure time
-     * 
+     * Retrieves the stop with the given index
+     *
+     * @param index the stop index
+     * @return the stop
+     */
+    public Stop getStop(int index) {
+        return stops[index];
+    }
+
+    /**
+     * Retrieves the latitude of a stop
+     *
+     * @param index the stop index
+     * @return the latitude in degrees, NaN if the stop has no location
+     */
+    public double getStopLatitude(int index) {
+        return stopLatitudes[index];
+    }
+
+    /**
+     * Retrieves the longitude of a stop
+     *
+     * @param index the stop index
+     * @return the longitude in degrees, NaN if the stop has no location
+     */
+    public double getStopLongitude(int index) {
+        return stopLongitudes[index];
+    }
+
+    /**
+     * Calculates the straight-line distance between two stops
+     *
+     * @param from the index of the first stop
+     * @param to   the index of the second stop
+     * @return the distance in km
+     */
+    public double getDistance(int from, int to) {
+        return DistanceCalculator.calculateAerialDistance(stopLatitudes[from], stopLongitudes[from],
+                stopLatitudes[to], stopLongitudes[to]);
+    }
+
+    /**
+     * Retrieves the highest straight-line speed of any edge. No journey through
+     * the network can cover a distance faster than this
+     *
+     * @return the speed in km per second, Double.POSITIVE_INFINITY if no bound is
+     *         known
+     */
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * Retrieves the latest departure of any edge. A search starting later on a
+     * service day cannot board any bus of that day
+     *
+     * @return the departure time in seconds since the start of the service day,
+     *         0 if the graph has no edges
+     */
+    public int getLastDepartureTime() {
+        return lastDepartureTime;
+    }
+
+    /**
+     * Retrieves the number of trips in the graph
+     *
+     * @return the number of trips
+     */
+    public int getTripCount() {
+        return tripIds.length;
+    }
+
+    /**
+     * Retrieves the trip id of a trip index
+     *
+     * @param trip the trip index
+     * @return the trip id
+     */
+    public String getTripId(int trip) {
+        return tripIds[trip];
+    }
+
+    /**
+     * Retrieves the route a trip belongs to
+     *
+     * @param trip the trip index
+     * @return the route index, -1 if unknown
+     */
+    public int getTripRoute(int trip) {
+        return tripRoutes[trip];
+    }
+
+    /**
+     * Retrieves the number of routes in the graph
+     *
+     * @return the number of routes
+     */
+    public int getRouteCount() {
+        return routeIds.length;
+    }
+
+    /**
+     * Retrieves the route id of a route index
+     *
+     * @param route the route index
+     * @return the route id
+     */
+    public String getRouteId(int route) {
+        return routeIds[route];
+    }
+
+    /**
+     * Retrieves the number of services in the graph
+     *
+     * @return the number of services
+     */
+    public int getServiceCount() {
+        return serviceIds.length;
+    }
+
+    /**
+     * Retrieves the id of a service
+     *
+     * @param service the service index
+     * @return the service id
+     */
+    public String getServiceId(int service) {
+        return serviceIds[service];
+    }
+
+    /**
+     * Retrieves the service of a trip
+     *
+     * @param trip the trip index
+     * @return the service index, -1 if the trip runs every day
+     */
+    public int getTripService(int trip) {
+        return tripServices[trip];
+    }
+
+    /**
+     * Checks whether a service runs on a day
+     *
+     * @param service the service index
+     * @param day     the service day
+     * @return true if the service runs on the day
+     */
+    public boolean isServiceRunning(int service, LocalDate day) {
+        long offset = day.toEpochDay() - firstServiceDay;
+        if (offset < 0 || offset >= (long) serviceWords << 6) {
+            return false;
+        }
+        return (serviceDays[service * serviceWords + (int) (offset >>> 6)] & (1L << offset)) != 0;
+    }
+
+    /**
+     * Checks whether a trip runs on a day
+     *
+     * @param trip the trip index
+     * @param day  the service day
+     * @return true if the trip runs on the day
+     */
+    public boolean isTripRunning(int trip, LocalDate day) {
+        return tripServices[trip] == -1 || isServiceRunning(tripServices[trip], day);
+    }
+
+    /**
+     * Retrieves the trips running on a service day as a bitset, bit t of word
+     * t / 64 being set if trip t runs. The sets of the last RUNNING_DAYS_KEPT days
+     * asked for are kept, so searches alternating between days share them. The
+     * returned array must not be changed
+     *
+     * @param day the service day
+     * @return the running trips
+     */
+    public long[] getRunningTrips(LocalDate day) {
+        long[] running = runningTrips.get(day);
+        if (running == null) {
+            running = new long[(tripIds.length + 63) >>> 6];
+            for (int trip = 0; trip < tripIds.length; trip++) {
+                if (isTripRunning(trip, day)) {
+                    running[trip >>> 6] |= 1L << trip;
+                }
+            }
+            running = keepRunningSet(runningTrips, day, running);
+        }
+        return running;
+    }
+
+    /**
+     * Retrieves the pattern trips running on a service day, see
+     * TripPatterns.getRunningPatternTrips. The sets of the last RUNNING_DAYS_KEPT
+     * days asked for are kept. The returned array must not be changed
+     *
+     * @param day the service day
+     * @return the running pattern trips
+     */
+    public long[] getRunningPatternTrips(LocalDate day) {
+        long[] running = runningPatternTrips.get(day);
+        if (running == null) {
+            running = keepRunningSet(runningPatternTrips, day,
+                    getTripPatterns().getRunningPatternTrips(getRunningTrips(day)));
+        }
+        return running;
+    }
+
+    /**
+     * Keeps the running set of a day, dropping the kept day furthest from it when
+     * RUNNING_DAYS_KEPT days are kept already. Sets are computed without a lock,
+     * so another search may have kept a set for the day in the meantime
+     *
+     * @param sets    the kept sets by day
+     * @param day     the service day
+     * @param running the running set of the day
+     * @return the set kept for the day
+     */
+    private static long[] keepRunningSet(ConcurrentHashMap<LocalDate, long[]> sets, LocalDate day, long[] running) {
+        if (sets.size() >= RUNNING_DAYS_KEPT) {
+            LocalDate furthestDay = null;
+            long furthestDistance = -1;
+            for (LocalDate keptDay : sets.keySet()) {
+                long distance = Math.abs(keptDay.toEpochDay() - day.toEpochDay());
+                if (distance > furthestDistance) {
+                    furthestDay = keptDay;
+                    furthestDistance = distance;
+                }
+            }
+            if (furthestDay != null) {
+                sets.remove(furthestDay);
+            }
+        }
+        long[] kept = sets.putIfAbsent(day, running);
+        return kept == null ? running : kept;
+    }
+
+    /**
+     * Retrieves the number of edges in the graph
+     *
+     * @return the number of edges
+     */
+    public int getEdgeCount() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * Retrieves the first edge leaving a stop
+     *
+     * @param stop the stop index
+     * @return the index of the first edge leaving the stop
+     */
+    public int getEdgeStart(int stop) {
+        return edgeStart[stop];
+    }
+
+    /**
+     * Retrieves the end of the edge range of a stop
+     *
+     * @param stop the stop index
+     * @return the index after the last edge leaving the stop
+     */
+    public int getEdgeEnd(int stop) {
+        return edgeStart[stop + 1];
+    }
+
+    /**
+     * Retrieves the stop an edge arrives at
+     *
+     * @param edge the edge index
+     * @return the index of the stop the edge arrives at
+     */
+    public int getEdgeTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    /**
+     * Retrieves the departure time of an edge
+     *
+     * @param edge the edge index
+     * @return the departure time in seconds since the start of the service day
+     */
+    public int getEdgeDeparture(int edge) {
+        return edgeDeparture[edge];
+    }
+
+    /**
+     * Retrieves the arrival time of an edge
+     *
+     * @param edge the edge index
+     * @return the arrival time in seconds since the start of the service day
+     */
+    public int getEdgeArrival(int edge) {
+        return edgeArrival[edge];
+    }
+
+    /**
+     * Retrieves the trip of an edge
+     *
+     * @param edge the edge index
+     * @return the trip index
+     */
+    public int getEdgeTrip(int edge) {
+        return edgeTrip[edge];
+    }
+
+    /**
+     * Retrieves the first neighbour group of a stop. Every neighbour group holds
+     * the edges towards one neighbouring stop
+     *
+     * @param stop the stop index
+     * @return the index of the first neighbour group of the stop
+     */
+    public int getNeighbourStart(int stop) {
+        return neighbourStart[stop];
+    }
+
+    /**
+     * Retrieves the end of the neighbour group range of a stop
+     *
+     * @param stop the stop index
+     * @return the index after the last neighbour group of the stop
+     */
+    public int getNeighbourEnd(int stop) {
+        return neighbourStart[stop + 1];
+    }
+
+    /**
+     * Retrieves the stop the edges of a neighbour group arrive at
+     *
+     * @param group the neighbour group index
+     * @return the index of the neighbouring stop
+     */
+    public int getNeighbourStop(int group) {
+        return edgeTarget[neighbourEdgeStart[group]];
+    }
+
+    /**
+     * Finds the edge of a neighbour group that arrives earliest at the
+     * neighbouring stop when departing at or after the given time
+     *
+     * @param group         the neighbour group index
+     * @param departureTime the earliest departure time in seconds since the start
+     *                      of the service day
+     * @return the edge index, or -1 if nothing departs at or after the given time
+     */
+    public int findEarliestArrivalEdge(int group, int departureTime) {
+        // Binary search for the first departure at or after the given time
+        int low = neighbourEdgeStart[group];
+        int high = neighbourEdgeStart[group + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (edgeDeparture[middle] < departureTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        if (low == neighbourEdgeStart[group + 1]) {
+            return -1;
+        }
+        return earliestArrivalEdge[low];
+    }
+
+    /**
+     * Finds the edge of a neighbour group that arrives earliest at the
+     * neighbouring stop when departing at or after the given time, using only the
+     * trips in a set of running trips. The departures are scanned from the given
+     * time until they leave after the earliest arrival found, as no later edge can
+     * arrive before that
+     *
+     * @param group         the neighbour group index
+     * @param departureTime the earliest departure time in seconds since the start
+     *                      of the service day
+     * @param runningTrips  the running trips, see getRunningTrips
+     * @return the edge index, or -1 if no running trip departs at or after the
+     *         given time
+     */
+    public int findEarliestArrivalEdge(int group, int departureTime, long[] runningTrips) {
+        int edge = findEarliestArrivalEdge(group, departureTime);
+        if (edge == -1 || (runningTrips[edgeTrip[edge] >>> 6] & (1L << edgeTrip[edge])) != 0) {
+            return edge;
+        }
+
+        // Binary search for the first departure at or after the given time
+        int low = neighbourEdgeStart[group];
+        int end = neighbourEdgeStart[group + 1];
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (edgeDeparture[middle] < departureTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        int best = -1;
+        for (int e = low; e < end && (best == -1 || edgeDeparture[e] < edgeArrival[best]); e++) {
+            if ((runningTrips[edgeTrip[e] >>> 6] & (1L << edgeTrip[e])) != 0
+                    && (best == -1 || edgeArrival[e] < edgeArrival[best])) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Retrieves neighbouring edges (departures) from a given stop and departure
+     * time, using the trips running today
+     *
      * @param stop the stop to find the neighbours for
      * @param departureTime the departure time from the stop
      * @return a LinkedList of GTFSWeightedEdge representing neighbouring edges
      */
     public LinkedList<GTFSWeightedEdge> getNeighbours(Stop stop, LocalTime departureTime) {
         LinkedList<GTFSWeightedEdge> neighbours = new LinkedList<GTFSWeightedEdge>();
-        LinkedList<GTFSWeightedEdge> edges = adjacencyList.get(stop);
 
-        // sort edges by arrival time
-        edges.sort((GTFSWeightedEdge e1, GTFSWeightedEdge e2) -> e1.getArrivalTime().compareTo(e2.getArrivalTime()));
-
-        if (edges == null || edges.isEmpty()) {
+        int stopIndex = getStopIndex(stop.getStopId());
+        if (stopIndex == -1) {
             return neighbours;
         }
 
-        ArrayList<Stop> stopsUsed = new ArrayList<Stop>();
-        for (GTFSWeightedEdge edge : edges) {
-            if (!edge.getDepartureTime().isBefore(departureTime) && !stopsUsed.contains(edge.getStop())) {
-                neighbours.add(edge);
-                stopsUsed.add(edge.getStop());
+        int time = departureTime.toSecondOfDay();
+        long[] running = getRunningTrips(LocalDate.now());
+        for (int group = neighbourStart[stopIndex]; group < neighbourStart[stopIndex + 1]; group++) {
+            int edge = findEarliestArrivalEdge(group, time, running);
+            if (edge != -1) {
+                neighbours.add(toWeightedEdge(edge));
             }
         }
 
         return neighbours;
     }
 
+    /**
+     * Converts an edge index into a GTFSWeightedEdge
+     *
+     * @param edge the edge index
+     * @return the weighted edge
+     */
+    private GTFSWeightedEdge toWeightedEdge(int edge) {
+        return new GTFSWeightedEdge(tripIds[edgeTrip[edge]], stops[edgeTarget[edge]],
+                LocalTime.ofSecondOfDay(edgeDeparture[edge] % SECONDS_PER_DAY), LocalTime.ofSecondOfDay(edgeArrival[edge] % SECONDS_PER_DAY),
+                edgeArrival[edge] - edgeDeparture[edge]);
+    }
+
 }
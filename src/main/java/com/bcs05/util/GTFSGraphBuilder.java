@@ -0,0 +1,536 @@
+package com.bcs05.util;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Collects stops, trips and timetable edges and packs them into the compact
+ * array layout used by GTFSGraph
+ */
+public class GTFSGraphBuilder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Width of the target, departure and position fields when sorting packed edges
+    private static final int PACKED_BITS = 21;
+    private static final int PACKED_MASK = (1 << PACKED_BITS) - 1;
+
+    // Stop dictionary
+    private HashMap<String, Integer> stopIndices;
+    private String[] stopIds;
+    private int stopCount;
+
+    // Stop coordinates in degrees, NaN until they are set
+    private double[] stopLatitudes;
+    private double[] stopLongitudes;
+
+    // Stop names, null until they are set
+    private String[] stopNames;
+
+    // Trip dictionary and the route and service of every trip, -1 until they are set
+    private HashMap<String, Integer> tripIndices;
+    private String[] tripIds;
+    private int[] tripRoutes;
+    private int[] tripServices;
+    private int tripCount;
+
+    // Service dictionary and the days every service runs, as (service, epoch day) pairs
+    private HashMap<String, Integer> serviceIndices;
+    private String[] serviceIds;
+    private int serviceCount;
+    private int[] serviceDayService;
+    private long[] serviceDayDate;
+    private int serviceDayCount;
+
+    // Route dictionary and the names of every route, null until they are set
+    private HashMap<String, Integer> routeIndices;
+    private String[] routeIds;
+    private String[] routeShortNames;
+    private String[] routeLongNames;
+    private int routeCount;
+
+    // Edges in insertion order, stored as parallel primitive arrays
+    private int[] edgeSource;
+    private int[] edgeTarget;
+    private int[] edgeDeparture;
+    private int[] edgeArrival;
+    private int[] edgeTrip;
+    private int edgeCount;
+
+    /**
+     * Constructs an empty builder
+     */
+    public GTFSGraphBuilder() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty builder with room for a known number of edges, so the
+     * edge arrays never have to grow
+     *
+     * @param edgeCapacity the expected number of edges
+     */
+    public GTFSGraphBuilder(int edgeCapacity) {
+        edgeCapacity = Math.max(edgeCapacity, 1);
+        stopIndices = new HashMap<String, Integer>();
+        stopIds = new String[INITIAL_CAPACITY];
+        stopLatitudes = new double[INITIAL_CAPACITY];
+        stopLongitudes = new double[INITIAL_CAPACITY];
+        Arrays.fill(stopLatitudes, Double.NaN);
+        Arrays.fill(stopLongitudes, Double.NaN);
+        stopNames = new String[INITIAL_CAPACITY];
+        tripIndices = new HashMap<String, Integer>();
+        tripIds = new String[INITIAL_CAPACITY];
+        tripRoutes = new int[INITIAL_CAPACITY];
+        tripServices = new int[INITIAL_CAPACITY];
+        serviceIndices = new HashMap<String, Integer>();
+        serviceIds = new String[INITIAL_CAPACITY];
+        serviceDayService = new int[INITIAL_CAPACITY];
+        serviceDayDate = new long[INITIAL_CAPACITY];
+        routeIndices = new HashMap<String, Integer>();
+        routeIds = new String[INITIAL_CAPACITY];
+        routeShortNames = new String[INITIAL_CAPACITY];
+        routeLongNames = new String[INITIAL_CAPACITY];
+        edgeSource = new int[edgeCapacity];
+        edgeTarget = new int[edgeCapacity];
+        edgeDeparture = new int[edgeCapacity];
+        edgeArrival = new int[edgeCapacity];
+        edgeTrip = new int[edgeCapacity];
+    }
+
+    /**
+     * Registers a stop and returns its index. Registering the same stop id twice
+     * returns the same index
+     *
+     * @param stopId the stop id
+     * @return the index of the stop in the graph
+     */
+    public int addStop(String stopId) {
+        Integer index = stopIndices.get(stopId);
+        if (index != null) {
+            return index;
+        }
+
+        if (stopCount == stopIds.length) {
+            stopIds = Arrays.copyOf(stopIds, stopCount * 2);
+            stopLatitudes = Arrays.copyOf(stopLatitudes, stopCount * 2);
+            stopLongitudes = Arrays.copyOf(stopLongitudes, stopCount * 2);
+            Arrays.fill(stopLatitudes, stopCount, stopCount * 2, Double.NaN);
+            Arrays.fill(stopLongitudes, stopCount, stopCount * 2, Double.NaN);
+            stopNames = Arrays.copyOf(stopNames, stopCount * 2);
+        }
+        stopIds[stopCount] = stopId;
+        stopIndices.put(stopId, stopCount);
+        return stopCount++;
+    }
+
+    /**
+     * Looks up the index of a registered stop
+     *
+     * @param stopId the stop id
+     * @return the index of the stop, or -1 if it has not been registered
+     */
+    public int getStopIndex(String stopId) {
+        Integer index = stopIndices.get(stopId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Sets the location of a registered stop
+     *
+     * @param stop      the index of the stop
+     * @param latitude  the latitude in degrees
+     * @param longitude the longitude in degrees
+     */
+    public void setStopCoordinates(int stop, double latitude, double longitude) {
+        stopLatitudes[stop] = latitude;
+        stopLongitudes[stop] = longitude;
+    }
+
+    /**
+     * Sets the name of a registered stop
+     *
+     * @param stop the index of the stop
+     * @param name the stop name
+     */
+    public void setStopName(int stop, String name) {
+        stopNames[stop] = name;
+    }
+
+    /**
+     * Registers a trip and returns its index. Registering the same trip id twice
+     * returns the same index
+     *
+     * @param tripId the trip id
+     * @return the index of the trip in the graph
+     */
+    public int addTrip(String tripId) {
+        Integer index = tripIndices.get(tripId);
+        if (index != null) {
+            return index;
+        }
+
+        if (tripCount == tripIds.length) {
+            tripIds = Arrays.copyOf(tripIds, tripCount * 2);
+            tripRoutes = Arrays.copyOf(tripRoutes, tripCount * 2);
+            tripServices = Arrays.copyOf(tripServices, tripCount * 2);
+        }
+        tripIds[tripCount] = tripId;
+        tripRoutes[tripCount] = -1;
+        tripServices[tripCount] = -1;
+        tripIndices.put(tripId, tripCount);
+        return tripCount++;
+    }
+
+    /**
+     * Looks up the index of a registered trip
+     *
+     * @param tripId the trip id
+     * @return the index of the trip, or -1 if it has not been registered
+     */
+    public int getTripIndex(String tripId) {
+        Integer index = tripIndices.get(tripId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Registers a route and returns its index. Registering the same route id twice
+     * returns the same index
+     *
+     * @param routeId the route id
+     * @return the index of the route in the graph
+     */
+    public int addRoute(String routeId) {
+        Integer index = routeIndices.get(routeId);
+        if (index != null) {
+            return index;
+        }
+
+        if (routeCount == routeIds.length) {
+            routeIds = Arrays.copyOf(routeIds, routeCount * 2);
+            routeShortNames = Arrays.copyOf(routeShortNames, routeCount * 2);
+            routeLongNames = Arrays.copyOf(routeLongNames, routeCount * 2);
+        }
+        routeIds[routeCount] = routeId;
+        routeIndices.put(routeId, routeCount);
+        return routeCount++;
+    }
+
+    /**
+     * Looks up the index of a registered route
+     *
+     * @param routeId the route id
+     * @return the index of the route, or -1 if it has not been registered
+     */
+    public int getRouteIndex(String routeId) {
+        Integer index = routeIndices.get(routeId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Sets the names of a registered route
+     *
+     * @param route     the index of the route
+     * @param shortName the short name of the route
+     * @param longName  the long name of the route
+     */
+    public void setRouteNames(int route, String shortName, String longName) {
+        routeShortNames[route] = shortName;
+        routeLongNames[route] = longName;
+    }
+
+    /**
+     * Sets the route a registered trip belongs to
+     *
+     * @param trip  the index of the trip
+     * @param route the index of the route
+     */
+    public void setTripRoute(int trip, int route) {
+        tripRoutes[trip] = route;
+    }
+
+    /**
+     * Registers a service and returns its index. Registering the same service id
+     * twice returns the same index
+     *
+     * @param serviceId the service id
+     * @return the index of the service in the graph
+     */
+    public int addService(String serviceId) {
+        Integer index = serviceIndices.get(serviceId);
+        if (index != null) {
+            return index;
+        }
+
+        if (serviceCount == serviceIds.length) {
+            serviceIds = Arrays.copyOf(serviceIds, serviceCount * 2);
+        }
+        serviceIds[serviceCount] = serviceId;
+        serviceIndices.put(serviceId, serviceCount);
+        return serviceCount++;
+    }
+
+    /**
+     * Looks up the index of a registered service
+     *
+     * @param serviceId the service id
+     * @return the index of the service, or -1 if it has not been registered
+     */
+    public int getServiceIndex(String serviceId) {
+        Integer index = serviceIndices.get(serviceId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Sets the service a registered trip runs on. Trips without a service run
+     * every day
+     *
+     * @param trip    the index of the trip
+     * @param service the index of the service
+     */
+    public void setTripService(int trip, int service) {
+        tripServices[trip] = service;
+    }
+
+    /**
+     * Adds a day a registered service runs on
+     *
+     * @param service the index of the service
+     * @param day     the service day
+     */
+    public void addServiceDay(int service, LocalDate day) {
+        if (serviceDayCount == serviceDayService.length) {
+            serviceDayService = Arrays.copyOf(serviceDayService, serviceDayCount * 2);
+            serviceDayDate = Arrays.copyOf(serviceDayDate, serviceDayCount * 2);
+        }
+        serviceDayService[serviceDayCount] = service;
+        serviceDayDate[serviceDayCount] = day.toEpochDay();
+        serviceDayCount++;
+    }
+
+    /**
+     * Adds an edge between two registered stops
+     *
+     * @param fromStop      the index of the stop the bus leaves from
+     * @param toStop        the index of the stop the bus arrives at
+     * @param departureTime the departure time in seconds since the start of the
+     *                      service day, beyond 24 hours for trips running past
+     *                      midnight
+     * @param arrivalTime   the arrival time in seconds since the start of the
+     *                      service day
+     * @param trip          the index of the trip serving the edge
+     */
+    public void addEdge(int fromStop, int toStop, int departureTime, int arrivalTime, int trip) {
+        if (edgeCount == edgeSource.length) {
+            int capacity = edgeCount * 2;
+            edgeSource = Arrays.copyOf(edgeSource, capacity);
+            edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+            edgeDeparture = Arrays.copyOf(edgeDeparture, capacity);
+            edgeArrival = Arrays.copyOf(edgeArrival, capacity);
+            edgeTrip = Arrays.copyOf(edgeTrip, capacity);
+        }
+
+        edgeSource[edgeCount] = fromStop;
+        edgeTarget[edgeCount] = toStop;
+        edgeDeparture[edgeCount] = departureTime;
+        edgeArrival[edgeCount] = arrivalTime;
+        edgeTrip[edgeCount] = trip;
+        edgeCount++;
+    }
+
+    /**
+     * Copies the values of an edge array to new positions
+     *
+     * @param values   the value of every edge in insertion order
+     * @param position the new position of every edge
+     * @return the values at their new positions
+     */
+    private int[] scatter(int[] values, int[] position) {
+        int[] scattered = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            scattered[position[e]] = values[e];
+        }
+        return scattered;
+    }
+
+    /**
+     * Packs the collected edges into a GTFSGraph, with a catalogue of the stop
+     * and route names that were set. The edges of each stop are stored
+     * contiguously, grouped by the stop they arrive at and ordered by departure
+     * time within each group. The edge blocks of different stops are sorted in
+     * parallel. The collected edges are released on the way, so the builder
+     * cannot be used any more afterwards
+     *
+     * @return the built graph
+     */
+    public GTFSGraph build() {
+        // Lay out one range of edges per source stop
+        int[] edgeStart = new int[stopCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            edgeStart[edgeSource[e] + 1]++;
+        }
+        for (int s = 0; s < stopCount; s++) {
+            edgeStart[s + 1] += edgeStart[s];
+        }
+
+        // Replace the source of every edge by its position in the range of its
+        // source stop, then move the edge arrays there one at a time, dropping each
+        // once it is copied, so at most one extra array is alive
+        int[] position = edgeSource;
+        edgeSource = null;
+        int[] cursor = Arrays.copyOf(edgeStart, stopCount);
+        for (int e = 0; e < edgeCount; e++) {
+            position[e] = cursor[position[e]]++;
+        }
+        cursor = null;
+        int[] target = scatter(edgeTarget, position);
+        edgeTarget = null;
+        int[] departure = scatter(edgeDeparture, position);
+        edgeDeparture = null;
+        int[] arrival = scatter(edgeArrival, position);
+        edgeArrival = null;
+        int[] trip = scatter(edgeTrip, position);
+        edgeTrip = null;
+        position = null;
+
+        // Order every range by target stop, then departure time
+        IntStream.range(0, stopCount).parallel()
+                .forEach(s -> sortBlock(edgeStart[s], edgeStart[s + 1], target, departure, arrival, trip));
+
+        // Split the range of every stop into one group per neighbouring stop
+        int[] neighbourStart = new int[stopCount + 1];
+        IntStream.range(0, stopCount).parallel().forEach(s -> {
+            for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+                if (e == edgeStart[s] || target[e] != target[e - 1]) {
+                    neighbourStart[s + 1]++;
+                }
+            }
+        });
+        for (int s = 0; s < stopCount; s++) {
+            neighbourStart[s + 1] += neighbourStart[s];
+        }
+        int groupCount = neighbourStart[stopCount];
+
+        // For every edge, remember the edge of the same group that arrives earliest
+        // among the ones departing at the same time or later
+        int[] neighbourEdgeStart = new int[groupCount + 1];
+        int[] earliestArrivalEdge = new int[edgeCount];
+        neighbourEdgeStart[groupCount] = edgeCount;
+        IntStream.range(0, stopCount).parallel().forEach(s -> {
+            int group = neighbourStart[s];
+            for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+                if (e == edgeStart[s] || target[e] != target[e - 1]) {
+                    neighbourEdgeStart[group++] = e;
+                }
+            }
+
+            for (int g = neighbourStart[s]; g < neighbourStart[s + 1]; g++) {
+                int last = (g + 1 < group ? neighbourEdgeStart[g + 1] : edgeStart[s + 1]) - 1;
+                earliestArrivalEdge[last] = last;
+                for (int e = last - 1; e >= neighbourEdgeStart[g]; e--) {
+                    int later = earliestArrivalEdge[e + 1];
+                    earliestArrivalEdge[e] = arrival[e] <= arrival[later] ? e : later;
+                }
+            }
+        });
+
+        // One bit per day between the first and last service day for every service
+        long firstServiceDay = Long.MAX_VALUE;
+        long lastServiceDay = Long.MIN_VALUE;
+        for (int i = 0; i < serviceDayCount; i++) {
+            firstServiceDay = Math.min(firstServiceDay, serviceDayDate[i]);
+            lastServiceDay = Math.max(lastServiceDay, serviceDayDate[i]);
+        }
+        if (serviceDayCount == 0) {
+            firstServiceDay = 0;
+            lastServiceDay = -1;
+        }
+        int serviceWords = (int) ((lastServiceDay - firstServiceDay + 64) >>> 6);
+        long[] serviceDays = new long[serviceCount * serviceWords];
+        for (int i = 0; i < serviceDayCount; i++) {
+            int day = (int) (serviceDayDate[i] - firstServiceDay);
+            serviceDays[serviceDayService[i] * serviceWords + (day >>> 6)] |= 1L << day;
+        }
+
+        GTFSGraph graph = new GTFSGraph(Arrays.copyOf(stopIds, stopCount),
+                Arrays.copyOf(stopLatitudes, stopCount), Arrays.copyOf(stopLongitudes, stopCount),
+                Arrays.copyOf(tripIds, tripCount), Arrays.copyOf(tripRoutes, tripCount),
+                Arrays.copyOf(routeIds, routeCount), Arrays.copyOf(tripServices, tripCount),
+                Arrays.copyOf(serviceIds, serviceCount), firstServiceDay, serviceDays, edgeStart, target, departure,
+                arrival, trip, neighbourStart, neighbourEdgeStart, earliestArrivalEdge);
+        graph.setCatalogue(new TransitCatalogue(graph, Arrays.copyOf(stopNames, stopCount),
+                Arrays.copyOf(routeShortNames, routeCount), Arrays.copyOf(routeLongNames, routeCount)));
+        return graph;
+    }
+
+    /**
+     * Sorts the edges of one stop by target stop, then departure time, keeping the
+     * insertion order of equal edges. Target, departure and position are packed
+     * into a single long per edge so the block is sorted with one primitive sort
+     *
+     * @param start     the first edge of the block
+     * @param end       the end of the block, exclusive
+     * @param target    the target stop of every edge
+     * @param departure the departure time of every edge
+     * @param arrival   the arrival time of every edge
+     * @param trip      the trip of every edge
+     */
+    private static void sortBlock(int start, int end, int[] target, int[] departure, int[] arrival, int[] trip) {
+        int length = end - start;
+        if (length < 2) {
+            return;
+        }
+        if (length > PACKED_MASK) {
+            throw new IllegalStateException("Too many edges leaving one stop: " + length);
+        }
+
+        long[] keys = new long[length];
+        for (int i = 0; i < length; i++) {
+            int e = start + i;
+            if (target[e] > PACKED_MASK || departure[e] < 0 || departure[e] > PACKED_MASK) {
+                throw new IllegalStateException("Edge out of range for sorting: " + target[e] + " " + departure[e]);
+            }
+            keys[i] = ((long) target[e] << (2 * PACKED_BITS)) | ((long) departure[e] << PACKED_BITS) | i;
+        }
+        Arrays.sort(keys);
+
+        int[] blockTarget = Arrays.copyOfRange(target, start, end);
+        int[] blockDeparture = Arrays.copyOfRange(departure, start, end);
+        int[] blockArrival = Arrays.copyOfRange(arrival, start, end);
+        int[] blockTrip = Arrays.copyOfRange(trip, start, end);
+        for (int i = 0; i < length; i++) {
+            int from = (int) (keys[i] & PACKED_MASK);
+            target[start + i] = blockTarget[from];
+            departure[start + i] = blockDeparture[from];
+            arrival[start + i] = blockArrival[from];
+            trip[start + i] = blockTrip[from];
+        }
+    }
+
+    /**
+     * Stable counting sort of edge ids by one of the edge attributes
+     *
+     * @param order    the edge ids in their current order
+     * @param keys     the attribute to sort by, indexed by edge id
+     * @param keyCount the number of distinct key values
+     * @return the edge ids ordered by key
+     */
+    static int[] sortByKey(int[] order, int[] keys, int keyCount) {
+        int[] start = new int[keyCount + 1];
+        for (int e : order) {
+            start[keys[e] + 1]++;
+        }
+        for (int k = 0; k < keyCount; k++) {
+            start[k + 1] += start[k];
+        }
+
+        int[] sorted = new int[order.length];
+        for (int e : order) {
+            sorted[start[keys[e]]++] = e;
+        }
+        return sorted;
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.bcs05.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary file format for storing a built GTFSGraph. The file starts with a
+ * header (magic number and format version) followed by the graph arrays, each
+ * stored as its length and its elements. The file is written once and read
+ * back through a memory mapped buffer, so loading is a bulk copy of the arrays
+ * instead of a database scan
+ */
+class GTFSGraphSnapshot {
+
+    // "GTFS" in ASCII
+    private static final int MAGIC = 0x47544653;
+
+    // Increase whenever the order or meaning of the stored arrays changes
+    private static final int VERSION = 3;
+
+    private DataOutputStream output;
+    private MappedByteBuffer input;
+
+    /**
+     * Opens a snapshot file for writing and writes the header. The data is written
+     * to a temporary file that only replaces the snapshot on close
+     *
+     * @param file the snapshot file
+     * @return the snapshot to write the arrays to
+     * @throws IOException if the file cannot be written
+     */
+    static GTFSGraphSnapshot create(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+
+        GTFSGraphSnapshot snapshot = new GTFSGraphSnapshot();
+        snapshot.output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporaryFile(file)), 1 << 16));
+        snapshot.output.writeInt(MAGIC);
+        snapshot.output.writeInt(VERSION);
+        return snapshot;
+    }
+
+    /**
+     * Opens a snapshot file for reading and checks the header
+     *
+     * @param file the snapshot file
+     * @return the snapshot to read the arrays from, or null if the file does not
+     *         exist or has another format version
+     * @throws IOException if the file cannot be read
+     */
+    static GTFSGraphSnapshot open(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        GTFSGraphSnapshot snapshot = new GTFSGraphSnapshot();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            snapshot.input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (snapshot.input.remaining() < 8 || snapshot.input.getInt() != MAGIC
+                || snapshot.input.getInt() != VERSION) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Retrieves the temporary file a snapshot is written to before it is complete
+     *
+     * @param file the snapshot file
+     * @return the temporary file
+     */
+    private static File temporaryFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Finishes writing and moves the snapshot into place
+     *
+     * @param file the snapshot file given on creation
+     * @throws IOException if the file cannot be written
+     */
+    void close(File file) throws IOException {
+        output.close();
+        Files.move(temporaryFile(file).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes an int array
+     *
+     * @param values the array
+     * @throws IOException if the file cannot be written
+     */
+    void writeInts(int[] values) throws IOException {
+        output.writeInt(values.length);
+        for (int value : values) {
+            output.writeInt(value);
+        }
+    }
+
+    /**
+     * Writes a long
+     *
+     * @param value the value
+     * @throws IOException if the file cannot be written
+     */
+    void writeLong(long value) throws IOException {
+        output.writeLong(value);
+    }
+
+    /**
+     * Writes a long array
+     *
+     * @param values the array
+     * @throws IOException if the file cannot be written
+     */
+    void writeLongs(long[] values) throws IOException {
+        output.writeInt(values.length);
+        for (long value : values) {
+            output.writeLong(value);
+        }
+    }
+
+    /**
+     * Writes a double array
+     *
+     * @param values the array
+     * @throws IOException if the file cannot be written
+     */
+    void writeDoubles(double[] values) throws IOException {
+        output.writeInt(values.length);
+        for (double value : values) {
+            output.writeDouble(value);
+        }
+    }
+
+    /**
+     * Writes a string array as UTF-8, null elements as a length of -1
+     *
+     * @param values the array
+     * @throws IOException if the file cannot be written
+     */
+    void writeStrings(String[] values) throws IOException {
+        output.writeInt(values.length);
+        for (String value : values) {
+            if (value == null) {
+                output.writeInt(-1);
+                continue;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Reads an int array
+     *
+     * @return the array
+     */
+    int[] readInts() {
+        int[] values = new int[input.getInt()];
+        input.asIntBuffer().get(values);
+        input.position(input.position() + values.length * Integer.BYTES);
+        return values;
+    }
+
+    /**
+     * Reads a long
+     *
+     * @return the value
+     */
+    long readLong() {
+        return input.getLong();
+    }
+
+    /**
+     * Reads a long array
+     *
+     * @return the array
+     */
+    long[] readLongs() {
+        long[] values = new long[input.getInt()];
+        input.asLongBuffer().get(values);
+        input.position(input.position() + values.length * Long.BYTES);
+        return values;
+    }
+
+    /**
+     * Reads a double array
+     *
+     * @return the array
+     */
+    double[] readDoubles() {
+        double[] values = new double[input.getInt()];
+        input.asDoubleBuffer().get(values);
+        input.position(input.position() + values.length * Double.BYTES);
+        return values;
+    }
+
+    /**
+     * Reads a string array
+     *
+     * @return the array
+     */
+    String[] readStrings() {
+        String[] values = new String[input.getInt()];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < values.length; i++) {
+            int length = input.getInt();
+            if (length == -1) {
+                continue;
+            }
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            input.get(bytes, 0, length);
+            values[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+}
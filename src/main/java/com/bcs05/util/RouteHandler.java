@@ -1,7 +1,7 @@
 package com.bcs05.util;
 
 import java.util.ArrayList;
-import com.bcs05.engine.RoutingEngine;
+import com.bcs05.engine.RouterService;
 
 /**
  * The RouteHandler class provides methods for handling routes and calculating
@@ -18,8 +18,7 @@ public class RouteHandler {
      * @return the list of coordinates for the route
      */
     public static ArrayList<Coordinates> getPointsListRoute(String mode, Coordinates from, Coordinates to) {
-        RoutingEngine routingEngine = new RoutingEngine(modeSwitch(mode));
-        return routingEngine.getPoints(from, to);
+        return RouterService.getInstance().getPoints(modeSwitch(mode), from, to);
     }
 
     /**
@@ -31,8 +30,7 @@ public class RouteHandler {
      * @return the distance between the coordinates
      */
     public static double getDistanceRoute(String mode, Coordinates from, Coordinates to) {
-        RoutingEngine routingEngine = new RoutingEngine(modeSwitch(mode));
-        return routingEngine.getDistance(from, to).doubleValue();
+        return RouterService.getInstance().getDistance(modeSwitch(mode), from, to);
     }
 
     /**
@@ -0,0 +1,460 @@
+package com.bcs05.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.bcs05.data.GTFSFeed;
+import com.bcs05.engine.DistanceCalculator;
+
+/**
+ * In-memory copy of the shapes of the trips in the timetable. The points of all
+ * shapes are packed into one array as (latitude, longitude, distance) triples,
+ * the points of shape s occupying [shapeStart[s], shapeStart[s + 1]) in sequence
+ * order. For every trip the distance along its shape at each of its stops is
+ * kept as well, so the geometry of a leg is sliced out with two binary searches
+ * instead of a query. The cache is built from the GTFS zip when there is one
+ * and from the database otherwise, and is built again whenever the graph is
+ * reloaded
+ */
+public class ShapeCache {
+
+    // Values per packed shape point
+    private static final int POINT_SIZE = 3;
+
+    private static volatile ShapeCache instance;
+
+    // Shape points, (latitude, longitude, shape_dist_traveled) per point
+    private int[] shapeStart;
+    private double[] shapePoints;
+
+    // Trip dictionary and the shape of every trip, -1 if it has none
+    private HashMap<String, Integer> tripIndices = new HashMap<String, Integer>();
+    private int[] tripShapes;
+
+    // Stops of every trip in sequence order with their distance along the shape,
+    // the stops of trip t are [tripStopStart[t], tripStopStart[t + 1])
+    private HashMap<String, Integer> stopIndices = new HashMap<String, Integer>();
+    private int[] tripStopStart;
+    private int[] tripStops;
+    private double[] tripStopDistances;
+
+    private ShapeCache() {
+    }
+
+    /**
+     * Retrieves the shape cache, loading it on first use
+     *
+     * @return the shape cache
+     */
+    public static synchronized ShapeCache getInstance() {
+        if (instance == null) {
+            instance = create();
+        }
+        return instance;
+    }
+
+    /**
+     * Loads the shape cache again and replaces the current one once it is
+     * complete. Searches holding the current cache keep using it
+     *
+     * @return the new shape cache
+     */
+    public static ShapeCache reload() {
+        ShapeCache cache = create();
+        instance = cache;
+        return cache;
+    }
+
+    /**
+     * Creates the shape cache from the GTFS zip if there is one, and from the
+     * database if not
+     *
+     * @return the shape cache
+     */
+    private static ShapeCache create() {
+        GTFSFeed feed = GTFSFeed.getInstance();
+        return feed != null ? fromFeed(feed) : load();
+    }
+
+    /**
+     * Builds the shape cache from the shapes and stop times of a GTFS feed.
+     * Shapes without a distance at every point are measured in meters along
+     * their points. Stops are placed at the distance the feed gives them, or,
+     * when one is missing or the shape was measured, at the shape point nearest
+     * to the stop that comes after the previous stop
+     *
+     * @param feed the feed
+     * @return the shape cache
+     */
+    public static ShapeCache fromFeed(GTFSFeed feed) {
+        ShapeCache cache = new ShapeCache();
+        int shapeCount = feed.getShapeCount();
+        int pointCount = shapeCount == 0 ? 0 : feed.getShapeEnd(shapeCount - 1);
+
+        cache.shapeStart = new int[shapeCount + 1];
+        cache.shapePoints = new double[pointCount * POINT_SIZE];
+        boolean[] measured = new boolean[shapeCount];
+        for (int shape = 0; shape < shapeCount; shape++) {
+            int start = feed.getShapeStart(shape);
+            int end = feed.getShapeEnd(shape);
+            cache.shapeStart[shape] = start;
+
+            boolean hasDistances = true;
+            for (int point = start; point < end; point++) {
+                hasDistances &= !Double.isNaN(feed.getShapeDistance(point));
+            }
+            measured[shape] = !hasDistances;
+
+            double distance = 0;
+            for (int point = start; point < end; point++) {
+                double latitude = feed.getShapeLatitude(point);
+                double longitude = feed.getShapeLongitude(point);
+                if (measured[shape] && point > start) {
+                    distance += 1000 * DistanceCalculator.calculateAerialDistance(
+                            feed.getShapeLatitude(point - 1), feed.getShapeLongitude(point - 1), latitude, longitude);
+                }
+                cache.shapePoints[point * POINT_SIZE] = latitude;
+                cache.shapePoints[point * POINT_SIZE + 1] = longitude;
+                cache.shapePoints[point * POINT_SIZE + 2] = hasDistances ? feed.getShapeDistance(point) : distance;
+            }
+        }
+        cache.shapeStart[shapeCount] = pointCount;
+
+        int tripCount = feed.getTripCount();
+        int tripStopCount = tripCount == 0 ? 0 : feed.getStopTimeEnd(tripCount - 1);
+        cache.tripShapes = new int[tripCount];
+        cache.tripStopStart = new int[tripCount + 1];
+        cache.tripStops = new int[tripStopCount];
+        cache.tripStopDistances = new double[tripStopCount];
+
+        // Trips of a pattern share their shape and stops, so the stops are only
+        // placed on the shape again when they differ from the last trip on it
+        int[] lastShapeTrip = new int[shapeCount];
+        Arrays.fill(lastShapeTrip, -1);
+
+        for (int trip = 0; trip < tripCount; trip++) {
+            int start = feed.getStopTimeStart(trip);
+            int end = feed.getStopTimeEnd(trip);
+            int shape = feed.getTripShape(trip);
+            cache.tripIndices.put(feed.getTripId(trip), trip);
+            cache.tripShapes[trip] = shape;
+            cache.tripStopStart[trip] = start;
+            for (int i = start; i < end; i++) {
+                cache.tripStops[i] = cache.addStop(feed.getStopId(feed.getStopTimeStop(i)));
+            }
+            if (shape == -1 || cache.shapeStart[shape] == cache.shapeStart[shape + 1]) {
+                continue;
+            }
+
+            boolean hasDistances = !measured[shape];
+            for (int i = start; i < end; i++) {
+                hasDistances &= !Double.isNaN(feed.getStopTimeDistance(i));
+            }
+            if (hasDistances) {
+                for (int i = start; i < end; i++) {
+                    cache.tripStopDistances[i] = feed.getStopTimeDistance(i);
+                }
+            } else if (cache.hasSameStops(lastShapeTrip[shape], trip)) {
+                int previousStart = cache.tripStopStart[lastShapeTrip[shape]];
+                System.arraycopy(cache.tripStopDistances, previousStart, cache.tripStopDistances, start, end - start);
+            } else {
+                int point = cache.shapeStart[shape];
+                for (int i = start; i < end; i++) {
+                    int stop = feed.getStopTimeStop(i);
+                    point = cache.findNearestPoint(shape, point, feed.getStopLatitude(stop),
+                            feed.getStopLongitude(stop));
+                    cache.tripStopDistances[i] = cache.shapePoints[point * POINT_SIZE + 2];
+                }
+                lastShapeTrip[shape] = trip;
+            }
+        }
+        cache.tripStopStart[tripCount] = tripStopCount;
+        return cache;
+    }
+
+    /**
+     * Checks whether two trips stop at the same stops in the same order
+     *
+     * @param trip  the first trip, -1 if there is none
+     * @param other the second trip
+     * @return true if the stops are the same
+     */
+    private boolean hasSameStops(int trip, int other) {
+        if (trip == -1 || tripStopStart[trip + 1] - tripStopStart[trip] != tripStopStart[other + 1]
+                - tripStopStart[other]) {
+            return false;
+        }
+        for (int i = 0; i < tripStopStart[trip + 1] - tripStopStart[trip]; i++) {
+            if (tripStops[tripStopStart[trip] + i] != tripStops[tripStopStart[other] + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the point of a shape nearest to a location, from a given point on
+     *
+     * @param shape     the shape index
+     * @param from      the first point to consider
+     * @param latitude  the latitude of the location
+     * @param longitude the longitude of the location
+     * @return the index of the nearest point, from if the location is unknown
+     */
+    private int findNearestPoint(int shape, int from, double latitude, double longitude) {
+        int nearest = from;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        for (int point = from; point < shapeStart[shape + 1]; point++) {
+            double distance = DistanceCalculator.calculateAerialDistance(latitude, longitude,
+                    shapePoints[point * POINT_SIZE], shapePoints[point * POINT_SIZE + 1]);
+            if (distance < nearestDistance) {
+                nearest = point;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Loads the shapes and trip stop distances of the trips in the timetable
+     *
+     * @return the shape cache, empty if the database cannot be read
+     */
+    private static ShapeCache load() {
+        ShapeCache cache = new ShapeCache();
+
+        String shapePointsSQL = """
+                SELECT
+                    shape_id, shape_pt_lat, shape_pt_lon, shape_dist_traveled
+                FROM
+                    shapes
+                WHERE
+                    shape_id IN (SELECT trips.shape_id FROM trips JOIN (SELECT DISTINCT trip_id FROM timetable) running ON trips.trip_id = running.trip_id)
+                ORDER BY
+                    shape_id, shape_pt_sequence;
+                """;
+        String tripStopsSQL = """
+                SELECT
+                    stop_times.trip_id, trips.shape_id, stop_times.stop_id, stop_times.shape_dist_traveled
+                FROM
+                    stop_times
+                JOIN
+                    trips
+                ON
+                    stop_times.trip_id = trips.trip_id
+                JOIN
+                    (SELECT DISTINCT trip_id FROM timetable) running
+                ON
+                    stop_times.trip_id = running.trip_id
+                ORDER BY
+                    stop_times.trip_id, stop_times.stop_sequence;
+                """;
+
+        HashMap<String, Integer> shapeIndices = new HashMap<String, Integer>();
+        cache.shapeStart = new int[1024];
+        cache.shapePoints = new double[1024 * POINT_SIZE];
+        cache.tripShapes = new int[1024];
+        cache.tripStopStart = new int[1024];
+        cache.tripStops = new int[1024];
+        cache.tripStopDistances = new double[1024];
+        int pointCount = 0;
+        int tripStopCount = 0;
+
+        try (Connection connection = DatabaseConnection.getConnection()) {
+
+            // Rows arrive grouped by shape, a new shape starts where the id changes
+            try (PreparedStatement statement = connection.prepareStatement(shapePointsSQL,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(Integer.MIN_VALUE);
+                try (ResultSet points = statement.executeQuery()) {
+                    String currentShapeId = null;
+                    while (points.next()) {
+                        String shapeId = points.getString(1);
+                        if (!shapeId.equals(currentShapeId)) {
+                            int shape = shapeIndices.size();
+                            shapeIndices.put(shapeId, shape);
+                            if (shape + 1 == cache.shapeStart.length) {
+                                cache.shapeStart = Arrays.copyOf(cache.shapeStart, cache.shapeStart.length * 2);
+                            }
+                            cache.shapeStart[shape] = pointCount;
+                            currentShapeId = shapeId;
+                        }
+                        if ((pointCount + 1) * POINT_SIZE > cache.shapePoints.length) {
+                            cache.shapePoints = Arrays.copyOf(cache.shapePoints, cache.shapePoints.length * 2);
+                        }
+                        cache.shapePoints[pointCount * POINT_SIZE] = points.getDouble(2);
+                        cache.shapePoints[pointCount * POINT_SIZE + 1] = points.getDouble(3);
+                        cache.shapePoints[pointCount * POINT_SIZE + 2] = points.getDouble(4);
+                        pointCount++;
+                    }
+                }
+            }
+
+            // Rows arrive grouped by trip, a new trip starts where the id changes
+            try (PreparedStatement statement = connection.prepareStatement(tripStopsSQL,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(Integer.MIN_VALUE);
+                try (ResultSet stops = statement.executeQuery()) {
+                    String currentTripId = null;
+                    while (stops.next()) {
+                        String tripId = stops.getString(1);
+                        if (!tripId.equals(currentTripId)) {
+                            int trip = cache.tripIndices.size();
+                            cache.tripIndices.put(tripId, trip);
+                            if (trip + 1 == cache.tripStopStart.length) {
+                                cache.tripStopStart = Arrays.copyOf(cache.tripStopStart, trip * 2);
+                                cache.tripShapes = Arrays.copyOf(cache.tripShapes, trip * 2);
+                            }
+                            cache.tripStopStart[trip] = tripStopCount;
+                            cache.tripShapes[trip] = shapeIndices.getOrDefault(stops.getString(2), -1);
+                            currentTripId = tripId;
+                        }
+                        if (tripStopCount == cache.tripStops.length) {
+                            cache.tripStops = Arrays.copyOf(cache.tripStops, tripStopCount * 2);
+                            cache.tripStopDistances = Arrays.copyOf(cache.tripStopDistances, tripStopCount * 2);
+                        }
+                        cache.tripStops[tripStopCount] = cache.addStop(stops.getString(3));
+                        cache.tripStopDistances[tripStopCount] = stops.getDouble(4);
+                        tripStopCount++;
+                    }
+                }
+            }
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+        // Close the ranges and drop the unused capacity
+        int shapeCount = shapeIndices.size();
+        cache.shapeStart = Arrays.copyOf(cache.shapeStart, shapeCount + 1);
+        cache.shapeStart[shapeCount] = pointCount;
+        cache.shapePoints = Arrays.copyOf(cache.shapePoints, pointCount * POINT_SIZE);
+
+        int tripCount = cache.tripIndices.size();
+        cache.tripShapes = Arrays.copyOf(cache.tripShapes, tripCount);
+        cache.tripStopStart = Arrays.copyOf(cache.tripStopStart, tripCount + 1);
+        cache.tripStopStart[tripCount] = tripStopCount;
+        cache.tripStops = Arrays.copyOf(cache.tripStops, tripStopCount);
+        cache.tripStopDistances = Arrays.copyOf(cache.tripStopDistances, tripStopCount);
+        return cache;
+    }
+
+    /**
+     * Adds a stop to the stop dictionary if it is not in it yet
+     *
+     * @param stopId the stop ID
+     * @return the stop index
+     */
+    private int addStop(String stopId) {
+        Integer stop = stopIndices.get(stopId);
+        if (stop == null) {
+            stop = stopIndices.size();
+            stopIndices.put(stopId, stop);
+        }
+        return stop;
+    }
+
+    /**
+     * Retrieves the shape points a trip passes between two of its stops. The
+     * result is packed as (latitude, longitude, shape_dist_traveled) triples in
+     * driving order
+     *
+     * @param tripId     the trip ID
+     * @param fromStopId the stop where the leg starts
+     * @param toStopId   the stop where the leg ends
+     * @return the packed points, empty if the trip, its shape or one of the stops
+     *         is unknown
+     */
+    public double[] getLegPoints(String tripId, String fromStopId, String toStopId) {
+        Integer trip = tripIndices.get(tripId);
+        Integer fromStop = stopIndices.get(fromStopId);
+        Integer toStop = stopIndices.get(toStopId);
+        if (trip == null || fromStop == null || toStop == null || tripShapes[trip] == -1) {
+            return new double[0];
+        }
+
+        // Distances along the shape at the first visit of the from stop and the
+        // first visit of the to stop after it
+        int from = tripStopStart[trip];
+        while (from < tripStopStart[trip + 1] && tripStops[from] != fromStop) {
+            from++;
+        }
+        int to = from;
+        while (to < tripStopStart[trip + 1] && tripStops[to] != toStop) {
+            to++;
+        }
+        if (to == tripStopStart[trip + 1]) {
+            return new double[0];
+        }
+
+        int shape = tripShapes[trip];
+        int start = findFirstPoint(shape, tripStopDistances[from]);
+        int end = findFirstPointAfter(shape, tripStopDistances[to]);
+        return Arrays.copyOfRange(shapePoints, start * POINT_SIZE, Math.max(start, end) * POINT_SIZE);
+    }
+
+    /**
+     * Finds the first point of a shape at or beyond a distance
+     *
+     * @param shape    the shape index
+     * @param distance the distance along the shape
+     * @return the point index, the end of the shape if no point is that far
+     */
+    private int findFirstPoint(int shape, double distance) {
+        int low = shapeStart[shape];
+        int high = shapeStart[shape + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (shapePoints[middle * POINT_SIZE + 2] < distance) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the first point of a shape beyond a distance
+     *
+     * @param shape    the shape index
+     * @param distance the distance along the shape
+     * @return the point index, the end of the shape if no point is that far
+     */
+    private int findFirstPointAfter(int shape, double distance) {
+        int low = shapeStart[shape];
+        int high = shapeStart[shape + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (shapePoints[middle * POINT_SIZE + 2] <= distance) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Retrieves the number of shapes in the cache
+     *
+     * @return the number of shapes
+     */
+    public int getShapeCount() {
+        return shapeStart.length - 1;
+    }
+
+    /**
+     * Retrieves the number of trips in the cache
+     *
+     * @return the number of trips
+     */
+    public int getTripCount() {
+        return tripShapes.length;
+    }
+
+}
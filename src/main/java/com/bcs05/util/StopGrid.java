@@ -0,0 +1,241 @@
+package com.bcs05.util;
+
+import com.bcs05.engine.DistanceCalculator;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the stop coordinates of a GTFSGraph for nearest-stop
+ * lookups. The grid is laid over the bounding box of the stops in degrees, with
+ * cells of roughly equal size in kilometres, and the stops of every cell are
+ * stored contiguously. Stops without coordinates are left out
+ */
+public class StopGrid {
+
+    // Kilometres per degree of latitude, and of longitude at the equator, on the
+    // sphere used by DistanceCalculator
+    private static final double KM_PER_DEGREE = 6371.0 * Math.PI / 180;
+
+    // Smallest cell side, and the number of stops aimed for per cell
+    private static final double MIN_CELL_SIZE_KM = 0.25;
+    private static final double STOPS_PER_CELL = 2;
+
+    private GTFSGraph graph;
+
+    // Grid layout, cell (row, column) covers latitudes from
+    // minLatitude + row * cellHeight and longitudes from minLongitude + column * cellWidth
+    private double minLatitude;
+    private double minLongitude;
+    private double cellHeight;
+    private double cellWidth;
+    private int rows;
+    private int columns;
+
+    // The stops of cell c are cellStops[cellStart[c]] to cellStops[cellStart[c + 1] - 1]
+    private int[] cellStart;
+    private int[] cellStops;
+
+    /**
+     * Builds the grid over the stops of a graph
+     *
+     * @param graph the graph
+     */
+    public StopGrid(GTFSGraph graph) {
+        this.graph = graph;
+
+        // Bounding box of the stops with coordinates
+        int stopCount = 0;
+        double maxLatitude = Double.NEGATIVE_INFINITY;
+        double maxLongitude = Double.NEGATIVE_INFINITY;
+        minLatitude = Double.POSITIVE_INFINITY;
+        minLongitude = Double.POSITIVE_INFINITY;
+        for (int stop = 0; stop < graph.getStopCount(); stop++) {
+            if (hasCoordinates(stop)) {
+                stopCount++;
+                minLatitude = Math.min(minLatitude, graph.getStopLatitude(stop));
+                maxLatitude = Math.max(maxLatitude, graph.getStopLatitude(stop));
+                minLongitude = Math.min(minLongitude, graph.getStopLongitude(stop));
+                maxLongitude = Math.max(maxLongitude, graph.getStopLongitude(stop));
+            }
+        }
+        if (stopCount == 0) {
+            minLatitude = 0;
+            minLongitude = 0;
+            maxLatitude = 0;
+            maxLongitude = 0;
+        }
+
+        // Size the cells so that the stops spread over them evenly on average
+        double longitudeScale = Math.max(Math.cos(Math.toRadians((minLatitude + maxLatitude) / 2)), 0.01);
+        double heightKm = (maxLatitude - minLatitude) * KM_PER_DEGREE;
+        double widthKm = (maxLongitude - minLongitude) * KM_PER_DEGREE * longitudeScale;
+        double cellSizeKm = Math.max(MIN_CELL_SIZE_KM,
+                Math.sqrt(heightKm * widthKm * STOPS_PER_CELL / Math.max(stopCount, 1)));
+        cellHeight = cellSizeKm / KM_PER_DEGREE;
+        cellWidth = cellSizeKm / (KM_PER_DEGREE * longitudeScale);
+        rows = (int) ((maxLatitude - minLatitude) / cellHeight) + 1;
+        columns = (int) ((maxLongitude - minLongitude) / cellWidth) + 1;
+
+        // Count the stops per cell, then place them
+        int[] stopCell = new int[graph.getStopCount()];
+        cellStart = new int[rows * columns + 1];
+        for (int stop = 0; stop < graph.getStopCount(); stop++) {
+            if (hasCoordinates(stop)) {
+                stopCell[stop] = getRow(graph.getStopLatitude(stop)) * columns
+                        + getColumn(graph.getStopLongitude(stop));
+                cellStart[stopCell[stop] + 1]++;
+            }
+        }
+        for (int cell = 0; cell < rows * columns; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+
+        cellStops = new int[stopCount];
+        int[] cursor = Arrays.copyOf(cellStart, rows * columns);
+        for (int stop = 0; stop < graph.getStopCount(); stop++) {
+            if (hasCoordinates(stop)) {
+                cellStops[cursor[stopCell[stop]]++] = stop;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a stop has a location
+     *
+     * @param stop the stop index
+     * @return true if the latitude and longitude of the stop are known
+     */
+    private boolean hasCoordinates(int stop) {
+        return !Double.isNaN(graph.getStopLatitude(stop)) && !Double.isNaN(graph.getStopLongitude(stop));
+    }
+
+    /**
+     * Retrieves the grid row of a latitude, clamped to the grid
+     *
+     * @param latitude the latitude in degrees
+     * @return the row
+     */
+    private int getRow(double latitude) {
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor((latitude - minLatitude) / cellHeight)));
+    }
+
+    /**
+     * Retrieves the grid column of a longitude, clamped to the grid
+     *
+     * @param longitude the longitude in degrees
+     * @return the column
+     */
+    private int getColumn(double longitude) {
+        return (int) Math.max(0, Math.min(columns - 1, Math.floor((longitude - minLongitude) / cellWidth)));
+    }
+
+    /**
+     * Finds the stops within a radius of a location
+     *
+     * @param latitude  the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @param radius    the radius in kilometres
+     * @return the stop indices, nearest first
+     */
+    public int[] findStopIndicesWithin(double latitude, double longitude, double radius) {
+        // Degrees spanned by the radius, using the widest longitude span in range
+        double latitudeRadius = radius / KM_PER_DEGREE;
+        double farthestLatitude = Math.min(90, Math.abs(latitude) + latitudeRadius);
+        double longitudeRadius = radius / (KM_PER_DEGREE * Math.max(Math.cos(Math.toRadians(farthestLatitude)), 1e-6));
+
+        int firstRow = getRow(latitude - latitudeRadius);
+        int lastRow = getRow(latitude + latitudeRadius);
+        int firstColumn = getColumn(longitude - longitudeRadius);
+        int lastColumn = getColumn(longitude + longitudeRadius);
+
+        // Check the stops of every cell the radius overlaps, sorting them by
+        // distance through a packed key of the distance bits and the stop index
+        long[] found = new long[16];
+        int foundCount = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int cell = row * columns + firstColumn; cell <= row * columns + lastColumn; cell++) {
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int stop = cellStops[i];
+                    double distance = DistanceCalculator.calculateAerialDistance(latitude, longitude,
+                            graph.getStopLatitude(stop), graph.getStopLongitude(stop));
+                    if (distance < radius) {
+                        if (foundCount == found.length) {
+                            found = Arrays.copyOf(found, foundCount * 2);
+                        }
+                        // Non-negative floats keep their order when compared as ints
+                        found[foundCount++] = ((long) Float.floatToIntBits((float) distance) << 32) | stop;
+                    }
+                }
+            }
+        }
+        Arrays.sort(found, 0, foundCount);
+
+        int[] stops = new int[foundCount];
+        for (int i = 0; i < foundCount; i++) {
+            stops[i] = (int) found[i];
+        }
+        return stops;
+    }
+
+    /**
+     * Finds the stops nearest to a location. The search radius is doubled until
+     * enough stops are found
+     *
+     * @param latitude  the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @param count     the number of stops to find
+     * @return at most count stop indices, nearest first
+     */
+    public int[] findNearestStopIndices(double latitude, double longitude, int count) {
+        count = Math.min(count, cellStops.length);
+        double radius = Math.max(cellHeight * KM_PER_DEGREE, MIN_CELL_SIZE_KM);
+        while (true) {
+            int[] stops = findStopIndicesWithin(latitude, longitude, radius);
+            if (stops.length >= count) {
+                return Arrays.copyOf(stops, count);
+            }
+            radius *= 2;
+        }
+    }
+
+    /**
+     * Finds the stops within a radius of a location
+     *
+     * @param latitude  the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @param radius    the radius in kilometres
+     * @return the stops with their coordinates, nearest first
+     */
+    public ArrayList<Stop> findStopsWithin(double latitude, double longitude, double radius) {
+        return toStops(findStopIndicesWithin(latitude, longitude, radius));
+    }
+
+    /**
+     * Finds the stops nearest to a location
+     *
+     * @param latitude  the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @param count     the number of stops to find
+     * @return at most count stops with their coordinates, nearest first
+     */
+    public ArrayList<Stop> findNearestStops(double latitude, double longitude, int count) {
+        return toStops(findNearestStopIndices(latitude, longitude, count));
+    }
+
+    /**
+     * Makes Stop objects with coordinates for stop indices
+     *
+     * @param stopIndices the stop indices
+     * @return the stops in the same order
+     */
+    private ArrayList<Stop> toStops(int[] stopIndices) {
+        ArrayList<Stop> stops = new ArrayList<Stop>(stopIndices.length);
+        for (int stop : stopIndices) {
+            Coordinates coordinates = new Coordinates(String.valueOf(graph.getStopLatitude(stop)),
+                    String.valueOf(graph.getStopLongitude(stop)));
+            stops.add(new Stop(graph.getStop(stop).getStopId(), coordinates));
+        }
+        return stops;
+    }
+
+}
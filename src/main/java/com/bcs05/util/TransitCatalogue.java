@@ -0,0 +1,119 @@
+package com.bcs05.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Immutable names and locations of the stops, trips and routes of a GTFSGraph,
+ * so that paths can be described without querying the database. The names are
+ * collected with the timetable and stored in the snapshot of the graph. Stops
+ * and routes use the indices of the graph, trips are looked up by their id
+ */
+public class TransitCatalogue {
+
+    private final GTFSGraph graph;
+
+    // Name of every stop of the graph, null if unknown
+    private final String[] stopNames;
+
+    // Route of every route of the graph, with its names if they are known
+    private final Route[] routes;
+
+    // Trip index of every trip id of the graph
+    private final HashMap<String, Integer> tripIndices;
+
+    /**
+     * Creates a catalogue from the names of a graph's stops and routes
+     *
+     * @param graph           the graph
+     * @param stopNames       the name of every stop index
+     * @param routeShortNames the short name of every route index
+     * @param routeLongNames  the long name of every route index
+     */
+    TransitCatalogue(GTFSGraph graph, String[] stopNames, String[] routeShortNames, String[] routeLongNames) {
+        this.graph = graph;
+        this.stopNames = stopNames;
+
+        routes = new Route[graph.getRouteCount()];
+        for (int route = 0; route < routes.length; route++) {
+            routes[route] = new Route(graph.getRouteId(route), routeShortNames[route], routeLongNames[route]);
+        }
+
+        tripIndices = new HashMap<String, Integer>(graph.getTripCount() * 2);
+        for (int trip = 0; trip < graph.getTripCount(); trip++) {
+            tripIndices.put(graph.getTripId(trip), trip);
+        }
+    }
+
+    /**
+     * Writes the names to a snapshot
+     *
+     * @param snapshot the snapshot opened for writing
+     * @throws IOException if the snapshot cannot be written
+     */
+    void writeSnapshot(GTFSGraphSnapshot snapshot) throws IOException {
+        String[] routeShortNames = new String[routes.length];
+        String[] routeLongNames = new String[routes.length];
+        for (int route = 0; route < routes.length; route++) {
+            routeShortNames[route] = routes[route].getRouteShortName();
+            routeLongNames[route] = routes[route].getRouteLongName();
+        }
+
+        snapshot.writeStrings(stopNames);
+        snapshot.writeStrings(routeShortNames);
+        snapshot.writeStrings(routeLongNames);
+    }
+
+    /**
+     * Reads the catalogue of a graph from a snapshot, in the order writeSnapshot
+     * stores it
+     *
+     * @param graph    the graph read from the same snapshot
+     * @param snapshot the snapshot opened for reading
+     * @return the catalogue
+     */
+    static TransitCatalogue readSnapshot(GTFSGraph graph, GTFSGraphSnapshot snapshot) {
+        return new TransitCatalogue(graph, snapshot.readStrings(), snapshot.readStrings(), snapshot.readStrings());
+    }
+
+    /**
+     * Retrieves the name of a stop
+     *
+     * @param stopId the stop ID
+     * @return the stop name, null if the stop or its name is unknown
+     */
+    public String getStopName(String stopId) {
+        int stop = graph.getStopIndex(stopId);
+        return stop == -1 ? null : stopNames[stop];
+    }
+
+    /**
+     * Retrieves the location of a stop
+     *
+     * @param stopId the stop ID
+     * @return the coordinates, null if the stop or its location is unknown
+     */
+    public Coordinates getStopCoordinates(String stopId) {
+        int stop = graph.getStopIndex(stopId);
+        if (stop == -1 || Double.isNaN(graph.getStopLatitude(stop))) {
+            return null;
+        }
+        return new Coordinates(String.valueOf(graph.getStopLatitude(stop)),
+                String.valueOf(graph.getStopLongitude(stop)));
+    }
+
+    /**
+     * Retrieves the route a trip runs on
+     *
+     * @param tripId the trip ID
+     * @return the route, null if the trip or its route is unknown
+     */
+    public Route getRoute(String tripId) {
+        Integer trip = tripIndices.get(tripId);
+        if (trip == null || graph.getTripRoute(trip) == -1) {
+            return null;
+        }
+        return routes[graph.getTripRoute(trip)];
+    }
+
+}
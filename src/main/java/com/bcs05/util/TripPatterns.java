@@ -0,0 +1,568 @@
+package com.bcs05.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Groups the trips of a GTFSGraph into route patterns: trips that visit the same
+ * sequence of stops and never overtake each other. The stop times of a pattern
+ * are stored trip by trip in flat arrays, and every stop knows the patterns
+ * serving it and its position in them
+ */
+public class TripPatterns {
+
+    // Stops of every pattern, the stops of pattern p are [patternStopStart[p], patternStopStart[p + 1])
+    private int[] patternStopStart;
+    private int[] patternStops;
+
+    // Trips of every pattern ordered by departure, the trips of pattern p are
+    // [patternTripStart[p], patternTripStart[p + 1])
+    private int[] patternTripStart;
+    private int[] patternTrips;
+    private int[] tripPatterns;
+
+    // Stop times of every pattern trip, the times of pattern trip t are
+    // [tripTimeStart[t], tripTimeStart[t] + pattern length)
+    private int[] tripTimeStart;
+    private int[] arrivalTimes;
+    private int[] departureTimes;
+
+    // Patterns serving every stop, the patterns of stop s are
+    // [stopPatternStart[s], stopPatternStart[s + 1]) with the position of the stop in each
+    private int[] stopPatternStart;
+    private int[] stopPatterns;
+    private int[] stopPatternPositions;
+
+    /**
+     * Builds the patterns of a graph from its edges
+     *
+     * @param graph the graph to build the patterns for
+     */
+    public TripPatterns(GTFSGraph graph) {
+        int[][] tripStops = new int[graph.getTripCount()][];
+        int[][] tripArrivals = new int[graph.getTripCount()][];
+        int[][] tripDepartures = new int[graph.getTripCount()][];
+        collectTrips(graph, tripStops, tripArrivals, tripDepartures);
+
+        // Group trips with the same stop sequence, ordered by their first departure
+        HashMap<List<Integer>, ArrayList<Integer>> tripsBySequence = new HashMap<List<Integer>, ArrayList<Integer>>();
+        for (int trip = 0; trip < tripStops.length; trip++) {
+            if (tripStops[trip] == null) {
+                continue;
+            }
+            List<Integer> sequence = new ArrayList<Integer>();
+            for (int stop : tripStops[trip]) {
+                sequence.add(stop);
+            }
+            tripsBySequence.computeIfAbsent(sequence, key -> new ArrayList<Integer>()).add(trip);
+        }
+
+        // Split every group into patterns in which no trip overtakes another
+        ArrayList<int[]> patterns = new ArrayList<int[]>();
+        ArrayList<ArrayList<Integer>> patternTripLists = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> trips : tripsBySequence.values()) {
+            trips.sort((Integer t1, Integer t2) -> Integer.compare(tripDepartures[t1][0], tripDepartures[t2][0]));
+            int firstPattern = patterns.size();
+            for (int trip : trips) {
+                int pattern = firstPattern;
+                while (pattern < patterns.size() && overtakes(trip,
+                        patternTripLists.get(pattern).get(patternTripLists.get(pattern).size() - 1), tripArrivals,
+                        tripDepartures)) {
+                    pattern++;
+                }
+                if (pattern == patterns.size()) {
+                    patterns.add(tripStops[trip]);
+                    patternTripLists.add(new ArrayList<Integer>());
+                }
+                patternTripLists.get(pattern).add(trip);
+            }
+        }
+
+        pack(graph.getStopCount(), patterns, patternTripLists, tripArrivals, tripDepartures);
+    }
+
+    /**
+     * Reconstructs the stop sequence and stop times of every trip from the edges
+     * of the graph
+     *
+     * @param graph          the graph
+     * @param tripStops      filled with the stops of every trip, trips without
+     *                       edges are left null
+     * @param tripArrivals   filled with the arrival time at every stop of a trip
+     * @param tripDepartures filled with the departure time at every stop of a trip
+     */
+    private void collectTrips(GTFSGraph graph, int[][] tripStops, int[][] tripArrivals, int[][] tripDepartures) {
+        int tripCount = graph.getTripCount();
+        int edgeCount = graph.getEdgeCount();
+
+        // Source stop of every edge
+        int[] edgeSource = new int[edgeCount];
+        for (int stop = 0; stop < graph.getStopCount(); stop++) {
+            for (int e = graph.getEdgeStart(stop); e < graph.getEdgeEnd(stop); e++) {
+                edgeSource[e] = stop;
+            }
+        }
+
+        // Order the edges of every trip by departure time
+        int maxDeparture = 0;
+        int[] order = new int[edgeCount];
+        int[] edgeTrip = new int[edgeCount];
+        int[] edgeDeparture = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            order[e] = e;
+            edgeTrip[e] = graph.getEdgeTrip(e);
+            edgeDeparture[e] = graph.getEdgeDeparture(e);
+            maxDeparture = Math.max(maxDeparture, edgeDeparture[e]);
+        }
+        order = GTFSGraphBuilder.sortByKey(order, edgeDeparture, maxDeparture + 1);
+        order = GTFSGraphBuilder.sortByKey(order, edgeTrip, tripCount);
+
+        int first = 0;
+        while (first < edgeCount) {
+            int trip = edgeTrip[order[first]];
+            int last = first;
+            while (last < edgeCount && edgeTrip[order[last]] == trip) {
+                last++;
+            }
+
+            chainTripEdges(order, first, last, edgeSource, edgeDeparture, graph);
+
+            int length = last - first + 1;
+            int[] stops = new int[length];
+            int[] arrivals = new int[length];
+            int[] departures = new int[length];
+            stops[0] = edgeSource[order[first]];
+            arrivals[0] = edgeDeparture[order[first]];
+            for (int i = first; i < last; i++) {
+                int position = i - first;
+                departures[position] = edgeDeparture[order[i]];
+                stops[position + 1] = graph.getEdgeTarget(order[i]);
+                arrivals[position + 1] = graph.getEdgeArrival(order[i]);
+            }
+            departures[length - 1] = arrivals[length - 1];
+
+            tripStops[trip] = stops;
+            tripArrivals[trip] = arrivals;
+            tripDepartures[trip] = departures;
+            first = last;
+        }
+    }
+
+    /**
+     * Reorders edges of one trip that depart at the same time so that every edge
+     * starts where the previous one ended. Hops with zero travel time share their
+     * departure time with the next hop, so sorting by time alone cannot order them
+     *
+     * @param order         the edge ids, sorted by trip and departure time
+     * @param first         the first position of the trip's edges in order
+     * @param last          the position after the trip's last edge in order
+     * @param edgeSource    the source stop of every edge
+     * @param edgeDeparture the departure time of every edge
+     * @param graph         the graph
+     */
+    private void chainTripEdges(int[] order, int first, int last, int[] edgeSource, int[] edgeDeparture,
+            GTFSGraph graph) {
+        // The trip starts at the tied edge whose source no other tied edge arrives at
+        for (int i = first; i < last && edgeDeparture[order[i]] == edgeDeparture[order[first]]; i++) {
+            boolean reachedByOther = false;
+            for (int j = first; j < last && edgeDeparture[order[j]] == edgeDeparture[order[first]]; j++) {
+                if (j != i && graph.getEdgeTarget(order[j]) == edgeSource[order[i]]) {
+                    reachedByOther = true;
+                }
+            }
+            if (!reachedByOther) {
+                swap(order, first, i);
+                break;
+            }
+        }
+
+        // Every following edge must leave from the stop the previous one arrived at
+        for (int i = first + 1; i < last; i++) {
+            int expected = graph.getEdgeTarget(order[i - 1]);
+            for (int j = i; j < last && edgeDeparture[order[j]] == edgeDeparture[order[i]]; j++) {
+                if (edgeSource[order[j]] == expected) {
+                    swap(order, i, j);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Swaps two entries of an array
+     *
+     * @param values the array
+     * @param i      the first position
+     * @param j      the second position
+     */
+    private void swap(int[] values, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * Checks whether a trip overtakes, or is overtaken by, an earlier trip of the
+     * same stop sequence
+     *
+     * @param trip           the later trip
+     * @param earlierTrip    the earlier trip
+     * @param tripArrivals   the arrival times of every trip
+     * @param tripDepartures the departure times of every trip
+     * @return true if the two trips cannot share a pattern
+     */
+    private boolean overtakes(int trip, int earlierTrip, int[][] tripArrivals, int[][] tripDepartures) {
+        for (int position = 0; position < tripArrivals[trip].length; position++) {
+            if (tripArrivals[trip][position] < tripArrivals[earlierTrip][position]
+                    || tripDepartures[trip][position] < tripDepartures[earlierTrip][position]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Packs the patterns into the flat arrays
+     *
+     * @param stopCount        the number of stops in the graph
+     * @param patterns         the stop sequence of every pattern
+     * @param patternTripLists the trips of every pattern ordered by departure
+     * @param tripArrivals     the arrival times of every trip
+     * @param tripDepartures   the departure times of every trip
+     */
+    private void pack(int stopCount, ArrayList<int[]> patterns, ArrayList<ArrayList<Integer>> patternTripLists,
+            int[][] tripArrivals, int[][] tripDepartures) {
+        int patternCount = patterns.size();
+        patternStopStart = new int[patternCount + 1];
+        patternTripStart = new int[patternCount + 1];
+        int timeCount = 0;
+        for (int p = 0; p < patternCount; p++) {
+            int length = patterns.get(p).length;
+            int trips = patternTripLists.get(p).size();
+            patternStopStart[p + 1] = patternStopStart[p] + length;
+            patternTripStart[p + 1] = patternTripStart[p] + trips;
+            timeCount += length * trips;
+        }
+
+        patternStops = new int[patternStopStart[patternCount]];
+        patternTrips = new int[patternTripStart[patternCount]];
+        tripPatterns = new int[patternTrips.length];
+        tripTimeStart = new int[patternTrips.length];
+        arrivalTimes = new int[timeCount];
+        departureTimes = new int[timeCount];
+        int[] stopPatternCount = new int[stopCount + 1];
+
+        int time = 0;
+        for (int p = 0; p < patternCount; p++) {
+            int[] stops = patterns.get(p);
+            System.arraycopy(stops, 0, patternStops, patternStopStart[p], stops.length);
+            for (int stop : stops) {
+                stopPatternCount[stop + 1]++;
+            }
+
+            int patternTrip = patternTripStart[p];
+            for (int trip : patternTripLists.get(p)) {
+                patternTrips[patternTrip] = trip;
+                tripPatterns[patternTrip] = p;
+                tripTimeStart[patternTrip] = time;
+                System.arraycopy(tripArrivals[trip], 0, arrivalTimes, time, stops.length);
+                System.arraycopy(tripDepartures[trip], 0, departureTimes, time, stops.length);
+                time += stops.length;
+                patternTrip++;
+            }
+        }
+
+        // Index the patterns by stop
+        stopPatternStart = new int[stopCount + 1];
+        for (int s = 0; s < stopCount; s++) {
+            stopPatternStart[s + 1] = stopPatternStart[s] + stopPatternCount[s + 1];
+        }
+        stopPatterns = new int[stopPatternStart[stopCount]];
+        stopPatternPositions = new int[stopPatternStart[stopCount]];
+        int[] cursor = Arrays.copyOf(stopPatternStart, stopCount);
+        for (int p = 0; p < patternCount; p++) {
+            for (int i = patternStopStart[p]; i < patternStopStart[p + 1]; i++) {
+                int slot = cursor[patternStops[i]]++;
+                stopPatterns[slot] = p;
+                stopPatternPositions[slot] = i - patternStopStart[p];
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of patterns
+     *
+     * @return the number of patterns
+     */
+    public int getPatternCount() {
+        return patternStopStart.length - 1;
+    }
+
+    /**
+     * Retrieves the number of stops of a pattern
+     *
+     * @param pattern the pattern index
+     * @return the number of stops the pattern visits
+     */
+    public int getPatternLength(int pattern) {
+        return patternStopStart[pattern + 1] - patternStopStart[pattern];
+    }
+
+    /**
+     * Retrieves the stop at a position of a pattern
+     *
+     * @param pattern  the pattern index
+     * @param position the position in the pattern
+     * @return the stop index
+     */
+    public int getPatternStop(int pattern, int position) {
+        return patternStops[patternStopStart[pattern] + position];
+    }
+
+    /**
+     * Retrieves the first trip of a pattern. Pattern trips are numbered across all
+     * patterns and ordered by departure within a pattern
+     *
+     * @param pattern the pattern index
+     * @return the first pattern trip
+     */
+    public int getTripStart(int pattern) {
+        return patternTripStart[pattern];
+    }
+
+    /**
+     * Retrieves the end of the trip range of a pattern
+     *
+     * @param pattern the pattern index
+     * @return the pattern trip after the last trip of the pattern
+     */
+    public int getTripEnd(int pattern) {
+        return patternTripStart[pattern + 1];
+    }
+
+    /**
+     * Retrieves the number of pattern trips across all patterns
+     *
+     * @return the number of pattern trips
+     */
+    public int getPatternTripCount() {
+        return patternTrips.length;
+    }
+
+    /**
+     * Retrieves the graph trip index of a pattern trip
+     *
+     * @param patternTrip the pattern trip
+     * @return the trip index in the graph
+     */
+    public int getTrip(int patternTrip) {
+        return patternTrips[patternTrip];
+    }
+
+    /**
+     * Retrieves the pattern a pattern trip belongs to
+     *
+     * @param patternTrip the pattern trip
+     * @return the pattern index
+     */
+    public int getTripPattern(int patternTrip) {
+        return tripPatterns[patternTrip];
+    }
+
+    /**
+     * Retrieves the arrival time of a pattern trip at a position of its pattern
+     *
+     * @param patternTrip the pattern trip
+     * @param position    the position in the pattern
+     * @return the arrival time in seconds of the day
+     */
+    public int getArrivalTime(int patternTrip, int position) {
+        return arrivalTimes[tripTimeStart[patternTrip] + position];
+    }
+
+    /**
+     * Retrieves the departure time of a pattern trip at a position of its pattern
+     *
+     * @param patternTrip the pattern trip
+     * @param position    the position in the pattern
+     * @return the departure time in seconds of the day
+     */
+    public int getDepartureTime(int patternTrip, int position) {
+        return departureTimes[tripTimeStart[patternTrip] + position];
+    }
+
+    /**
+     * Finds the first trip of a pattern that departs from a position at or after
+     * the given time
+     *
+     * @param pattern       the pattern index
+     * @param position      the position in the pattern
+     * @param departureTime the earliest departure time in seconds of the day
+     * @return the pattern trip, or -1 if no trip departs at or after the time
+     */
+    public int findEarliestTrip(int pattern, int position, int departureTime) {
+        // Trips of a pattern never overtake, so departures are sorted at every position
+        int low = patternTripStart[pattern];
+        int high = patternTripStart[pattern + 1];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getDepartureTime(middle, position) < departureTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low == patternTripStart[pattern + 1] ? -1 : low;
+    }
+
+    /**
+     * Finds the first trip of a pattern that departs from a position at or after
+     * the given time and is in a set of running pattern trips. Trips of a pattern
+     * never overtake, so it is also the trip arriving earliest further on
+     *
+     * @param pattern             the pattern index
+     * @param position            the position in the pattern
+     * @param departureTime       the earliest departure time in seconds since the
+     *                            start of the service day
+     * @param runningPatternTrips the running pattern trips, see
+     *                            getRunningPatternTrips
+     * @return the pattern trip, or -1 if no running trip departs at or after the
+     *         time
+     */
+    public int findEarliestTrip(int pattern, int position, int departureTime, long[] runningPatternTrips) {
+        int trip = findEarliestTrip(pattern, position, departureTime);
+        if (trip == -1) {
+            return -1;
+        }
+        while (trip < patternTripStart[pattern + 1] && (runningPatternTrips[trip >>> 6] & (1L << trip)) == 0) {
+            trip++;
+        }
+        return trip == patternTripStart[pattern + 1] ? -1 : trip;
+    }
+
+    /**
+     * Finds the running trip that reaches a stop earliest from another stop
+     * without transferring, boarding at or after the given time. The pattern
+     * entries of both stops are ordered by pattern, so the patterns serving both
+     * are found by merging the two lists. In every such pattern that visits the
+     * from stop before the to stop, the earliest running trip is found with a
+     * binary search, and as trips of a pattern never overtake it is also the one
+     * arriving earliest
+     *
+     * @param fromStop            the stop index to board at
+     * @param toStop              the stop index to alight at
+     * @param departureTime       the earliest departure time in seconds since the
+     *                            start of the service day
+     * @param runningPatternTrips the running pattern trips, see
+     *                            getRunningPatternTrips
+     * @return the pattern trip, the position it is boarded at and the position it
+     *         is left at, or null if no running trip connects the stops
+     */
+    public int[] findEarliestDirectTrip(int fromStop, int toStop, int departureTime, long[] runningPatternTrips) {
+        int[] best = null;
+        int bestArrival = Integer.MAX_VALUE;
+
+        int fromEntry = stopPatternStart[fromStop];
+        int toEntry = stopPatternStart[toStop];
+        while (fromEntry < stopPatternStart[fromStop + 1] && toEntry < stopPatternStart[toStop + 1]) {
+            int pattern = stopPatterns[fromEntry];
+            if (pattern < stopPatterns[toEntry]) {
+                fromEntry++;
+                continue;
+            }
+            if (pattern > stopPatterns[toEntry]) {
+                toEntry++;
+                continue;
+            }
+
+            // A pattern visiting a stop more than once has consecutive entries for it
+            int fromEnd = fromEntry;
+            while (fromEnd < stopPatternStart[fromStop + 1] && stopPatterns[fromEnd] == pattern) {
+                fromEnd++;
+            }
+            int toEnd = toEntry;
+            while (toEnd < stopPatternStart[toStop + 1] && stopPatterns[toEnd] == pattern) {
+                toEnd++;
+            }
+
+            for (int from = fromEntry; from < fromEnd; from++) {
+                int boardPosition = stopPatternPositions[from];
+                int trip = findEarliestTrip(pattern, boardPosition, departureTime, runningPatternTrips);
+                if (trip == -1) {
+                    continue;
+                }
+                for (int to = toEntry; to < toEnd; to++) {
+                    int alightPosition = stopPatternPositions[to];
+                    if (alightPosition > boardPosition && getArrivalTime(trip, alightPosition) < bestArrival) {
+                        bestArrival = getArrivalTime(trip, alightPosition);
+                        best = new int[] { trip, boardPosition, alightPosition };
+                    }
+                }
+            }
+
+            fromEntry = fromEnd;
+            toEntry = toEnd;
+        }
+        return best;
+    }
+
+    /**
+     * Converts a set of running graph trips into the set of running pattern trips
+     *
+     * @param runningTrips the running trips, see GTFSGraph.getRunningTrips
+     * @return one bit per pattern trip, set if the trip runs
+     */
+    public long[] getRunningPatternTrips(long[] runningTrips) {
+        long[] running = new long[(patternTrips.length + 63) >>> 6];
+        for (int patternTrip = 0; patternTrip < patternTrips.length; patternTrip++) {
+            int trip = patternTrips[patternTrip];
+            if ((runningTrips[trip >>> 6] & (1L << trip)) != 0) {
+                running[patternTrip >>> 6] |= 1L << patternTrip;
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Retrieves the first pattern entry of a stop
+     *
+     * @param stop the stop index
+     * @return the index of the first pattern entry of the stop
+     */
+    public int getStopPatternStart(int stop) {
+        return stopPatternStart[stop];
+    }
+
+    /**
+     * Retrieves the end of the pattern entry range of a stop
+     *
+     * @param stop the stop index
+     * @return the index after the last pattern entry of the stop
+     */
+    public int getStopPatternEnd(int stop) {
+        return stopPatternStart[stop + 1];
+    }
+
+    /**
+     * Retrieves the pattern of a stop pattern entry
+     *
+     * @param entry the stop pattern entry
+     * @return the pattern index
+     */
+    public int getStopPattern(int entry) {
+        return stopPatterns[entry];
+    }
+
+    /**
+     * Retrieves the position of the stop in the pattern of a stop pattern entry
+     *
+     * @param entry the stop pattern entry
+     * @return the position of the stop in the pattern
+     */
+    public int getStopPatternPosition(int entry) {
+        return stopPatternPositions[entry];
+    }
+
+}
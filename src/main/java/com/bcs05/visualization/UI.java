@@ -3,7 +3,8 @@ package com.bcs05.visualization;
 import com.bcs05.engine.DistanceCalculator;
 import com.bcs05.engine.GTFSEngine;
 import com.bcs05.engine.GTFSEngineWithTransfers;
-import com.bcs05.engine.RoutingEngine;
+import com.bcs05.engine.RaptorEngine;
+import com.bcs05.engine.RouterService;
 import com.bcs05.engine.TimeCalculator;
 import com.bcs05.util.CoordHandler;
 import com.bcs05.util.Coordinates;
@@ -12,11 +13,12 @@ import com.bcs05.util.PathCoordinates;
 import com.bcs05.util.PathStop;
 import com.bcs05.util.PathTransfer;
 import com.bcs05.util.Route;
-import com.bcs05.util.RouteHandler;
 import com.bcs05.util.Transportation;
+import com.bcs05.util.Utils;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.graphhopper.ResponsePath;
 import com.bcs05.data.PostalCodeAccessibility;
 
 import java.awt.BorderLayout;
@@ -401,9 +403,10 @@ public class UI extends JFrame {
         Coordinates origin = CoordHandler.getCoordinates(fromPostal);
         Coordinates destination = CoordHandler.getCoordinates(toPostal);
 
-        RoutingEngine routeEngine = new RoutingEngine(getTransportationMode(mode));
-        distance = RouteHandler.getDistanceRoute(mode, origin, destination);
-        return routeEngine.getPoints(origin, destination);
+        // Route once for both the distance and the points
+        ResponsePath route = RouterService.getInstance().route(getTransportationMode(mode), origin, destination);
+        distance = route.getDistance();
+        return Utils.pointListToArrayList(route.getPoints());
     }
 
     /**
@@ -415,7 +418,7 @@ public class UI extends JFrame {
      */
 
     private List<Coordinates> generateRouteTransfers(String fromPostal, String toPostal, int range) {
-        GTFSEngineWithTransfers engine = new GTFSEngineWithTransfers();
+        GTFSEngineWithTransfers engine = new RaptorEngine();
         PathTransfer route = engine.findPathWithTransfers(fromPostal, toPostal, range / 100.0);
         this.routeTransfers = route;
         // distance = route.getDistance();
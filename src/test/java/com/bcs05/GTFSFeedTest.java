@@ -0,0 +1,172 @@
+package com.bcs05;
+
+import com.bcs05.data.GTFSFeed;
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.Route;
+import com.bcs05.util.ShapeCache;
+import com.bcs05.util.TransitCatalogue;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+
+public class GTFSFeedTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 5, 14);
+
+    /**
+     * Writes a small GTFS zip with two trips on one route, one of them not running
+     * on the test day. The files have a byte order mark, quoted fields, Windows
+     * line endings and rows out of order
+     *
+     * @return the zip file
+     * @throws IOException if the file cannot be written
+     */
+    private File writeFeed() throws IOException {
+        return new TestFeed()
+                .file("calendar_dates.txt", "service_id,date,exception_type\n"
+                        + "weekday,20240514,1\n"
+                        + "sunday,20240519,1\n")
+                .file("routes.txt", "route_id,route_short_name,route_long_name\r\n"
+                        + "r1,1,\"Station, Centrum\"\r\n")
+                .file("trips.txt", "route_id,service_id,trip_id,shape_id\n"
+                        + "r1,weekday,t1,s1\n"
+                        + "r1,sunday,t2,s1\n")
+                .file("stops.txt", "\uFEFFstop_id,stop_name,stop_lat,stop_lon\n"
+                        + "a,\"Stop \"\"A\"\"\",50.85,5.69\n"
+                        + "b,Stop B,50.86,5.70\n"
+                        + "c,Stop C,50.87,5.71\n")
+                // Stop times out of order, and one after midnight that is left out
+                .file("stop_times.txt", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                        + "t1,08:05:00,08:05:00,b,2\n"
+                        + "t1,08:00:00,08:00:00,a,1\n"
+                        + "t1,08:12:00,08:12:00,c,3\n"
+                        + "t1,24:10:00,24:10:00,a,4\n"
+                        + "t2,09:00:00,09:00:00,a,1\n"
+                        + "t2,09:05:00,09:05:00,b,2\n")
+                .file("shapes.txt", "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence,shape_dist_traveled\n"
+                        + "s1,50.86,5.70,2,1200.5\n"
+                        + "s1,50.85,5.69,1,0\n")
+                .writeZip();
+    }
+
+    @Test
+    public void testBuildsGraphOfAllTrips() throws IOException {
+        GTFSFeed feed = GTFSFeed.load(writeFeed());
+        GTFSGraph graph = feed.getGraph();
+
+        assertEquals(3, graph.getStopCount(), "Every stop of a trip should be in the graph");
+        assertEquals(2, graph.getTripCount(), "Trips of every service day should be in the graph");
+        assertEquals(4, graph.getEdgeCount(), "The stop time after midnight should be kept");
+
+        int a = graph.getStopIndex("a");
+        int b = graph.getStopIndex("b");
+        int c = graph.getStopIndex("c");
+        assertEquals(2, graph.getEdgeEnd(a) - graph.getEdgeStart(a), "Stop a should have two departures");
+        int edge = graph.getEdgeStart(a);
+        assertEquals(b, graph.getEdgeTarget(edge), "The trip should go from a to b");
+        assertEquals(8 * 3600, graph.getEdgeDeparture(edge), "The departure should be 08:00");
+        assertEquals(8 * 3600 + 5 * 60, graph.getEdgeArrival(edge), "The arrival should be 08:05");
+        assertEquals("r1", graph.getRouteId(graph.getTripRoute(graph.getEdgeTrip(edge))),
+                "The trip should keep its route");
+        assertEquals(50.85, graph.getStopLatitude(a), 1e-9, "The stop should keep its location");
+
+        int lateEdge = graph.getEdgeStart(c);
+        assertEquals(24 * 3600 + 10 * 60, graph.getEdgeArrival(lateEdge),
+                "Times past midnight should count from the start of the service day");
+    }
+
+    @Test
+    public void testFiltersTripsByServiceDay() throws IOException {
+        GTFSGraph graph = GTFSFeed.load(writeFeed()).getGraph();
+        int a = graph.getStopIndex("a");
+        int group = graph.getNeighbourStart(a);
+
+        int edge = graph.findEarliestArrivalEdge(group, 8 * 3600 + 30 * 60, graph.getRunningTrips(DAY));
+        assertEquals(-1, edge, "The sunday trip should not run on the test day");
+
+        LocalDate sunday = LocalDate.of(2024, 5, 19);
+        edge = graph.findEarliestArrivalEdge(group, 8 * 3600 + 30 * 60, graph.getRunningTrips(sunday));
+        assertEquals("t2", graph.getTripId(graph.getEdgeTrip(edge)), "The sunday trip should run on sunday");
+        assertFalse(graph.isTripRunning(graph.getEdgeTrip(edge), DAY), "The trip should only run on its days");
+        assertFalse(graph.isTripRunning(graph.getEdgeTrip(edge), LocalDate.of(2030, 1, 1)),
+                "No trip should run outside the calendar");
+    }
+
+    @Test
+    public void testKeepsRunningTripsOfSeveralDays() throws IOException {
+        GTFSGraph graph = GTFSFeed.load(writeFeed()).getGraph();
+        LocalDate sunday = LocalDate.of(2024, 5, 19);
+
+        long[] weekdayTrips = graph.getRunningTrips(DAY);
+        long[] sundayTrips = graph.getRunningTrips(sunday);
+        long[] weekdayPatternTrips = graph.getRunningPatternTrips(DAY);
+        long[] sundayPatternTrips = graph.getRunningPatternTrips(sunday);
+        assertSame(weekdayTrips, graph.getRunningTrips(DAY), "Alternating days should not recompute the trips");
+        assertSame(sundayTrips, graph.getRunningTrips(sunday), "Alternating days should not recompute the trips");
+        assertSame(weekdayPatternTrips, graph.getRunningPatternTrips(DAY),
+                "Alternating days should not recompute the pattern trips");
+        assertSame(sundayPatternTrips, graph.getRunningPatternTrips(sunday),
+                "Alternating days should not recompute the pattern trips");
+
+        // Days dropped to make room are computed again when asked for
+        for (int day = 1; day <= 20; day++) {
+            graph.getRunningTrips(DAY.plusDays(day));
+        }
+        int t1 = graph.getEdgeTrip(graph.getEdgeStart(graph.getStopIndex("b")));
+        long[] running = graph.getRunningTrips(DAY);
+        assertEquals("t1", graph.getTripId(t1), "Stop b should be left by t1");
+        assertTrue((running[t1 >>> 6] & (1L << t1)) != 0, "The weekday trip should still run on the test day");
+    }
+
+    @Test
+    public void testReadsDictionaries() throws IOException {
+        GTFSFeed feed = GTFSFeed.load(writeFeed());
+
+        assertEquals("Stop \"A\"", feed.getStopName(feed.getStopIndex("a")), "Quoted names should be unescaped");
+        assertEquals("Station, Centrum", feed.getRouteLongName(feed.getRouteIndex("r1")),
+                "Quoted commas should not split fields");
+
+        int shape = feed.getTripShape(feed.getTripIndex("t2"));
+        assertEquals(2, feed.getShapeEnd(shape) - feed.getShapeStart(shape), "The shape should have two points");
+        assertEquals(0, feed.getShapeDistance(feed.getShapeStart(shape)), 1e-9,
+                "Shape points should be in sequence order");
+        assertEquals(1200.5, feed.getShapeDistance(feed.getShapeStart(shape) + 1), 1e-9,
+                "Decimals should be parsed");
+    }
+
+    @Test
+    public void testSnapshotKeepsNames() throws IOException {
+        GTFSGraph graph = GTFSFeed.load(writeFeed()).getGraph();
+        File file = File.createTempFile("gtfs-graph", ".bin");
+        file.deleteOnExit();
+        graph.writeSnapshot(file);
+
+        GTFSGraph snapshotGraph = GTFSGraph.readSnapshot(file);
+        assertNotNull(snapshotGraph, "The snapshot should be readable");
+        assertEquals(graph.getEdgeCount(), snapshotGraph.getEdgeCount(), "The snapshot should keep every edge");
+
+        TransitCatalogue catalogue = snapshotGraph.getCatalogue();
+        assertEquals("Stop \"A\"", catalogue.getStopName("a"), "The snapshot should keep the stop names");
+        assertEquals("Stop B", catalogue.getStopName("b"), "The snapshot should keep the stop names");
+        Route route = catalogue.getRoute("t1");
+        assertEquals("1", route.getRouteShortName(), "The snapshot should keep the route short names");
+        assertEquals("Station, Centrum", route.getRouteLongName(), "The snapshot should keep the route long names");
+    }
+
+    @Test
+    public void testShapeCacheSlicesLegs() throws IOException {
+        ShapeCache cache = ShapeCache.fromFeed(GTFSFeed.load(writeFeed()));
+
+        // The feed has no distances in stop_times.txt, so the stops are placed at
+        // the nearest shape points
+        double[] leg = cache.getLegPoints("t2", "a", "b");
+        assertEquals(6, leg.length, "The leg should cover both shape points");
+        assertEquals(50.85, leg[0], 1e-9, "The leg should start at the first stop");
+        assertEquals(1200.5, leg[5], 1e-9, "The leg should keep the distances of the shape");
+        assertEquals(0, cache.getLegPoints("t2", "b", "a").length, "A leg should not run backwards");
+        assertEquals(0, cache.getLegPoints("unknown", "a", "b").length, "Unknown trips should have no geometry");
+    }
+}
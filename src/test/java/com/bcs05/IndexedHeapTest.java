@@ -0,0 +1,57 @@
+package com.bcs05;
+
+import com.bcs05.engine.IndexedHeap;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class IndexedHeapTest {
+
+    @Test
+    public void testPollsInKeyOrder() {
+        Random random = new Random(5);
+        IndexedHeap heap = new IndexedHeap(500);
+        int[] keys = new int[500];
+        Arrays.fill(keys, Integer.MAX_VALUE);
+
+        // Add every item once and lower some keys afterwards
+        for (int item = 0; item < 500; item++) {
+            keys[item] = random.nextInt(10000);
+            heap.addOrDecrease(item, keys[item]);
+        }
+        for (int i = 0; i < 1000; i++) {
+            int item = random.nextInt(500);
+            int key = random.nextInt(10000);
+            heap.addOrDecrease(item, key);
+            keys[item] = Math.min(keys[item], key);
+        }
+
+        assertEquals(500, heap.size(), "Every item should be in the heap once");
+
+        int previousKey = Integer.MIN_VALUE;
+        while (!heap.isEmpty()) {
+            int key = heap.peekKey();
+            int item = heap.poll();
+            assertEquals(keys[item], key, "The heap should keep the lowest key of an item");
+            assertTrue(key >= previousKey, "Items should be polled in key order");
+            assertFalse(heap.contains(item), "A polled item should leave the heap");
+            previousKey = key;
+        }
+    }
+
+    @Test
+    public void testClear() {
+        IndexedHeap heap = new IndexedHeap(10);
+        heap.addOrDecrease(3, 30);
+        heap.addOrDecrease(7, 70);
+        heap.clear();
+
+        assertTrue(heap.isEmpty(), "The heap should be empty after clearing");
+        assertFalse(heap.contains(3), "Cleared items should not be in the heap");
+
+        heap.addOrDecrease(7, 5);
+        assertEquals(7, heap.poll(), "The heap should be usable after clearing");
+    }
+}
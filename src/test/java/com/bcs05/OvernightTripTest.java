@@ -0,0 +1,106 @@
+package com.bcs05;
+
+import com.bcs05.engine.ConnectionScanEngine;
+import com.bcs05.engine.GTFSEngineWithTransfers;
+import com.bcs05.engine.RaptorEngine;
+import com.bcs05.util.BusTransferResult;
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.PathTransferStop;
+import com.bcs05.util.Stop;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+
+public class OvernightTripTest {
+
+    private static final LocalDateTime QUERY = LocalDateTime.of(2024, 5, 14, 0, 10);
+
+    /**
+     * Loads a feed with a trip of the previous service day leaving at 24:30 and a
+     * trip of the queried day leaving in the morning
+     *
+     * @return the graph
+     * @throws IOException if the feed cannot be written or read
+     */
+    private GTFSGraph loadGraph() throws IOException {
+        return new TestFeed()
+                .stop("a", 50.85, 5.69)
+                .stop("b", 50.86, 5.70)
+                .service("monday", LocalDate.of(2024, 5, 13))
+                .service("tuesday", LocalDate.of(2024, 5, 14))
+                .trip("late", "r1", "monday", "a 24:30", "b 24:40")
+                .trip("early", "r1", "tuesday", "a 06:00", "b 06:10")
+                .loadGraph();
+    }
+
+    private ArrayList<Stop> stops(String stopId) {
+        ArrayList<Stop> stops = new ArrayList<Stop>();
+        stops.add(new Stop(stopId));
+        return stops;
+    }
+
+    /**
+     * Checks that a journey takes the trip of the previous service day
+     *
+     * @param result the journey found at 00:10
+     * @param engine the name of the engine, for the messages
+     */
+    private void assertTakesLateTrip(BusTransferResult result, String engine) {
+        assertNotNull(result, engine + " should find a path after midnight");
+        assertEquals(LocalTime.of(0, 40), result.getArrivalTime(),
+                engine + " should take the trip of the previous service day");
+        assertEquals(Duration.ofMinutes(30), result.getTravelTime(), engine + " should wait until 00:30");
+        boolean usesLateTrip = false;
+        for (PathTransferStop stop : result.getStops()) {
+            usesLateTrip |= "late".equals(stop.getTripId());
+        }
+        assertTrue(usesLateTrip, engine + " should ride the late trip");
+    }
+
+    @Test
+    public void testDijkstraTakesTripOfPreviousDay() throws IOException {
+        GTFSGraph graph = loadGraph();
+        GTFSEngineWithTransfers engine = new GTFSEngineWithTransfers(graph, false);
+
+        assertTakesLateTrip(engine.findBusPathWithTransfers(stops("a"), new int[] { 0 }, stops("b"),
+                new int[] { 0 }, QUERY), "Dijkstra");
+    }
+
+    @Test
+    public void testRaptorTakesTripOfPreviousDay() throws IOException {
+        GTFSGraph graph = loadGraph();
+        RaptorEngine engine = new RaptorEngine(graph, 3);
+
+        assertTakesLateTrip(engine.findBusPathWithTransfers(stops("a"), new int[] { 0 }, stops("b"),
+                new int[] { 0 }, QUERY), "RAPTOR");
+    }
+
+    @Test
+    public void testConnectionScanTakesTripOfPreviousDay() throws IOException {
+        GTFSGraph graph = loadGraph();
+        ConnectionScanEngine engine = new ConnectionScanEngine(graph);
+
+        assertTakesLateTrip(engine.findBusPathWithTransfers(stops("a"), new int[] { 0 }, stops("b"),
+                new int[] { 0 }, QUERY), "CSA");
+    }
+
+    @Test
+    public void testProfileMergesBothServiceDays() throws IOException {
+        GTFSGraph graph = loadGraph();
+        RaptorEngine engine = new RaptorEngine(graph, 3);
+
+        ArrayList<BusTransferResult> profile = engine.findBusProfileWithTransfers(stops("a"), new int[] { 0 },
+                stops("b"), new int[] { 0 }, QUERY, Duration.ofHours(8));
+        assertEquals(2, profile.size(), "Both trips should be in the profile");
+        assertEquals(LocalTime.of(0, 30), profile.get(0).getDepartureTime(),
+                "The late trip of the previous day should leave first");
+        assertEquals(LocalTime.of(6, 0), profile.get(1).getDepartureTime(),
+                "The morning trip should leave last");
+    }
+}
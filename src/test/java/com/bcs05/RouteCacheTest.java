@@ -0,0 +1,104 @@
+package com.bcs05;
+
+import com.bcs05.engine.RouteCache;
+import com.bcs05.util.Transportation;
+import com.graphhopper.ResponsePath;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.GHPoint;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RouteCacheTest {
+
+    /**
+     * Makes a route with a straight geometry between two points
+     *
+     * @param from the start
+     * @param to   the end
+     * @param time the travel time in milliseconds
+     * @return the route
+     */
+    private ResponsePath route(GHPoint from, GHPoint to, long time) {
+        PointList points = new PointList(2, false);
+        points.add(from.getLat(), from.getLon());
+        points.add(to.getLat(), to.getLon());
+        ResponsePath path = new ResponsePath();
+        path.setTime(time).setDistance(time / 1000.0).setPoints(points);
+        return path;
+    }
+
+    private GHPoint point(int i) {
+        return new GHPoint(50.85 + i * 0.001, 5.69 + i * 0.001);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RouteCache cache = new RouteCache(3);
+        for (int i = 0; i < 3; i++) {
+            cache.put(Transportation.FOOT, point(i), point(i + 1), route(point(i), point(i + 1), i));
+        }
+
+        // Using the eldest route makes the second one the least recently used
+        assertNotNull(cache.get(Transportation.FOOT, point(0), point(1)), "The first route should be cached");
+        cache.put(Transportation.FOOT, point(3), point(4), route(point(3), point(4), 3));
+
+        assertEquals(3, cache.getSize(), "The cache should not grow beyond its capacity");
+        assertEquals(1, cache.getEvictionCount(), "One route should be evicted");
+        assertNull(cache.get(Transportation.FOOT, point(1), point(2)),
+                "The least recently used route should be evicted");
+        assertNotNull(cache.get(Transportation.FOOT, point(0), point(1)), "A recently used route should be kept");
+        assertNotNull(cache.get(Transportation.FOOT, point(2), point(3)), "A newer route should be kept");
+        assertNotNull(cache.get(Transportation.FOOT, point(3), point(4)), "The new route should be cached");
+
+        // The first route has not been used since the lookups above
+        cache.put(Transportation.FOOT, point(4), point(5), route(point(4), point(5), 4));
+        assertNull(cache.get(Transportation.FOOT, point(0), point(1)),
+                "The route used longest ago should be evicted next");
+        assertEquals(2, cache.getEvictionCount(), "Two routes should be evicted");
+    }
+
+    @Test
+    public void testCountsHitsAndMisses() {
+        RouteCache cache = new RouteCache(10);
+        assertEquals(0, cache.getHitRate(), "The hit rate should be 0 before the first lookup");
+
+        assertNull(cache.get(Transportation.FOOT, point(0), point(1)), "An empty cache should miss");
+        cache.put(Transportation.FOOT, point(0), point(1), route(point(0), point(1), 1000));
+        assertNotNull(cache.get(Transportation.FOOT, point(0), point(1)), "A stored route should hit");
+        assertNotNull(cache.get(Transportation.FOOT, point(0), point(1)), "A stored route should hit again");
+        assertNull(cache.get(Transportation.BIKE, point(0), point(1)), "Another mode should miss");
+        assertNull(cache.get(Transportation.FOOT, point(1), point(0)), "The reverse direction should miss");
+
+        assertEquals(2, cache.getHitCount(), "Every hit should be counted");
+        assertEquals(3, cache.getMissCount(), "Every miss should be counted");
+        assertEquals(0.4, cache.getHitRate(), 1e-9, "The hit rate should be hits over lookups");
+        assertEquals(0, cache.getEvictionCount(), "Nothing should be evicted below the capacity");
+
+        cache.clear();
+        assertEquals(0, cache.getSize(), "Clearing should remove every route");
+        assertEquals(2, cache.getHitCount(), "Clearing should keep the metrics");
+    }
+
+    @Test
+    public void testKeepsGeometryToFixedPoint() {
+        RouteCache cache = new RouteCache(10);
+        PointList points = new PointList(3, false);
+        points.add(50.8512345678, 5.6912345678);
+        points.add(-33.8688197, 151.2092955);
+        points.add(0.0000004, -179.9999996);
+        ResponsePath path = new ResponsePath();
+        path.setTime(123456).setDistance(789.5).setPoints(points);
+        cache.put(Transportation.BIKE, point(0), point(1), path);
+
+        ResponsePath cached = cache.get(Transportation.BIKE, point(0), point(1));
+        assertEquals(123456, cached.getTime(), "The travel time should be kept");
+        assertEquals(789.5, cached.getDistance(), 1e-9, "The distance should be kept");
+        assertEquals(points.size(), cached.getPoints().size(), "Every point should be kept");
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(points.getLat(i), cached.getPoints().getLat(i), 0.5e-6,
+                    "Latitudes should be kept to a millionth of a degree");
+            assertEquals(points.getLon(i), cached.getPoints().getLon(i), 0.5e-6,
+                    "Longitudes should be kept to a millionth of a degree");
+        }
+    }
+}
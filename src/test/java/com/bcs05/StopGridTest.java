@@ -0,0 +1,164 @@
+package com.bcs05;
+
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.StopGrid;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+public class StopGridTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 5, 14);
+    private static final int STOP_COUNT = 500;
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    // Margin around a radius within which rounding may put a stop on either side
+    private static final double MARGIN_KM = 1e-9;
+
+    private static GTFSGraph graph;
+    private static StopGrid grid;
+
+    /**
+     * Loads a feed with one trip past randomly placed stops around Maastricht,
+     * some of them on the same spot, and one stop without a location
+     */
+    @BeforeAll
+    public static void loadGraph() throws IOException {
+        Random random = new Random(42);
+        TestFeed feed = new TestFeed().service("weekday", DAY);
+        String[] stopTimes = new String[STOP_COUNT + 1];
+        double latitude = 0;
+        double longitude = 0;
+        for (int i = 0; i < STOP_COUNT; i++) {
+            // Every tenth stop shares the location of the one before it
+            if (i % 10 != 1) {
+                latitude = 50.80 + random.nextDouble() * 0.12;
+                longitude = 5.62 + random.nextDouble() * 0.16;
+            }
+            feed.stop("s" + i, latitude, longitude);
+            stopTimes[i] = String.format("s%d %02d:%02d", i, 6 + i / 60, i % 60);
+        }
+        feed.stop("nowhere");
+        stopTimes[STOP_COUNT] = "nowhere 23:00";
+
+        graph = feed.trip("t1", "r1", "weekday", stopTimes).loadGraph();
+        grid = graph.getStopGrid();
+    }
+
+    /**
+     * Calculates the great-circle distance to a stop with the haversine formula
+     *
+     * @param latitude  the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @param stop      the stop index
+     * @return the distance in km
+     */
+    private static double haversine(double latitude, double longitude, int stop) {
+        double stopLatitude = graph.getStopLatitude(stop);
+        double stopLongitude = graph.getStopLongitude(stop);
+        double latitudeSine = Math.sin(Math.toRadians(stopLatitude - latitude) / 2);
+        double longitudeSine = Math.sin(Math.toRadians(stopLongitude - longitude) / 2);
+        double a = latitudeSine * latitudeSine + Math.cos(Math.toRadians(latitude))
+                * Math.cos(Math.toRadians(stopLatitude)) * longitudeSine * longitudeSine;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(a));
+    }
+
+    /**
+     * Calculates the distances to every stop with a location by scanning them all
+     *
+     * @param latitude  the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @return the distances in km in ascending order
+     */
+    private static double[] scanDistances(double latitude, double longitude) {
+        double[] distances = new double[graph.getStopCount()];
+        int count = 0;
+        for (int stop = 0; stop < graph.getStopCount(); stop++) {
+            if (!Double.isNaN(graph.getStopLatitude(stop))) {
+                distances[count++] = haversine(latitude, longitude, stop);
+            }
+        }
+        distances = Arrays.copyOf(distances, count);
+        Arrays.sort(distances);
+        return distances;
+    }
+
+    /**
+     * Checks that stops are listed nearest first
+     *
+     * @param latitude  the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @param stops     the stop indices found
+     */
+    private static void assertNearestFirst(double latitude, double longitude, int[] stops) {
+        for (int i = 1; i < stops.length; i++) {
+            assertTrue(haversine(latitude, longitude, stops[i - 1]) <= haversine(latitude, longitude, stops[i]) + 1e-6,
+                    "The stops should be ordered nearest first");
+        }
+    }
+
+    @Test
+    public void testRadiusQueryMatchesScan() {
+        Random random = new Random(7);
+        for (int query = 0; query < 200; query++) {
+            // Some locations lie outside the bounding box of the stops
+            double latitude = 50.75 + random.nextDouble() * 0.22;
+            double longitude = 5.55 + random.nextDouble() * 0.30;
+            double radius = random.nextDouble() * (query % 4 == 0 ? 8 : 1.5);
+
+            int[] stops = grid.findStopIndicesWithin(latitude, longitude, radius);
+            boolean[] found = new boolean[graph.getStopCount()];
+            for (int stop : stops) {
+                assertFalse(found[stop], "No stop should be listed twice");
+                found[stop] = true;
+                assertTrue(haversine(latitude, longitude, stop) < radius + MARGIN_KM,
+                        "Every stop found should lie within the radius");
+            }
+            for (int stop = 0; stop < graph.getStopCount(); stop++) {
+                if (!Double.isNaN(graph.getStopLatitude(stop))
+                        && haversine(latitude, longitude, stop) < radius - MARGIN_KM) {
+                    assertTrue(found[stop], "Every stop within the radius should be found");
+                }
+            }
+            assertNearestFirst(latitude, longitude, stops);
+        }
+    }
+
+    @Test
+    public void testNearestQueryMatchesScan() {
+        Random random = new Random(11);
+        int[] counts = { 1, 2, 5, 17, 64 };
+        for (int query = 0; query < 200; query++) {
+            double latitude = 50.75 + random.nextDouble() * 0.22;
+            double longitude = 5.55 + random.nextDouble() * 0.30;
+            int count = counts[query % counts.length];
+
+            int[] stops = grid.findNearestStopIndices(latitude, longitude, count);
+            double[] expected = scanDistances(latitude, longitude);
+            assertEquals(count, stops.length, "The number of stops asked for should be found");
+            for (int i = 0; i < stops.length; i++) {
+                assertEquals(expected[i], haversine(latitude, longitude, stops[i]), 1e-6,
+                        "The stops found should be the nearest ones");
+            }
+            assertNearestFirst(latitude, longitude, stops);
+        }
+    }
+
+    @Test
+    public void testLeavesOutStopsWithoutLocation() {
+        int nowhere = graph.getStopIndex("nowhere");
+        assertTrue(nowhere != -1, "The stop without a location should be in the graph");
+
+        int[] stops = grid.findNearestStopIndices(50.85, 5.7, STOP_COUNT + 1);
+        assertEquals(STOP_COUNT, stops.length, "Only stops with a location should be found");
+        for (int stop : stops) {
+            assertNotEquals(nowhere, stop, "The stop without a location should not be found");
+        }
+        assertEquals(0, grid.findStopIndicesWithin(50.85, 5.7, 0).length, "A zero radius should find nothing");
+    }
+}
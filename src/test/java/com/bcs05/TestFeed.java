@@ -0,0 +1,151 @@
+package com.bcs05;
+
+import com.bcs05.data.GTFSFeed;
+import com.bcs05.util.GTFSGraph;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Small GTFS feed shared by the tests. Stops, services and trips are added one
+ * by one and written to a GTFS zip, which is loaded without a database. Files
+ * can also be given as they are, to test how the reader copes with their
+ * contents
+ */
+public class TestFeed {
+
+    // Rows of the generated files
+    private final StringBuilder stops = new StringBuilder("stop_id,stop_name,stop_lat,stop_lon\n");
+    private final StringBuilder calendarDates = new StringBuilder("service_id,date,exception_type\n");
+    private final StringBuilder trips = new StringBuilder("route_id,service_id,trip_id\n");
+    private final StringBuilder stopTimes = new StringBuilder(
+            "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+    private final LinkedHashSet<String> routeIds = new LinkedHashSet<String>();
+
+    // Files given as they are, by file name
+    private final LinkedHashMap<String, String> files = new LinkedHashMap<String, String>();
+
+    /**
+     * Adds a stop
+     *
+     * @param stopId    the stop id
+     * @param latitude  the latitude in degrees
+     * @param longitude the longitude in degrees
+     * @return this feed
+     */
+    public TestFeed stop(String stopId, double latitude, double longitude) {
+        stops.append(stopId).append(",Stop ").append(stopId).append(',').append(latitude).append(',')
+                .append(longitude).append('\n');
+        return this;
+    }
+
+    /**
+     * Adds a stop without a location
+     *
+     * @param stopId the stop id
+     * @return this feed
+     */
+    public TestFeed stop(String stopId) {
+        stops.append(stopId).append(",Stop ").append(stopId).append(",,\n");
+        return this;
+    }
+
+    /**
+     * Adds a service running on the given days
+     *
+     * @param serviceId the service id
+     * @param days      the days the service runs
+     * @return this feed
+     */
+    public TestFeed service(String serviceId, LocalDate... days) {
+        for (LocalDate day : days) {
+            calendarDates.append(serviceId).append(',')
+                    .append(day.getYear() * 10000 + day.getMonthValue() * 100 + day.getDayOfMonth())
+                    .append(",1\n");
+        }
+        return this;
+    }
+
+    /**
+     * Adds a trip. Every stop time is written as the stop id and the time the bus
+     * is at the stop, for example "a 08:05"
+     *
+     * @param tripId    the trip id
+     * @param routeId   the route of the trip
+     * @param serviceId the service of the trip
+     * @param times     the stop times in the order they are visited
+     * @return this feed
+     */
+    public TestFeed trip(String tripId, String routeId, String serviceId, String... times) {
+        routeIds.add(routeId);
+        trips.append(routeId).append(',').append(serviceId).append(',').append(tripId).append('\n');
+        for (int i = 0; i < times.length; i++) {
+            String[] stopTime = times[i].split(" ");
+            String time = stopTime[1] + ":00";
+            stopTimes.append(tripId).append(',').append(time).append(',').append(time).append(',')
+                    .append(stopTime[0]).append(',').append(i + 1).append('\n');
+        }
+        return this;
+    }
+
+    /**
+     * Adds a file as it is, in place of the file generated from the stops,
+     * services and trips
+     *
+     * @param name    the file name
+     * @param content the file content
+     * @return this feed
+     */
+    public TestFeed file(String name, String content) {
+        files.put(name, content);
+        return this;
+    }
+
+    /**
+     * Writes the feed to a temporary GTFS zip
+     *
+     * @return the zip file
+     * @throws IOException if the file cannot be written
+     */
+    public File writeZip() throws IOException {
+        LinkedHashMap<String, String> content = new LinkedHashMap<String, String>();
+        StringBuilder routes = new StringBuilder("route_id,route_short_name,route_long_name\n");
+        for (String routeId : routeIds) {
+            routes.append(routeId).append(',').append(routeId).append(",Line ").append(routeId).append('\n');
+        }
+        content.put("calendar_dates.txt", calendarDates.toString());
+        content.put("routes.txt", routes.toString());
+        content.put("trips.txt", trips.toString());
+        content.put("stops.txt", stops.toString());
+        content.put("stop_times.txt", stopTimes.toString());
+        content.putAll(files);
+
+        File file = File.createTempFile("gtfs", ".zip");
+        file.deleteOnExit();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            for (Map.Entry<String, String> entry : content.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes the feed and loads the graph of its trips
+     *
+     * @return the graph
+     * @throws IOException if the feed cannot be written or read
+     */
+    public GTFSGraph loadGraph() throws IOException {
+        return GTFSFeed.load(writeZip()).getGraph();
+    }
+}
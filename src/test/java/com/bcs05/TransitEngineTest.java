@@ -0,0 +1,254 @@
+package com.bcs05;
+
+import com.bcs05.engine.ConnectionScanEngine;
+import com.bcs05.engine.GTFSEngineWithTransfers;
+import com.bcs05.engine.RaptorEngine;
+import com.bcs05.util.BusTransferResult;
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.Stop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+
+public class TransitEngineTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 5, 14);
+    private static final LocalDate SUNDAY = LocalDate.of(2024, 5, 19);
+
+    private static final String[] STOP_IDS = { "a", "b", "c", "d", "e" };
+
+    private GTFSGraph graph;
+
+    /**
+     * Lets the engines search a small timetable in which the fastest way from a
+     * to d changes bus at b on weekdays, while a sunday express goes straight
+     * there
+     */
+    @BeforeEach
+    public void loadFeed() throws IOException {
+        graph = new TestFeed()
+                .stop("a", 50.85, 5.69)
+                .stop("b", 50.86, 5.70)
+                .stop("c", 50.87, 5.71)
+                .stop("d", 50.88, 5.72)
+                .stop("e", 50.84, 5.68)
+                .service("weekday", DAY)
+                .service("sunday", SUNDAY)
+                .trip("t1", "r1", "weekday", "a 08:00", "b 08:10", "c 08:20", "d 08:40")
+                .trip("t2", "r2", "weekday", "b 08:12", "d 08:25")
+                .trip("t3", "r3", "weekday", "a 08:05", "d 08:52")
+                .trip("t4", "r1", "weekday", "a 08:30", "b 08:40", "c 08:50", "d 09:10")
+                .trip("t5", "r2", "weekday", "b 08:45", "d 08:55")
+                .trip("t6", "r3", "weekday", "a 08:20", "d 08:50")
+                .trip("t7", "r3", "sunday", "a 08:01", "d 08:15")
+                .trip("t8", "r4", "weekday", "e 07:58", "b 08:08")
+                .loadGraph();
+    }
+
+    private static ArrayList<Stop> stops(String... stopIds) {
+        ArrayList<Stop> stops = new ArrayList<Stop>();
+        for (String stopId : stopIds) {
+            stops.add(new Stop(stopId));
+        }
+        return stops;
+    }
+
+    /**
+     * Calculates when a path reaches the destination, walk from its last stop
+     * included
+     *
+     * @param result      the path
+     * @param endStopIds  the ids of the stops the path may end at
+     * @param egressTimes the walking time in seconds from every end stop
+     * @return the arrival at the destination
+     */
+    private static LocalTime arrivalAtDestination(BusTransferResult result, String[] endStopIds,
+            int[] egressTimes) {
+        String lastStopId = result.getStops().get(result.getStops().size() - 1).getStopId();
+        for (int i = 0; i < endStopIds.length; i++) {
+            if (endStopIds[i].equals(lastStopId)) {
+                return result.getArrivalTime().plusSeconds(egressTimes[i]);
+            }
+        }
+        throw new AssertionError("The path should end at an end stop");
+    }
+
+    /**
+     * Finds the path between two stops on a service day
+     *
+     * @param engine     the engine to search with
+     * @param from       the id of the start stop
+     * @param to         the id of the end stop
+     * @param serviceDay the service day
+     * @param departure  the time of departure
+     * @return the path found, or null if there is none
+     */
+    private static BusTransferResult search(GTFSEngineWithTransfers engine, String from, String to,
+            LocalDate serviceDay, LocalTime departure) {
+        return engine.findBusPathWithTransfers(stops(from), new int[] { 0 }, stops(to), new int[] { 0 },
+                serviceDay, departure);
+    }
+
+    /**
+     * Checks that an engine arrives as early as plain Dijkstra between every pair
+     * of stops, at departure times before, between and after the trips
+     *
+     * @param engine the engine to compare
+     * @param name   the name of the engine, for the messages
+     */
+    private void assertSameArrivalsAsDijkstra(GTFSEngineWithTransfers engine, String name) {
+        GTFSEngineWithTransfers dijkstra = new GTFSEngineWithTransfers(graph, false);
+        for (String from : STOP_IDS) {
+            for (String to : STOP_IDS) {
+                if (from.equals(to)) {
+                    continue;
+                }
+                for (int minute = 7 * 60 + 50; minute <= 9 * 60; minute += 5) {
+                    LocalTime departure = LocalTime.of(minute / 60, minute % 60);
+                    BusTransferResult expected = search(dijkstra, from, to, DAY, departure);
+                    BusTransferResult actual = search(engine, from, to, DAY, departure);
+                    String query = " from " + from + " to " + to + " at " + departure;
+                    if (expected == null) {
+                        assertNull(actual, name + " should find no path" + query);
+                    } else {
+                        assertNotNull(actual, name + " should find a path" + query);
+                        assertEquals(expected.getArrivalTime(), actual.getArrivalTime(),
+                                name + " should arrive as early as Dijkstra" + query);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDijkstraChangesBus() {
+        BusTransferResult result = search(new GTFSEngineWithTransfers(graph, false), "a", "d", DAY,
+                LocalTime.of(7, 55));
+
+        assertNotNull(result, "A path from a to d should be found");
+        assertEquals(LocalTime.of(8, 25), result.getArrivalTime(), "Changing at b should arrive earliest");
+    }
+
+    @Test
+    public void testSkipsTripsNotRunning() {
+        GTFSEngineWithTransfers[] engines = { new GTFSEngineWithTransfers(graph, false),
+                new RaptorEngine(graph, 5), new ConnectionScanEngine(graph) };
+        for (GTFSEngineWithTransfers engine : engines) {
+            String name = engine.getClass().getSimpleName();
+            assertEquals(LocalTime.of(8, 25), search(engine, "a", "d", DAY, LocalTime.of(7, 55)).getArrivalTime(),
+                    name + " should not take the sunday express on a weekday");
+            assertEquals(LocalTime.of(8, 15), search(engine, "a", "d", SUNDAY, LocalTime.of(7, 55)).getArrivalTime(),
+                    name + " should take the sunday express on sunday");
+            assertNull(search(engine, "e", "d", SUNDAY, LocalTime.of(7, 55)),
+                    name + " should find no path when no trip from e runs");
+        }
+
+        ArrayList<BusTransferResult> profile = new RaptorEngine(graph, 5).findBusProfileWithTransfers(stops("a"),
+                new int[] { 0 }, stops("d"), new int[] { 0 }, SUNDAY, LocalTime.of(7, 55), Duration.ofHours(1));
+        assertEquals(1, profile.size(), "Only the sunday express should run on sunday");
+        assertEquals(LocalTime.of(8, 1), profile.get(0).getDepartureTime(), "The express should leave at 08:01");
+    }
+
+    @Test
+    public void testRaptorMatchesDijkstra() {
+        assertSameArrivalsAsDijkstra(new RaptorEngine(graph, 5), "RAPTOR");
+    }
+
+    @Test
+    public void testConnectionScanMatchesDijkstra() {
+        assertSameArrivalsAsDijkstra(new ConnectionScanEngine(graph), "CSA");
+    }
+
+    @Test
+    public void testSearchesAllStartAndEndStopsAtOnce() {
+        GTFSEngineWithTransfers[] engines = { new GTFSEngineWithTransfers(graph, false),
+                new RaptorEngine(graph, 5), new ConnectionScanEngine(graph) };
+        String[] startStopIds = { "a", "e" };
+        String[] endStopIds = { "c", "d" };
+        int[] accessTimes = { 420, 0 };
+        int[][] egressTimeSets = { { 600, 0 }, { 600, 900 } };
+        LocalTime departure = LocalTime.of(7, 55);
+
+        for (GTFSEngineWithTransfers engine : engines) {
+            String name = engine.getClass().getSimpleName();
+            for (int[] egressTimes : egressTimeSets) {
+                // The best single pair of stops, walks included
+                LocalTime bestArrival = null;
+                for (int i = 0; i < startStopIds.length; i++) {
+                    for (int j = 0; j < endStopIds.length; j++) {
+                        BusTransferResult pair = engine.findBusPathWithTransfers(stops(startStopIds[i]),
+                                new int[] { accessTimes[i] }, stops(endStopIds[j]), new int[] { egressTimes[j] },
+                                DAY, departure);
+                        if (pair == null) {
+                            continue;
+                        }
+                        LocalTime arrival = pair.getArrivalTime().plusSeconds(egressTimes[j]);
+                        if (bestArrival == null || arrival.isBefore(bestArrival)) {
+                            bestArrival = arrival;
+                        }
+                    }
+                }
+
+                BusTransferResult result = engine.findBusPathWithTransfers(stops(startStopIds), accessTimes,
+                        stops(endStopIds), egressTimes, DAY, departure);
+                assertNotNull(result, name + " should find a path from any start stop");
+                assertEquals(bestArrival, arrivalAtDestination(result, endStopIds, egressTimes),
+                        name + " should be as fast as the best pair of stops");
+                assertEquals("e", result.getStops().get(0).getStopId(),
+                        name + " should start at e, as a is reached after its fast bus left");
+            }
+
+            BusTransferResult result = engine.findBusPathWithTransfers(stops(startStopIds), accessTimes,
+                    stops(endStopIds), egressTimeSets[1], DAY, departure);
+            assertEquals(LocalTime.of(8, 30), arrivalAtDestination(result, endStopIds, egressTimeSets[1]),
+                    name + " should walk the last part from c");
+            assertEquals("c", result.getStops().get(result.getStops().size() - 1).getStopId(),
+                    name + " should end at c when the walk from d is long");
+        }
+    }
+
+    @Test
+    public void testAStarMatchesDijkstra() {
+        GTFSEngineWithTransfers aStar = new GTFSEngineWithTransfers(graph, true);
+        assertTrue(graph.getMaxSpeed() > 0 && graph.getMaxSpeed() != Double.POSITIVE_INFINITY,
+                "The graph should give a speed bound, otherwise A* is plain Dijkstra");
+
+        assertSameArrivalsAsDijkstra(aStar, "A*");
+
+        // The bound to several end stops should include their walks
+        String[] endStopIds = { "c", "d" };
+        int[] egressTimes = { 600, 900 };
+        BusTransferResult expected = new GTFSEngineWithTransfers(graph, false).findBusPathWithTransfers(
+                stops("a", "e"), new int[] { 420, 0 }, stops(endStopIds), egressTimes, DAY, LocalTime.of(7, 55));
+        BusTransferResult actual = aStar.findBusPathWithTransfers(stops("a", "e"), new int[] { 420, 0 },
+                stops(endStopIds), egressTimes, DAY, LocalTime.of(7, 55));
+        assertEquals(arrivalAtDestination(expected, endStopIds, egressTimes),
+                arrivalAtDestination(actual, endStopIds, egressTimes),
+                "A* should be as fast as Dijkstra with walks to the destination");
+    }
+
+    @Test
+    public void testProfileKeepsOnlyJourneysNotBeatenByLaterOnes() {
+        ArrayList<BusTransferResult> profile = new RaptorEngine(graph, 5).findBusProfileWithTransfers(stops("a"),
+                new int[] { 0 }, stops("d"), new int[] { 0 }, DAY, LocalTime.of(7, 55), Duration.ofHours(1));
+
+        // The express leaving at 08:05 arrives after the one leaving at 08:20
+        LocalTime[][] expected = { { LocalTime.of(8, 0), LocalTime.of(8, 25) },
+                { LocalTime.of(8, 20), LocalTime.of(8, 50) }, { LocalTime.of(8, 30), LocalTime.of(8, 55) } };
+        assertEquals(expected.length, profile.size(), "Only the journeys worth taking should be listed");
+        GTFSEngineWithTransfers dijkstra = new GTFSEngineWithTransfers(graph, false);
+        for (int i = 0; i < expected.length; i++) {
+            BusTransferResult journey = profile.get(i);
+            assertEquals(expected[i][0], journey.getDepartureTime(), "The journeys should be ordered by departure");
+            assertEquals(expected[i][1], journey.getArrivalTime(), "Every journey should arrive as early as it can");
+            assertEquals(search(dijkstra, "a", "d", DAY, journey.getDepartureTime()).getArrivalTime(),
+                    journey.getArrivalTime(), "Every journey should arrive as early as Dijkstra leaving then");
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.bcs05;
+
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.TripPatterns;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+public class TripPatternsTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 5, 14);
+    private static final LocalDate SUNDAY = LocalDate.of(2024, 5, 19);
+
+    private static GTFSGraph graph;
+    private static TripPatterns patterns;
+
+    /**
+     * Loads a feed with one loop line that passes stop a twice, run by two
+     * weekday trips and a sunday trip in between
+     */
+    @BeforeAll
+    public static void loadGraph() throws IOException {
+        graph = new TestFeed()
+                .stop("a", 50.85, 5.69)
+                .stop("b", 50.86, 5.70)
+                .stop("c", 50.87, 5.71)
+                .stop("d", 50.88, 5.72)
+                .service("weekday", DAY)
+                .service("sunday", SUNDAY)
+                .trip("early", "r1", "weekday", loop(8, 0))
+                .trip("sunday", "r1", "sunday", loop(8, 2))
+                .trip("late", "r1", "weekday", loop(8, 30))
+                .loadGraph();
+        patterns = graph.getTripPatterns();
+    }
+
+    /**
+     * Gives the stop times of a trip along the loop a, b, c, a, d, 5 minutes apart
+     *
+     * @param hour   the hour of departure from a
+     * @param minute the minute of departure from a
+     * @return the stop times
+     */
+    private static String[] loop(int hour, int minute) {
+        String[] stopIds = { "a", "b", "c", "a", "d" };
+        String[] stopTimes = new String[stopIds.length];
+        for (int i = 0; i < stopIds.length; i++) {
+            stopTimes[i] = String.format("%s %02d:%02d", stopIds[i], hour, minute + 5 * i);
+        }
+        return stopTimes;
+    }
+
+    /**
+     * Finds the earliest direct trip between two stops
+     *
+     * @param from          the id of the stop to board at
+     * @param to            the id of the stop to alight at
+     * @param day           the service day
+     * @param departureTime the earliest departure in seconds of the day
+     * @return the pattern trip with its board and alight positions, or null
+     */
+    private static int[] findTrip(String from, String to, LocalDate day, int departureTime) {
+        return patterns.findEarliestDirectTrip(graph.getStopIndex(from), graph.getStopIndex(to), departureTime,
+                graph.getRunningPatternTrips(day));
+    }
+
+    private static String getTripId(int[] trip) {
+        return graph.getTripId(patterns.getTrip(trip[0]));
+    }
+
+    @Test
+    public void testLoopIsOnePattern() {
+        assertEquals(1, patterns.getPatternCount(), "Trips with the same stops should share a pattern");
+        assertEquals(5, patterns.getPatternLength(0), "The pattern should keep both visits of a");
+        int a = graph.getStopIndex("a");
+        assertEquals(2, patterns.getStopPatternEnd(a) - patterns.getStopPatternStart(a),
+                "Stop a should have an entry per visit");
+    }
+
+    @Test
+    public void testBoardsAtLaterVisitOfStop() {
+        // The early trip has left the first visit of a at 08:12, but not the second
+        int[] trip = findTrip("a", "d", DAY, 8 * 3600 + 12 * 60);
+
+        assertNotNull(trip, "A direct trip from a to d should be found");
+        assertEquals("early", getTripId(trip), "The trip still coming back to a should be taken");
+        assertEquals(3, trip[1], "The trip should be boarded at the second visit of a");
+        assertEquals(4, trip[2], "The trip should be left at d");
+        assertEquals(8 * 3600 + 20 * 60, patterns.getArrivalTime(trip[0], trip[2]), "The arrival should be 08:20");
+    }
+
+    @Test
+    public void testAlightsAtLaterVisitOfStop() {
+        int[] trip = findTrip("c", "a", DAY, 7 * 3600);
+
+        assertNotNull(trip, "A direct trip from c back to a should be found");
+        assertEquals("early", getTripId(trip), "The earliest trip should be taken");
+        assertEquals(2, trip[1], "The trip should be boarded at c");
+        assertEquals(3, trip[2], "The trip should be left at the visit of a after c");
+
+        assertNull(findTrip("d", "a", DAY, 7 * 3600), "No trip goes from d back to a");
+    }
+
+    @Test
+    public void testSkipsTripsNotRunning() {
+        int[] trip = findTrip("b", "d", DAY, 8 * 3600 + 6 * 60);
+        assertEquals("late", getTripId(trip), "The sunday trip should not be taken on a weekday");
+        assertEquals(8 * 3600 + 50 * 60, patterns.getArrivalTime(trip[0], trip[2]), "The arrival should be 08:50");
+
+        trip = findTrip("b", "d", SUNDAY, 8 * 3600 + 6 * 60);
+        assertEquals("sunday", getTripId(trip), "The sunday trip should be taken on sunday");
+
+        assertNull(findTrip("b", "d", SUNDAY, 8 * 3600 + 8 * 60), "Weekday trips should not run on sunday");
+    }
+}
@@ -0,0 +1,150 @@
+package com.bcs05.engine;
+
+import com.bcs05.TestFeed;
+import com.bcs05.util.Coordinates;
+import com.bcs05.util.GTFSGraph;
+import com.bcs05.util.Stop;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+
+public class PostalCodeAccessTableTest {
+
+    // Location of postal code 6211AB, with stop b 120 m and stop a 310 m north of it
+    private static final Coordinates POSTAL_CODE = new Coordinates("50.85", "5.69");
+
+    /**
+     * Writes a table file with two postal codes by hand, in the format of
+     * PostalCodeAccessTable.write
+     *
+     * @return the table file
+     * @throws IOException if the file cannot be written
+     */
+    private File writeTable() throws IOException {
+        File file = File.createTempFile("postal-access", ".bin");
+        file.deleteOnExit();
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            output.writeInt(0x50434154);
+            output.writeInt(2);
+            String[] stopIds = { "a", "b", "c" };
+            output.writeInt(stopIds.length);
+            for (String stopId : stopIds) {
+                output.writeUTF(stopId);
+            }
+            output.writeInt(2);
+
+            // Stops b and a near 6211AB, nearest first. The walk back from a could
+            // not be routed
+            output.writeUTF("6211AB");
+            output.writeInt(2);
+            writeEntry(output, 1, 0.12f, 150, 180, 160, 190);
+            writeEntry(output, 0, 0.31f, 40000, 450, 65535, 65535);
+
+            // No stops near 6229EN
+            output.writeUTF("6229EN");
+            output.writeInt(0);
+        }
+        return file;
+    }
+
+    private void writeEntry(DataOutputStream output, int stop, float aerialDistance, int accessTime,
+            int accessDistance, int egressTime, int egressDistance) throws IOException {
+        output.writeInt(stop);
+        output.writeFloat(aerialDistance);
+        output.writeShort(accessTime);
+        output.writeShort(accessDistance);
+        output.writeShort(egressTime);
+        output.writeShort(egressDistance);
+    }
+
+    /**
+     * Gives a feed with stops a and b near 6211AB and stop c further away
+     *
+     * @return the feed
+     */
+    private TestFeed feed() {
+        return new TestFeed()
+                .stop("a", 50.85279, 5.69)
+                .stop("b", 50.85108, 5.69)
+                .stop("c", 50.87, 5.71)
+                .service("weekday", LocalDate.of(2024, 5, 14))
+                .trip("t1", "r1", "weekday", "a 08:00", "b 08:05", "c 08:10");
+    }
+
+    @Test
+    public void testWriteReadRoundTrip() throws IOException {
+        File file = writeTable();
+        PostalCodeAccessTable table = PostalCodeAccessTable.read(file);
+
+        File copy = File.createTempFile("postal-access-copy", ".bin");
+        copy.deleteOnExit();
+        table.write(copy);
+        assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(copy.toPath()),
+                "Writing a table that was read should give the same file");
+
+        PostalCodeAccessTable copiedTable = PostalCodeAccessTable.read(copy);
+        int entry = copiedTable.getEntry("6211AB", 1, "a");
+        assertNotEquals(-1, entry, "The second stop of the postal code should be found");
+        assertEquals(40000, copiedTable.getAccessTime(entry), "Times should be read as unsigned");
+        assertEquals(450, copiedTable.getAccessDistance(entry), "The access distance should be kept");
+        assertEquals(-1, copiedTable.getEgressTime(entry), "A walk that could not be routed should be unknown");
+        assertEquals(-1, copiedTable.getEgressDistance(entry), "A walk that could not be routed should be unknown");
+    }
+
+    @Test
+    public void testReadRejectsOtherFormat() throws IOException {
+        File file = File.createTempFile("postal-access-bad", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+        assertThrows(IOException.class, () -> PostalCodeAccessTable.read(file), "Other files should be rejected");
+    }
+
+    @Test
+    public void testListsStopsInEntryOrder() throws IOException {
+        PostalCodeAccessTable table = PostalCodeAccessTable.read(writeTable());
+        GTFSGraph graph = feed().loadGraph();
+
+        ArrayList<Stop> stops = table.getStops("6211AB", POSTAL_CODE, 0.5, graph);
+        assertEquals(2, stops.size(), "Both stops within the radius should be listed");
+        assertEquals("b", stops.get(0).getStopId(), "The nearest stop should be listed first");
+        assertEquals("50.85108", stops.get(0).getCoordinates().getLatitude(), "Stops should have their location");
+        assertEquals(1, table.getStops("6211AB", POSTAL_CODE, 0.2, graph).size(),
+                "A smaller radius should list fewer stops");
+        assertTrue(table.getStops("6229EN", new Coordinates("50.80", "5.60"), 0.5, graph).isEmpty(),
+                "A postal code may have no stops");
+        assertNull(table.getStops("1000AA", POSTAL_CODE, 0.5, graph), "Unknown postal codes should not be covered");
+        assertNull(table.getStops("6211AB", POSTAL_CODE, 0.8, graph), "Radii beyond the table should not be covered");
+
+        // The entry of every stop follows from its position in the list
+        for (int i = 0; i < stops.size(); i++) {
+            assertEquals(table.getFirstEntry("6211AB") + i, table.getEntry("6211AB", i, stops.get(i).getStopId()),
+                    "The entry should be found from the position of the stop");
+        }
+        assertEquals(-1, table.getEntry("6211AB", 0, "a"), "A stop at another position should not match");
+        assertEquals(-1, table.getEntry("6211AB", 2, "c"), "Positions past the list should not match");
+        assertEquals(150, table.getAccessTime(table.getEntry("6211AB", 0, "b")), "The walk to b should be found");
+    }
+
+    @Test
+    public void testFallsBackWhenGridFindsMoreStops() throws IOException {
+        PostalCodeAccessTable table = PostalCodeAccessTable.read(writeTable());
+        // Stop d, 200 m from 6211AB, was added after the table was computed
+        GTFSGraph graph = feed()
+                .stop("d", 50.8518, 5.69)
+                .trip("t2", "r2", "weekday", "d 09:00", "c 09:10")
+                .loadGraph();
+
+        assertNull(table.getStops("6211AB", POSTAL_CODE, 0.5, graph),
+                "The table should not be used when it misses stops near the postal code");
+        assertEquals(1, table.getStops("6211AB", POSTAL_CODE, 0.15, graph).size(),
+                "The table should be used for a radius without new stops");
+    }
+}